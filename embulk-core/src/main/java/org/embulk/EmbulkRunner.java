@@ -292,15 +292,52 @@ public class EmbulkRunner
             throw new RuntimeException("Not writable: " + resumeStatePath.toString());
         }
 
+        // merge modifies the config in place. transactions in continuous mode start from a copy
+        // of the config before any config diffs are merged
+        final ConfigSource pristineConfigSource = originalConfigSource.deepCopy();
+
         final ConfigSource configSource;
         if (configDiffPath != null && Files.size(configDiffPath) > 0L) {
-            configSource = originalConfigSource.merge(
+            configSource = pristineConfigSource.deepCopy().merge(
                 readConfig(configDiffPath, Collections.<String, Object>emptyMap(), null));
         }
         else {
-            configSource = originalConfigSource;
+            configSource = pristineConfigSource.deepCopy();
+        }
+
+        final ConfigSource execConfig = configSource.deepCopy().getNestedOrGetEmpty("exec");
+        final boolean continuous = execConfig.get(boolean.class, "continuous", false);
+        final long intervalMillis = execConfig.get(long.class, "continuous_interval", 0L) * 1000;
+
+        long startTime = System.currentTimeMillis();
+        ConfigDiff configDiff = runOnce(configSource, configDiffPath, outputPath, resumeStatePath);
+
+        // runs transactions repeatedly in the same JVM with the next config. The config diff file
+        // is written after each transaction so that a restart with -c continues from there.
+        while (continuous) {
+            final long waitMillis = startTime + intervalMillis - System.currentTimeMillis();
+            if (waitMillis > 0) {
+                try {
+                    Thread.sleep(waitMillis);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            rootLogger.info("Running the next transaction in continuous mode.");
+            startTime = System.currentTimeMillis();
+            configDiff = runOnce(pristineConfigSource.deepCopy().merge(configDiff), configDiffPath, outputPath, resumeStatePath);
         }
+    }
 
+    private ConfigDiff runOnce(
+            final ConfigSource configSource,
+            final Path configDiffPath,
+            final Path outputPath,  // deprecated
+            final Path resumeStatePath)
+            throws IOException
+    {
         final ConfigSource resumeConfig;
         if (resumeStatePath != null) {
             ConfigSource resumeConfigTemp = null;
@@ -385,7 +422,8 @@ public class EmbulkRunner
         rootLogger.info("Next config diff: " + configDiff.toString());
 
         writeConfig(configDiffPath, configDiff);
-        writeConfig(outputPath, configSource.merge(configDiff));  // deprecated
+        writeConfig(outputPath, configSource.deepCopy().merge(configDiff));  // deprecated
+        return configDiff;
     }
 
     // def resume_state(config, options={})
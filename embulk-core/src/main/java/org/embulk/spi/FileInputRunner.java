@@ -2,6 +2,8 @@ package org.embulk.spi;
 
 import java.util.ArrayList;
 import java.util.List;
+import com.google.common.base.Optional;
+import org.embulk.config.ConfigException;
 import org.embulk.config.Task;
 import org.embulk.config.TaskSource;
 import org.embulk.config.ConfigSource;
@@ -11,7 +13,9 @@ import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.plugin.PluginType;
 import org.embulk.plugin.compat.PluginWrappers;
+import org.embulk.spi.unit.ByteSize;
 import org.embulk.spi.util.Decoders;
+import org.embulk.spi.util.ReadAheadFileInput;
 import org.embulk.exec.GuessExecutor;
 import org.embulk.exec.SamplingParserPlugin;
 import org.embulk.exec.ConfigurableGuessInputPlugin;
@@ -22,6 +26,9 @@ import static org.embulk.exec.GuessExecutor.createSampleBufferConfigFromExecConf
 public class FileInputRunner
         implements InputPlugin, ConfigurableGuessInputPlugin
 {
+    // size of buffers queued between decoders and the parser if decoder_thread is true
+    private static final long DECODER_QUEUE_BYTES = 4 * 1024 * 1024;
+
     private final FileInputPlugin fileInputPlugin;
 
     public FileInputRunner(FileInputPlugin fileInputPlugin)
@@ -40,6 +47,16 @@ public class FileInputRunner
         @Config("parser")
         public ConfigSource getParserConfig();
 
+        // if set, a thread reads files ahead up to this size while they are decoded and parsed
+        @Config("read_ahead")
+        @ConfigDefault("null")
+        public Optional<ByteSize> getReadAhead();
+
+        // if true, decoders run in a thread pipelined with the parser
+        @Config("decoder_thread")
+        @ConfigDefault("false")
+        public boolean getDecoderThread();
+
         public void setFileInputTaskSource(TaskSource v);
         public TaskSource getFileInputTaskSource();
 
@@ -64,6 +81,9 @@ public class FileInputRunner
     public ConfigDiff transaction(ConfigSource config, final InputPlugin.Control control)
     {
         final RunnerTask task = config.loadConfig(RunnerTask.class);
+        if (task.getReadAhead().isPresent() && task.getReadAhead().get().getBytes() <= 0) {
+            throw new ConfigException("\"read_ahead\" must be larger than 0");
+        }
         return fileInputPlugin.transaction(config, new RunnerControl(task, control));
     }
 
@@ -151,9 +171,33 @@ public class FileInputRunner
                 fileInputPlugin.open(task.getFileInputTaskSource(), taskIndex));
         try (CloseResource closer = new CloseResource(tran)) {
             try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
-                FileInput fileInput = Decoders.open(decoderPlugins, task.getDecoderTaskSources(), tran);
+                FileInput rawInput = tran;
+                ReadAheadFileInput readAhead = null;
+                if (task.getReadAhead().isPresent()) {
+                    readAhead = new ReadAheadFileInput(tran, task.getReadAhead().get().getBytes());
+                    rawInput = readAhead;
+                    closer.closeThis(readAhead);
+                }
+                FileInput fileInput = Decoders.open(decoderPlugins, task.getDecoderTaskSources(), rawInput);
                 closer.closeThis(fileInput);
-                parserPlugin.run(task.getParserTaskSource(), schema, fileInput, output);
+                ReadAheadFileInput decoderThread = null;
+                if (task.getDecoderThread() && !decoderPlugins.isEmpty()) {
+                    decoderThread = new ReadAheadFileInput(fileInput, DECODER_QUEUE_BYTES);
+                    fileInput = decoderThread;
+                    closer.closeThis(fileInput);
+                }
+                try {
+                    parserPlugin.run(task.getParserTaskSource(), schema, fileInput, output);
+                }
+                finally {
+                    if (decoderThread != null) {
+                        decoderThread.stop();
+                    }
+                    if (readAhead != null) {
+                        // tran must not be used by the thread when it's committed or aborted
+                        readAhead.stop();
+                    }
+                }
 
                 TaskReport report = tran.commit();  // TODO check output.finish() is called. wrap
                 aborter.dontAbort();
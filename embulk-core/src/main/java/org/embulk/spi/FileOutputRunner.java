@@ -11,11 +11,17 @@ import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.plugin.PluginType;
 import org.embulk.plugin.compat.PluginWrappers;
+import org.embulk.spi.unit.ByteSize;
 import org.embulk.spi.util.Encoders;
+import org.embulk.spi.util.WriteBehindFileOutput;
+import com.google.common.base.Optional;
 
 public class FileOutputRunner
         implements OutputPlugin
 {
+    // size of buffers queued between the formatter and encoders if encoder_thread is true
+    private static final long ENCODER_QUEUE_BYTES = 4 * 1024 * 1024;
+
     private final FileOutputPlugin fileOutputPlugin;
 
     public FileOutputRunner(FileOutputPlugin fileOutputPlugin)
@@ -35,6 +41,20 @@ public class FileOutputRunner
         @Config("formatter")
         public ConfigSource getFormatterConfig();
 
+        // a task starts a new file after a page when the file reaches either of them
+        @Config("max_records_per_file")
+        @ConfigDefault("null")
+        public Optional<Long> getMaxRecordsPerFile();
+
+        @Config("max_file_size")
+        @ConfigDefault("null")
+        public Optional<ByteSize> getMaxFileSize();
+
+        // if true, encoders run in a thread pipelined with the formatter
+        @Config("encoder_thread")
+        @ConfigDefault("false")
+        public boolean getEncoderThread();
+
         public void setFileOutputTaskSource(TaskSource v);
         public TaskSource getFileOutputTaskSource();
 
@@ -134,13 +154,26 @@ public class FileOutputRunner
                 aborter.abortThis(finalOutput);
                 closer.closeThis(finalOutput);
 
-                FileOutput encodedOutput = Encoders.open(encoderPlugins, task.getEncoderTaskSources(), finalOutput);
-                closer.closeThis(encodedOutput);
+                TransactionalPageOutput ret;
+                if (task.getMaxRecordsPerFile().isPresent() || task.getMaxFileSize().isPresent()) {
+                    ret = new RollingTransactionalPageOutput(task, schema, encoderPlugins, formatterPlugin, finalOutput);
+                }
+                else {
+                    FileOutput encodedOutput = Encoders.open(encoderPlugins, task.getEncoderTaskSources(), finalOutput);
+                    closer.closeThis(encodedOutput);
 
-                PageOutput output = formatterPlugin.open(task.getFormatterTaskSource(), schema, encodedOutput);
-                closer.closeThis(output);
+                    WriteBehindFileOutput encoderThread = null;
+                    if (task.getEncoderThread() && !encoderPlugins.isEmpty()) {
+                        encoderThread = new WriteBehindFileOutput(encodedOutput, ENCODER_QUEUE_BYTES);
+                        encodedOutput = encoderThread;
+                        closer.closeThis(encodedOutput);
+                    }
+
+                    PageOutput output = formatterPlugin.open(task.getFormatterTaskSource(), schema, encodedOutput);
+                    closer.closeThis(output);
 
-                TransactionalPageOutput ret = new DelegateTransactionalPageOutput(finalOutput, output);
+                    ret = new DelegateTransactionalPageOutput(finalOutput, output, encoderThread);
+                }
                 aborter.dontAbort();
                 closer.dontClose();  // ownership of output is transferred to caller (input plugin). the owner will close output.
                 return ret;
@@ -153,11 +186,14 @@ public class FileOutputRunner
     {
         private final Transactional tran;
         private final PageOutput output;
+        private final WriteBehindFileOutput encoderThread;
 
-        public DelegateTransactionalPageOutput(Transactional tran, PageOutput output)
+        public DelegateTransactionalPageOutput(Transactional tran, PageOutput output,
+                WriteBehindFileOutput encoderThread)
         {
             this.tran = tran;
             this.output = output;
+            this.encoderThread = encoderThread;
         }
 
         @Override
@@ -181,6 +217,10 @@ public class FileOutputRunner
         @Override
         public void abort()
         {
+            if (encoderThread != null) {
+                // tran must not be used by the thread when it's aborted
+                encoderThread.stop();
+            }
             tran.abort();
         }
 
@@ -192,6 +232,169 @@ public class FileOutputRunner
         }
     }
 
+    /**
+     * Starts a new file when the current file reaches max_records_per_file or max_file_size.
+     *
+     * Files are split only between pages so that records are not broken. The formatter and encoders
+     * are reopened for each file so that each file is complete with its header and compression
+     * trailer. They see a FileOutput which ignores finish() and close() because the underlying
+     * output is finished only once at the end.
+     */
+    private static class RollingTransactionalPageOutput
+            implements TransactionalPageOutput
+    {
+        private final RunnerTask task;
+        private final Schema schema;
+        private final List<EncoderPlugin> encoderPlugins;
+        private final FormatterPlugin formatterPlugin;
+        private final TransactionalFileOutput finalOutput;
+        private final CountingFileOutput countingOutput;
+        private final long maxRecords;
+        private final long maxBytes;
+        private PageOutput output;
+        private WriteBehindFileOutput encoderThread;
+        private long records;
+
+        public RollingTransactionalPageOutput(RunnerTask task, Schema schema,
+                List<EncoderPlugin> encoderPlugins, FormatterPlugin formatterPlugin,
+                TransactionalFileOutput finalOutput)
+        {
+            this.task = task;
+            this.schema = schema;
+            this.encoderPlugins = encoderPlugins;
+            this.formatterPlugin = formatterPlugin;
+            this.finalOutput = finalOutput;
+            this.countingOutput = new CountingFileOutput(finalOutput);
+            this.maxRecords = task.getMaxRecordsPerFile().or(Long.MAX_VALUE);
+            this.maxBytes = task.getMaxFileSize().isPresent() ? task.getMaxFileSize().get().getBytes() : Long.MAX_VALUE;
+            this.output = openOutput();
+        }
+
+        private PageOutput openOutput()
+        {
+            records = 0;
+            encoderThread = null;
+            try (CloseResource closer = new CloseResource()) {
+                FileOutput encodedOutput = Encoders.open(encoderPlugins, task.getEncoderTaskSources(), countingOutput);
+                closer.closeThis(encodedOutput);
+
+                if (task.getEncoderThread() && !encoderPlugins.isEmpty()) {
+                    encoderThread = new WriteBehindFileOutput(encodedOutput, ENCODER_QUEUE_BYTES);
+                    encodedOutput = encoderThread;
+                    closer.closeThis(encodedOutput);
+                }
+
+                PageOutput output = formatterPlugin.open(task.getFormatterTaskSource(), schema, encodedOutput);
+                closer.closeThis(output);
+
+                closer.dontClose();
+                return output;
+            }
+        }
+
+        @Override
+        public void add(Page page)
+        {
+            if (output == null) {
+                output = openOutput();
+            }
+            // the page is released by add
+            int count = PageReader.getRecordCount(page);
+            output.add(page);
+            records += count;
+            if (records >= maxRecords || countingOutput.getBytes() >= maxBytes) {
+                PageOutput rolled = output;
+                output = null;
+                try {
+                    rolled.finish();
+                }
+                finally {
+                    rolled.close();
+                }
+            }
+        }
+
+        @Override
+        public void finish()
+        {
+            if (output != null) {
+                output.finish();
+            }
+            finalOutput.finish();
+        }
+
+        @Override
+        public void close()
+        {
+            try {
+                if (output != null) {
+                    output.close();
+                }
+            }
+            finally {
+                finalOutput.close();
+            }
+        }
+
+        @Override
+        public void abort()
+        {
+            if (encoderThread != null) {
+                encoderThread.stop();
+            }
+            finalOutput.abort();
+        }
+
+        @Override
+        public TaskReport commit()
+        {
+            return finalOutput.commit();
+        }
+    }
+
+    private static class CountingFileOutput
+            implements FileOutput
+    {
+        private final FileOutput next;
+        private volatile long bytes;  // updated by the encoder thread if encoder_thread is true
+
+        public CountingFileOutput(FileOutput next)
+        {
+            this.next = next;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        @Override
+        public void nextFile()
+        {
+            bytes = 0;
+            next.nextFile();
+        }
+
+        @Override
+        public void add(Buffer buffer)
+        {
+            bytes += buffer.limit();
+            next.add(buffer);
+        }
+
+        @Override
+        public void finish()
+        {
+            // the underlying output is finished by RollingTransactionalPageOutput
+        }
+
+        @Override
+        public void close()
+        {
+            // the underlying output is closed by RollingTransactionalPageOutput
+        }
+    }
+
     public static TaskSource getFileOutputTaskSource(TaskSource runnerTaskSource)
     {
         return runnerTaskSource.loadTask(RunnerTask.class).getFileOutputTaskSource();
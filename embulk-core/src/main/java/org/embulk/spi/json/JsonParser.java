@@ -1,12 +1,12 @@
 package org.embulk.spi.json;
 
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.io.InputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import org.msgpack.core.MessagePacker;
 import org.msgpack.value.Value;
 import org.msgpack.value.ValueFactory;
 import com.fasterxml.jackson.core.JsonFactory;
@@ -23,6 +23,24 @@ public class JsonParser
         void close() throws IOException;
     }
 
+    // parse(String) and transcode(String, MessagePacker) are called for each value of
+    // json columns. They reuse these buffers in each thread.
+    private static final ThreadLocal<ValueStack> threadLocalValueStack = new ThreadLocal<ValueStack>() {
+        @Override
+        protected ValueStack initialValue()
+        {
+            return new ValueStack();
+        }
+    };
+
+    private static final ThreadLocal<MessagePackTranscoder> threadLocalTranscoder = new ThreadLocal<MessagePackTranscoder>() {
+        @Override
+        protected MessagePackTranscoder initialValue()
+        {
+            return new MessagePackTranscoder();
+        }
+    };
+
     private final JsonFactory factory;
 
     public JsonParser()
@@ -39,7 +57,30 @@ public class JsonParser
 
     public Value parse(String json)
     {
-        return new SingleParseContext(factory, json).parse();
+        return new SingleParseContext(factory, json, threadLocalValueStack.get()).parse();
+    }
+
+    /**
+     * Writes a JSON value to the packer in MessagePack format without building msgpack Values.
+     *
+     * Arrays and maps are written with 32-bit size headers, and duplicated keys of a map
+     * are written as they appear.
+     */
+    public void transcode(String json, MessagePacker packer)
+            throws IOException
+    {
+        MessagePackTranscoder transcoder = threadLocalTranscoder.get();
+        try (com.fasterxml.jackson.core.JsonParser parser = SingleParseContext.createParser(factory, json)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new JsonParseException("Unable to parse empty string");
+            }
+            transcoder.transcode(parser, token, sampleJsonString(json));
+        }
+        catch (com.fasterxml.jackson.core.JsonParseException ex) {
+            throw new JsonParseException("Failed to parse JSON: " + sampleJsonString(json), ex);
+        }
+        packer.writePayload(transcoder.getBuffer(), 0, transcoder.getLength());
     }
 
     private static String sampleJsonString(String json)
@@ -59,7 +100,7 @@ public class JsonParser
         public StreamParseContext(JsonFactory factory, InputStream in)
             throws IOException, JsonParseException
         {
-            super(createParser(factory, in));
+            super(createParser(factory, in), new ValueStack());
         }
 
         private static com.fasterxml.jackson.core.JsonParser createParser(JsonFactory factory, InputStream in)
@@ -94,13 +135,13 @@ public class JsonParser
     {
         private final String json;
 
-        public SingleParseContext(JsonFactory factory, String json)
+        public SingleParseContext(JsonFactory factory, String json, ValueStack stack)
         {
-            super(createParser(factory, json));
+            super(createParser(factory, json), stack);
             this.json = json;
         }
 
-        private static com.fasterxml.jackson.core.JsonParser createParser(JsonFactory factory, String json)
+        static com.fasterxml.jackson.core.JsonParser createParser(JsonFactory factory, String json)
         {
             try {
                 return factory.createParser(json);
@@ -122,6 +163,15 @@ public class JsonParser
             catch (IOException ex) {
                 throw new JsonParseException("Failed to parse JSON: "+sampleJsonString(), ex);
             }
+            finally {
+                // returns the buffers of the parser to Jackson's per-thread recycler
+                try {
+                    parser.close();
+                }
+                catch (IOException ex) {
+                    // never happens with a String source
+                }
+            }
         }
 
         @Override
@@ -134,10 +184,12 @@ public class JsonParser
     private static abstract class AbstractParseContext
     {
         protected final com.fasterxml.jackson.core.JsonParser parser;
+        private final ValueStack stack;
 
-        public AbstractParseContext(com.fasterxml.jackson.core.JsonParser parser)
+        public AbstractParseContext(com.fasterxml.jackson.core.JsonParser parser, ValueStack stack)
         {
             this.parser = parser;
+            this.stack = stack;
         }
 
         protected abstract String sampleJsonString();
@@ -149,6 +201,7 @@ public class JsonParser
                 if (token == null) {
                     return null;
                 }
+                stack.clear();  // in case the previous value failed
                 return jsonTokenToValue(token);
             }
             catch (com.fasterxml.jackson.core.JsonParseException ex) {
@@ -187,24 +240,24 @@ public class JsonParser
             case VALUE_STRING:
                 return ValueFactory.newString(parser.getText());
             case START_ARRAY: {
-                List<Value> list = new ArrayList<>();
+                final int start = stack.size();
                 while (true) {
                     token = parser.nextToken();
                     if (token == JsonToken.END_ARRAY) {
-                        return ValueFactory.newArray(list);
+                        return ValueFactory.newArray(stack.pop(start), true);
                     }
                     else if (token == null) {
                         throw new JsonParseException("Unexpected end of JSON at "+parser.getTokenLocation() + " while expecting an element of an array: " + sampleJsonString());
                     }
-                    list.add(jsonTokenToValue(token));
+                    stack.push(jsonTokenToValue(token));
                 }
             }
             case START_OBJECT:
-                Map<Value, Value> map = new HashMap<>();
+                final int start = stack.size();
                 while (true) {
                     token = parser.nextToken();
                     if (token == JsonToken.END_OBJECT) {
-                        return ValueFactory.newMap(map);
+                        return ValueFactory.newMap(stack.popKeyValues(start), true);
                     }
                     else if (token == null) {
                         throw new JsonParseException("Unexpected end of JSON at "+parser.getTokenLocation() + " while expecting a key of object: " + sampleJsonString());
@@ -217,8 +270,8 @@ public class JsonParser
                     if (token == null) {
                         throw new JsonParseException("Unexpected end of JSON at "+parser.getTokenLocation() + " while expecting a value of object: " + sampleJsonString());
                     }
-                    Value value = jsonTokenToValue(token);
-                    map.put(ValueFactory.newString(key), value);
+                    stack.push(ValueFactory.newString(key));
+                    stack.push(jsonTokenToValue(token));
                 }
             case VALUE_EMBEDDED_OBJECT:
             case FIELD_NAME:
@@ -230,4 +283,79 @@ public class JsonParser
             }
         }
     }
+
+    // Values of arrays and maps being built. Elements are collected here, and copied only
+    // once into the array of each msgpack Value instead of going through List or Map.
+    private static class ValueStack
+    {
+        private Value[] values = new Value[64];
+        private int size;
+        private final Map<Value, Integer> keyIndexes = new HashMap<>();
+
+        int size()
+        {
+            return size;
+        }
+
+        void push(Value value)
+        {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        Value[] pop(int start)
+        {
+            Value[] popped = Arrays.copyOfRange(values, start, size);
+            clear(start);
+            return popped;
+        }
+
+        // pops key-value pairs. A duplicated key keeps the last value as a map does.
+        Value[] popKeyValues(int start)
+        {
+            if (size - start <= 16) {
+                for (int i = start; i < size; i += 2) {
+                    for (int j = i + 2; j < size; j += 2) {
+                        if (values[i].equals(values[j])) {
+                            return popUniqueKeyValues(start);
+                        }
+                    }
+                }
+                return pop(start);
+            }
+            return popUniqueKeyValues(start);
+        }
+
+        private Value[] popUniqueKeyValues(int start)
+        {
+            keyIndexes.clear();
+            for (int i = start; i < size; i += 2) {
+                keyIndexes.put(values[i], i);
+            }
+            Value[] popped = new Value[keyIndexes.size() * 2];
+            int n = 0;
+            for (int i = start; i < size; i += 2) {
+                if (keyIndexes.get(values[i]) == i) {
+                    popped[n++] = values[i];
+                    popped[n++] = values[i + 1];
+                }
+            }
+            keyIndexes.clear();
+            clear(start);
+            return popped;
+        }
+
+        void clear()
+        {
+            clear(0);
+        }
+
+        private void clear(int start)
+        {
+            Arrays.fill(values, start, size, null);
+            size = start;
+        }
+    }
 }
@@ -0,0 +1,258 @@
+package org.embulk.spi.json;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+
+/**
+ * Writes Jackson tokens into a reusable buffer in MessagePack format without building msgpack Values.
+ *
+ * Headers of arrays and maps are written as array 32 and map 32 because their sizes are not known
+ * until their end tokens. They are valid MessagePack although they are not the shortest encoding.
+ * Keys of a map are written as they appear even if they are duplicated.
+ *
+ * An instance is not thread-safe. JsonParser keeps one instance for each thread.
+ */
+class MessagePackTranscoder
+{
+    private static final BigInteger UINT64_MAX = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private byte[] buffer = new byte[512];
+    private int position;
+    private int[] containerOffsets = new int[16];
+    private int[] containerSizes = new int[16];
+    private int depth;
+
+    byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    int getLength()
+    {
+        return position;
+    }
+
+    /**
+     * Transcodes a value which starts with the current token of the parser.
+     * Contents of the previous call are discarded.
+     */
+    void transcode(com.fasterxml.jackson.core.JsonParser parser, JsonToken token, String sampleJsonString)
+            throws IOException
+    {
+        position = 0;
+        depth = 0;
+        while (true) {
+            if (depth > 0) {
+                containerSizes[depth - 1]++;
+            }
+            switch (token) {
+            case VALUE_NULL:
+                writeByte((byte) 0xc0);
+                break;
+            case VALUE_TRUE:
+                writeByte((byte) 0xc3);
+                break;
+            case VALUE_FALSE:
+                writeByte((byte) 0xc2);
+                break;
+            case VALUE_NUMBER_FLOAT:
+                writeByte((byte) 0xcb);
+                writeLong(Double.doubleToRawLongBits(parser.getDoubleValue()));
+                break;
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == NumberType.BIG_INTEGER) {
+                    writeBigInteger(parser.getBigIntegerValue(), parser, sampleJsonString);
+                }
+                else {
+                    writeInteger(parser.getLongValue());
+                }
+                break;
+            case VALUE_STRING:
+                writeString(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                break;
+            case START_ARRAY:
+                beginContainer((byte) 0xdd);
+                break;
+            case START_OBJECT:
+                beginContainer((byte) 0xdf);
+                break;
+            default:
+                throw new JsonParseException("Unexpected token " + token + " at " + parser.getTokenLocation() + ": " + sampleJsonString);
+            }
+
+            while (true) {
+                if (depth == 0) {
+                    return;
+                }
+                token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY || token == JsonToken.END_OBJECT) {
+                    endContainer();
+                }
+                else if (token == JsonToken.FIELD_NAME) {
+                    writeString(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                    token = parser.nextToken();
+                    if (token == null) {
+                        throw new JsonParseException("Unexpected end of JSON at " + parser.getTokenLocation() + " while expecting a value of object: " + sampleJsonString);
+                    }
+                    break;
+                }
+                else if (token == null) {
+                    throw new JsonParseException("Unexpected end of JSON at " + parser.getTokenLocation() + " while expecting an element of an array: " + sampleJsonString);
+                }
+                else {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void beginContainer(byte header)
+    {
+        if (depth == containerOffsets.length) {
+            containerOffsets = Arrays.copyOf(containerOffsets, depth * 2);
+            containerSizes = Arrays.copyOf(containerSizes, depth * 2);
+        }
+        containerOffsets[depth] = position;
+        containerSizes[depth] = 0;
+        depth++;
+        writeByte(header);
+        writeInt(0);  // size is patched by endContainer
+    }
+
+    private void endContainer()
+    {
+        depth--;
+        int offset = containerOffsets[depth] + 1;
+        int size = containerSizes[depth];
+        buffer[offset] = (byte) (size >>> 24);
+        buffer[offset + 1] = (byte) (size >>> 16);
+        buffer[offset + 2] = (byte) (size >>> 8);
+        buffer[offset + 3] = (byte) size;
+    }
+
+    private void writeInteger(long v)
+    {
+        if (v >= -32 && v < 128) {
+            writeByte((byte) v);  // fixint
+        }
+        else if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+            writeByte((byte) 0xd2);
+            writeInt((int) v);
+        }
+        else {
+            writeByte((byte) 0xd3);
+            writeLong(v);
+        }
+    }
+
+    private void writeBigInteger(BigInteger v, com.fasterxml.jackson.core.JsonParser parser, String sampleJsonString)
+    {
+        if (v.signum() < 0 || v.compareTo(UINT64_MAX) > 0) {
+            throw new JsonParseException("Integer out of range of MessagePack at " + parser.getTokenLocation() + ": " + sampleJsonString);
+        }
+        writeByte((byte) 0xcf);
+        writeLong(v.longValue());
+    }
+
+    private void writeString(char[] chars, int offset, int length)
+    {
+        int utf8Length = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                utf8Length += 1;
+            }
+            else if (c < 0x800) {
+                utf8Length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                utf8Length += 4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)) {
+                utf8Length += 1;  // replaced with '?' as String#getBytes does
+            }
+            else {
+                utf8Length += 3;
+            }
+        }
+
+        if (utf8Length < 32) {
+            writeByte((byte) (0xa0 | utf8Length));  // fixstr
+        }
+        else if (utf8Length < (1 << 8)) {
+            writeByte((byte) 0xd9);
+            writeByte((byte) utf8Length);
+        }
+        else if (utf8Length < (1 << 16)) {
+            writeByte((byte) 0xda);
+            writeByte((byte) (utf8Length >>> 8));
+            writeByte((byte) utf8Length);
+        }
+        else {
+            writeByte((byte) 0xdb);
+            writeInt(utf8Length);
+        }
+
+        ensureCapacity(utf8Length);
+        byte[] b = buffer;
+        int p = position;
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                b[p++] = (byte) (0xf0 | (cp >> 18));
+                b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (cp & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+                b[p++] = (byte) '?';
+            }
+            else {
+                b[p++] = (byte) (0xe0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        position = p;
+    }
+
+    private void writeByte(byte v)
+    {
+        ensureCapacity(1);
+        buffer[position++] = v;
+    }
+
+    private void writeInt(int v)
+    {
+        ensureCapacity(4);
+        buffer[position++] = (byte) (v >>> 24);
+        buffer[position++] = (byte) (v >>> 16);
+        buffer[position++] = (byte) (v >>> 8);
+        buffer[position++] = (byte) v;
+    }
+
+    private void writeLong(long v)
+    {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    private void ensureCapacity(int required)
+    {
+        if (buffer.length - position < required) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + required));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package org.embulk.spi.time;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Formats timestamps of common formats such as {@code %Y-%m-%d %H:%M:%S.%6N %z} into a reused
+ * char buffer without RubyDateFormat and Joda-Time DateTime.
+ *
+ * All supported fields have a fixed width, so the buffer is a template. Fields which depend on
+ * the second are rendered only when the second changes, and the fraction of the second is
+ * written over its fixed position for each value.
+ *
+ * {@link #render(Timestamp)} returns false for values which can't be rendered in fixed width
+ * (years out of 1000..9999 or zone offsets with seconds) so that TimestampFormatter falls back
+ * to RubyDateFormat.
+ */
+final class FastTimestampFormatter
+{
+    private enum Field
+    {
+        YEAR(4), MONTH(2), DAY(2), HOUR(2), MINUTE(2), SECOND(2), FRACTION(0), ZONE(5), COLON_ZONE(6), LITERAL(1);
+
+        private final int width;
+
+        Field(int width)
+        {
+            this.width = width;
+        }
+    }
+
+    private final DateTimeZone timeZone;
+    private final Field[] fields;
+    private final int[] offsets;
+    private final int[] widths;
+    private final char[] buffer;
+    private boolean cached;
+    private long cachedSecond;
+
+    private FastTimestampFormatter(DateTimeZone timeZone, List<Field> fields, List<Integer> widths, String literals)
+    {
+        this.timeZone = timeZone;
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.offsets = new int[fields.size()];
+        this.widths = new int[fields.size()];
+        int offset = 0;
+        for (int i = 0; i < this.fields.length; i++) {
+            this.offsets[i] = offset;
+            this.widths[i] = widths.get(i);
+            offset += this.widths[i];
+        }
+        this.buffer = new char[offset];
+        for (int i = 0; i < this.fields.length; i++) {
+            if (this.fields[i] == Field.LITERAL) {
+                buffer[offsets[i]] = literals.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Returns a formatter for the format, or null if the format is not supported.
+     * Supported formats consist of %Y, %m, %d, %H, %M, %S, %F, %T, %L, %N (with optional width
+     * 1 to 9), %z, %:z, %% and literals.
+     */
+    static FastTimestampFormatter of(String format, DateTimeZone timeZone)
+    {
+        List<Field> fields = new ArrayList<>();
+        List<Integer> widths = new ArrayList<>();
+        StringBuilder literals = new StringBuilder();
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i++);
+            if (c != '%') {
+                add(fields, widths, literals, Field.LITERAL, 1, c);
+                continue;
+            }
+            if (i >= format.length()) {
+                return null;
+            }
+
+            int width = -1;
+            boolean colon = false;
+            char d = format.charAt(i++);
+            if ('1' <= d && d <= '9') {
+                width = d - '0';
+                if (i >= format.length()) {
+                    return null;
+                }
+                d = format.charAt(i++);
+            }
+            else if (d == ':') {
+                colon = true;
+                if (i >= format.length()) {
+                    return null;
+                }
+                d = format.charAt(i++);
+            }
+
+            if (width >= 0 && d != 'N') {
+                return null;
+            }
+            if (colon && d != 'z') {
+                return null;
+            }
+
+            switch (d) {
+            case 'Y':
+                add(fields, widths, literals, Field.YEAR, Field.YEAR.width, '\0');
+                break;
+            case 'm':
+                add(fields, widths, literals, Field.MONTH, Field.MONTH.width, '\0');
+                break;
+            case 'd':
+                add(fields, widths, literals, Field.DAY, Field.DAY.width, '\0');
+                break;
+            case 'H':
+                add(fields, widths, literals, Field.HOUR, Field.HOUR.width, '\0');
+                break;
+            case 'M':
+                add(fields, widths, literals, Field.MINUTE, Field.MINUTE.width, '\0');
+                break;
+            case 'S':
+                add(fields, widths, literals, Field.SECOND, Field.SECOND.width, '\0');
+                break;
+            case 'F':
+                add(fields, widths, literals, Field.YEAR, Field.YEAR.width, '\0');
+                add(fields, widths, literals, Field.LITERAL, 1, '-');
+                add(fields, widths, literals, Field.MONTH, Field.MONTH.width, '\0');
+                add(fields, widths, literals, Field.LITERAL, 1, '-');
+                add(fields, widths, literals, Field.DAY, Field.DAY.width, '\0');
+                break;
+            case 'T':
+                add(fields, widths, literals, Field.HOUR, Field.HOUR.width, '\0');
+                add(fields, widths, literals, Field.LITERAL, 1, ':');
+                add(fields, widths, literals, Field.MINUTE, Field.MINUTE.width, '\0');
+                add(fields, widths, literals, Field.LITERAL, 1, ':');
+                add(fields, widths, literals, Field.SECOND, Field.SECOND.width, '\0');
+                break;
+            case 'L':
+                add(fields, widths, literals, Field.FRACTION, 3, '\0');
+                break;
+            case 'N':
+                add(fields, widths, literals, Field.FRACTION, width < 0 ? 9 : width, '\0');
+                break;
+            case 'z':
+                if (colon) {
+                    add(fields, widths, literals, Field.COLON_ZONE, Field.COLON_ZONE.width, '\0');
+                }
+                else {
+                    add(fields, widths, literals, Field.ZONE, Field.ZONE.width, '\0');
+                }
+                break;
+            case '%':
+                add(fields, widths, literals, Field.LITERAL, 1, '%');
+                break;
+            default:
+                return null;
+            }
+        }
+        return new FastTimestampFormatter(timeZone, fields, widths, literals.toString());
+    }
+
+    private static void add(List<Field> fields, List<Integer> widths, StringBuilder literals,
+            Field field, int width, char literal)
+    {
+        fields.add(field);
+        widths.add(width);
+        literals.append(literal);
+    }
+
+    char[] getBuffer()
+    {
+        return buffer;
+    }
+
+    int getLength()
+    {
+        return buffer.length;
+    }
+
+    /**
+     * Renders the value into the buffer. Returns false if the value is not supported.
+     */
+    boolean render(Timestamp value)
+    {
+        final long second = value.getEpochSecond();
+        if (!cached || second != cachedSecond) {
+            if (!renderSecond(second)) {
+                return false;
+            }
+            cached = true;
+            cachedSecond = second;
+        }
+
+        final int nano = value.getNano();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == Field.FRACTION) {
+                int v = nano;
+                for (int n = widths[i]; n < 9; n++) {
+                    v /= 10;
+                }
+                for (int p = offsets[i] + widths[i] - 1; p >= offsets[i]; p--) {
+                    buffer[p] = (char) ('0' + v % 10);
+                    v /= 10;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean renderSecond(long second)
+    {
+        final int offsetMillis = timeZone.getOffset(second * 1000);
+        if (offsetMillis % 60000 != 0) {
+            return false;
+        }
+        final long local = second + offsetMillis / 1000;
+        final long days = TimeArithmetic.floorDiv(local, 86400);
+        final int secondOfDay = (int) (local - days * 86400);
+
+        // civil date from days since 1970-01-01 in the proleptic Gregorian calendar
+        final long z = days + 719468;
+        final long era = TimeArithmetic.floorDiv(z, 146097);
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int mp = (int) ((5 * dayOfYear + 2) / 153);
+        final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 1000 || year > 9999) {
+            return false;
+        }
+
+        for (int i = 0; i < fields.length; i++) {
+            final int p = offsets[i];
+            switch (fields[i]) {
+            case YEAR:
+                writeDigits(p, 4, (int) year);
+                break;
+            case MONTH:
+                writeDigits(p, 2, month);
+                break;
+            case DAY:
+                writeDigits(p, 2, day);
+                break;
+            case HOUR:
+                writeDigits(p, 2, secondOfDay / 3600);
+                break;
+            case MINUTE:
+                writeDigits(p, 2, secondOfDay / 60 % 60);
+                break;
+            case SECOND:
+                writeDigits(p, 2, secondOfDay % 60);
+                break;
+            case ZONE:
+            case COLON_ZONE:
+                final int offsetMinutes = Math.abs(offsetMillis / 60000);
+                buffer[p] = offsetMillis < 0 ? '-' : '+';
+                writeDigits(p + 1, 2, offsetMinutes / 60);
+                if (fields[i] == Field.COLON_ZONE) {
+                    buffer[p + 3] = ':';
+                    writeDigits(p + 4, 2, offsetMinutes % 60);
+                }
+                else {
+                    writeDigits(p + 3, 2, offsetMinutes % 60);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+
+    private void writeDigits(int offset, int width, int value)
+    {
+        for (int p = offset + width - 1; p >= offset; p--) {
+            buffer[p] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package org.embulk.spi.time;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Parses timestamps of common formats such as {@code %Y-%m-%d %H:%M:%S.%N %z} and {@code %s}
+ * without going through StrptimeParser, Joda-Time DateTime and time zone names.
+ *
+ * It accepts only strictly formatted text: zero-padded fields, a 4-digit year, a fraction of
+ * 1 to 9 digits and a numeric zone offset ({@code +HH:MM}, {@code +HHMM}) or {@code Z} at the end.
+ * {@link #parse(String)} returns null for anything else including values which StrptimeParser
+ * accepts leniently (e.g. "2017-02-30" or leap seconds) so that TimestampParser falls back to the
+ * generic path and the results stay identical.
+ */
+final class FastTimestampParser
+{
+    private enum Field
+    {
+        YEAR, MONTH, DAY, HOUR, MINUTE, SECOND, FRACTION, ZONE, EPOCH, LITERAL;
+    }
+
+    private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private final Field[] fields;
+    private final char[] literals;
+    private final boolean fixedWidthYear;
+    private final DateTimeZone defaultTimeZone;
+
+    private FastTimestampParser(Field[] fields, char[] literals, boolean fixedWidthYear, DateTimeZone defaultTimeZone)
+    {
+        this.fields = fields;
+        this.literals = literals;
+        this.fixedWidthYear = fixedWidthYear;
+        this.defaultTimeZone = defaultTimeZone;
+    }
+
+    /**
+     * Returns a parser for the compiled pattern, or null if the pattern is not supported.
+     * Supported patterns consist of %Y, %m, %d, %H, %M, %S, %N, %L and literals with an optional
+     * zone at the end, or a sole %s.
+     */
+    static FastTimestampParser of(List<StrptimeToken> compiledPattern, DateTimeZone defaultTimeZone)
+    {
+        StrptimeToken[] tokens = compiledPattern.toArray(new StrptimeToken[compiledPattern.size()]);
+        if (tokens.length == 1 && tokens[0].getFormat() == StrptimeFormat.FORMAT_EPOCH) {
+            return new FastTimestampParser(new Field[] { Field.EPOCH }, new char[1], false, defaultTimeZone);
+        }
+
+        List<Field> fields = new ArrayList<>();
+        StringBuilder literals = new StringBuilder();
+        EnumSet<Field> seen = EnumSet.noneOf(Field.class);
+        boolean fixedWidthYear = false;
+        for (int i = 0; i < tokens.length; i++) {
+            final Field field;
+            switch (tokens[i].getFormat()) {
+            case FORMAT_STRING:
+                String str = tokens[i].getData().toString();
+                for (int j = 0; j < str.length(); j++) {
+                    fields.add(Field.LITERAL);
+                    literals.append(str.charAt(j));
+                }
+                continue;
+            case FORMAT_YEAR_LONG:
+                field = Field.YEAR;
+                // StrptimeParser reads only 4 digits if a number follows (e.g. %Y%m%d)
+                fixedWidthYear = i + 1 < tokens.length && isNumberPattern(tokens[i + 1]);
+                break;
+            case FORMAT_MONTH:
+                field = Field.MONTH;
+                break;
+            case FORMAT_DAY:
+                field = Field.DAY;
+                break;
+            case FORMAT_HOUR:
+                field = Field.HOUR;
+                break;
+            case FORMAT_MINUTES:
+                field = Field.MINUTE;
+                break;
+            case FORMAT_SECONDS:
+                field = Field.SECOND;
+                break;
+            case FORMAT_NANOSEC:
+            case FORMAT_MILLISEC:
+                if (i + 1 < tokens.length && isNumberPattern(tokens[i + 1])) {
+                    return null;
+                }
+                field = Field.FRACTION;
+                break;
+            case FORMAT_ZONE_ID:
+            case FORMAT_COLON_ZONE_OFF:
+                if (i + 1 != tokens.length) {
+                    return null;
+                }
+                field = Field.ZONE;
+                break;
+            default:
+                return null;
+            }
+            if (!seen.add(field)) {
+                return null;
+            }
+            fields.add(field);
+            literals.append('\0');
+        }
+
+        if (!seen.containsAll(EnumSet.of(Field.YEAR, Field.MONTH, Field.DAY))) {
+            // the generic path fills missing date fields with default_date
+            return null;
+        }
+        return new FastTimestampParser(fields.toArray(new Field[fields.size()]),
+                literals.toString().toCharArray(), fixedWidthYear, defaultTimeZone);
+    }
+
+    private static boolean isNumberPattern(StrptimeToken token)
+    {
+        switch (token.getFormat()) {
+        case FORMAT_STRING:
+            return isDigit(token.getData().toString().charAt(0));
+        case FORMAT_ZONE_ID:
+        case FORMAT_COLON_ZONE_OFF:
+            return false;
+        default:
+            return true;  // all other supported fields are numbers
+        }
+    }
+
+    /**
+     * Returns the parsed timestamp, or null if the text is not in the strict form of the format.
+     */
+    Timestamp parse(String text)
+    {
+        final int length = text.length();
+        int pos = 0;
+        int year = 0;
+        int month = 0;
+        int day = 0;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        long nano = 0;
+        boolean hasZone = false;
+        int zoneOffset = 0;
+
+        for (int i = 0; i < fields.length; i++) {
+            switch (fields[i]) {
+            case LITERAL:
+                if (pos >= length || text.charAt(pos) != literals[i]) {
+                    return null;
+                }
+                pos++;
+                break;
+            case YEAR:
+                year = readFixedDigits(text, pos, 4);
+                pos += 4;
+                if (year < 0 || (!fixedWidthYear && pos < length && isDigit(text.charAt(pos)))) {
+                    return null;
+                }
+                break;
+            case MONTH:
+                month = readFixedDigits(text, pos, 2);
+                pos += 2;
+                if (month < 1 || month > 12) {
+                    return null;
+                }
+                break;
+            case DAY:
+                day = readFixedDigits(text, pos, 2);
+                pos += 2;
+                if (day < 1) {
+                    return null;
+                }
+                break;
+            case HOUR:
+                hour = readFixedDigits(text, pos, 2);
+                pos += 2;
+                if (hour < 0 || hour > 23) {
+                    return null;
+                }
+                break;
+            case MINUTE:
+                minute = readFixedDigits(text, pos, 2);
+                pos += 2;
+                if (minute < 0 || minute > 59) {
+                    return null;
+                }
+                break;
+            case SECOND:
+                second = readFixedDigits(text, pos, 2);
+                pos += 2;
+                if (second < 0 || second > 59) {
+                    return null;
+                }
+                break;
+            case FRACTION: {
+                int start = pos;
+                long fraction = 0;
+                while (pos < length && isDigit(text.charAt(pos))) {
+                    if (pos - start == 9) {
+                        return null;
+                    }
+                    fraction = fraction * 10 + (text.charAt(pos) - '0');
+                    pos++;
+                }
+                if (pos == start) {
+                    return null;
+                }
+                for (int n = pos - start; n < 9; n++) {
+                    fraction *= 10;
+                }
+                nano = fraction;
+                break;
+            }
+            case ZONE:
+                if (pos < length && text.charAt(pos) == 'Z') {
+                    pos++;
+                }
+                else {
+                    if (pos >= length) {
+                        return null;
+                    }
+                    char sign = text.charAt(pos);
+                    if (sign != '+' && sign != '-') {
+                        return null;
+                    }
+                    int offsetHour = readFixedDigits(text, pos + 1, 2);
+                    pos += 3;
+                    if (pos < length && text.charAt(pos) == ':') {
+                        pos++;
+                    }
+                    int offsetMinute = readFixedDigits(text, pos, 2);
+                    pos += 2;
+                    if (offsetHour < 0 || offsetHour > 23 || offsetMinute < 0 || offsetMinute > 59) {
+                        return null;
+                    }
+                    zoneOffset = (offsetHour * 3600 + offsetMinute * 60) * (sign == '-' ? -1 : 1);
+                }
+                hasZone = true;
+                break;
+            case EPOCH:
+                return parseEpoch(text);
+            }
+        }
+
+        if (pos != length) {
+            // StrptimeParser ignores trailing text. Leave such cases to it.
+            return null;
+        }
+        if (day > DAYS_IN_MONTH[month - 1] && !(month == 2 && day == 29 && isLeapYear(year))) {
+            // StrptimeParser rolls an overflowed day over to the next month
+            return null;
+        }
+
+        final long localSeconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second;
+        final long seconds;
+        if (hasZone) {
+            seconds = localSeconds - zoneOffset;
+        }
+        else {
+            seconds = defaultTimeZone.convertLocalToUTC(localSeconds * 1000, false) / 1000;
+        }
+        return Timestamp.ofEpochSecond(seconds, nano);
+    }
+
+    private Timestamp parseEpoch(String text)
+    {
+        final int length = text.length();
+        int pos = 0;
+        boolean negative = false;
+        if (length > 0 && text.charAt(0) == '-') {
+            negative = true;
+            pos++;
+        }
+        if (pos == length || length - pos > 10) {
+            return null;
+        }
+        long value = 0;
+        for (; pos < length; pos++) {
+            char c = text.charAt(pos);
+            if (!isDigit(c)) {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+        }
+        if (value > Integer.MAX_VALUE) {
+            // StrptimeParser truncates %s to int
+            return null;
+        }
+        final long localSeconds = negative ? -value : value;
+        return Timestamp.ofEpochSecond(defaultTimeZone.convertLocalToUTC(localSeconds * 1000, false) / 1000, 0);
+    }
+
+    /**
+     * Returns the value of exactly {@code count} digits at {@code pos}, or -1 if they are not digits.
+     */
+    private static int readFixedDigits(String text, int pos, int count)
+    {
+        if (pos + count > text.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return '0' <= c && c <= '9';
+    }
+
+    private static boolean isLeapYear(int year)
+    {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day)
+    {
+        // shift the year to start in March so that the leap day comes at the end
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = TimeArithmetic.floorDiv(y, 400);
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
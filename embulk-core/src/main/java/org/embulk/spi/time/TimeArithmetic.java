@@ -0,0 +1,16 @@
+package org.embulk.spi.time;
+
+/**
+ * Integer arithmetic shared by FastTimestampParser and FastTimestampFormatter.
+ */
+final class TimeArithmetic
+{
+    private TimeArithmetic() { }
+
+    // same as Math.floorDiv of Java 8, which is not available in Java 7
+    static long floorDiv(long x, long y)
+    {
+        final long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+}
@@ -55,7 +55,23 @@ public class TimestampFormat
 
     private static Set<String> availableTimeZoneNames = ImmutableSet.copyOf(DateTimeZone.getAvailableIDs());
 
+    private static final BoundedCache<String, DateTimeZone> timeZoneCache = new BoundedCache<>(1024);
+
     public static DateTimeZone parseDateTimeZone(String s)
+    {
+        DateTimeZone zone = timeZoneCache.get(s);
+        if (zone != null) {
+            return zone;
+        }
+
+        zone = parseDateTimeZoneUncached(s);
+        if (zone != null) {
+            timeZoneCache.put(s, zone);
+        }
+        return zone;
+    }
+
+    private static DateTimeZone parseDateTimeZoneUncached(String s)
     {
         final int rubyStyleTimeOffsetInSecond = TimeZoneConverter.dateZoneToDiff(s);
 
@@ -54,6 +54,10 @@ public class TimestampFormatter
 
     private final RubyDateFormat dateFormat;
     private final DateTimeZone timeZone;
+    private final FastTimestampFormatter fastFormatter;  // null if the format is not supported
+    private final boolean sameInSecond;  // true if the format has no fraction of a second
+    private long lastSecond;
+    private String lastFormatted;
 
     @Deprecated
     public TimestampFormatter(String format, FormatterTask task)
@@ -99,6 +103,36 @@ public class TimestampFormatter
     {
         this.timeZone = timeZone;
         this.dateFormat = new RubyDateFormat(format, Locale.ENGLISH, true);
+        this.fastFormatter = FastTimestampFormatter.of(format, timeZone);
+        this.sameInSecond = !hasFractionOfSecond(format);
+    }
+
+    private static boolean hasFractionOfSecond(String format)
+    {
+        int i = format.indexOf('%');
+        while (i >= 0 && i + 1 < format.length()) {
+            int j = i + 1;
+            // skip flags, width and colons
+            while (j < format.length() && "-_0^#:123456789".indexOf(format.charAt(j)) >= 0) {
+                j++;
+            }
+            if (j >= format.length()) {
+                break;
+            }
+            switch (format.charAt(j)) {
+            case 'N':
+            case 'L':
+            case 'Q':
+                return true;
+            case '%':
+                j++;  // escaped '%'
+                break;
+            default:
+                break;
+            }
+            i = format.indexOf('%', j);
+        }
+        return false;
     }
 
     public DateTimeZone getTimeZone()
@@ -108,16 +142,35 @@ public class TimestampFormatter
 
     public void format(Timestamp value, LineEncoder encoder)
     {
-        // TODO optimize by directly appending to internal buffer
-        encoder.addText(format(value));
+        if (fastFormatter != null && fastFormatter.render(value)) {
+            encoder.addText(fastFormatter.getBuffer(), 0, fastFormatter.getLength());
+        }
+        else {
+            encoder.addText(formatByRubyDateFormat(value));
+        }
     }
 
     public String format(Timestamp value)
     {
-        // TODO optimize by using reused StringBuilder
+        if (fastFormatter != null && fastFormatter.render(value)) {
+            return new String(fastFormatter.getBuffer(), 0, fastFormatter.getLength());
+        }
+        return formatByRubyDateFormat(value);
+    }
+
+    private String formatByRubyDateFormat(Timestamp value)
+    {
+        if (sameInSecond && lastFormatted != null && value.getEpochSecond() == lastSecond) {
+            return lastFormatted;
+        }
         dateFormat.setDateTime(new DateTime(value.getEpochSecond()*1000, timeZone));
         dateFormat.setNSec(value.getNano());
-        return dateFormat.format(null);
+        final String formatted = dateFormat.format(null);
+        if (sameInSecond) {
+            lastSecond = value.getEpochSecond();
+            lastFormatted = formatted;
+        }
+        return formatted;
     }
 
     // TODO: Remove this once deprecated constructors are finally removed.
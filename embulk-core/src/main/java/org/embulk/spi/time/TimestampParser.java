@@ -75,6 +75,9 @@ public class TimestampParser
     private final StrptimeParser parser;
     private final Calendar calendar;
     private final List<StrptimeToken> compiledPattern;
+    private final FastTimestampParser fastParser;  // null if the format is not supported
+    private String lastZone;  // values in a column almost always repeat the same zone
+    private DateTimeZone lastTimeZone;
 
     @Deprecated
     public TimestampParser(String format, ParserTask task)
@@ -146,6 +149,7 @@ public class TimestampParser
         this.parser = new StrptimeParser();
         this.compiledPattern = this.parser.compilePattern(format);
         this.defaultTimeZone = defaultTimeZone;
+        this.fastParser = FastTimestampParser.of(compiledPattern, defaultTimeZone);
 
         // calculate default date
         SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
@@ -172,6 +176,18 @@ public class TimestampParser
             throw new TimestampParseException("text is null or empty string.");
         }
 
+        if (fastParser != null) {
+            final Timestamp timestamp = fastParser.parse(text);
+            if (timestamp != null) {
+                return timestamp;
+            }
+        }
+        return parseByStrptime(text);
+    }
+
+    @VisibleForTesting
+    Timestamp parseByStrptime(String text) throws TimestampParseException
+    {
         final FormatBag bag = parser.parse(compiledPattern, text);
         if (bag == null) {
             throw new TimestampParseException("Cannot parse '" + text + "' by '" + format + "'");
@@ -184,10 +200,16 @@ public class TimestampParser
         final String zone = local.getZone();
         final DateTimeZone timeZone;
         if (zone != null) {
-            // TODO cache parsed zone?
-            timeZone = parseDateTimeZone(zone);
-            if (timeZone == null) {
-                throw new TimestampParseException("Invalid time zone name '" + zone + "' in '" + text + "'");
+            if (zone.equals(lastZone)) {
+                timeZone = lastTimeZone;
+            }
+            else {
+                timeZone = parseDateTimeZone(zone);
+                if (timeZone == null) {
+                    throw new TimestampParseException("Invalid time zone name '" + zone + "' in '" + text + "'");
+                }
+                lastZone = zone;
+                lastTimeZone = timeZone;
             }
         }
         else {
@@ -0,0 +1,151 @@
+package org.embulk.spi.util;
+
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.embulk.spi.Buffer;
+
+/**
+ * Writer which encodes characters directly into buffers of a FileOutputOutputStream.
+ *
+ * It supports UTF-8, US-ASCII and ISO-8859-1. Malformed surrogates and unmappable characters
+ * are replaced with '?' as CharsetEncoder does with CodingErrorAction.REPLACE.
+ */
+class DirectEncodingWriter
+        extends Writer
+{
+    private static final int MAX_BYTES_PER_CHAR = 4;  // a surrogate pair in UTF-8
+
+    private final FileOutputOutputStream out;
+    private final int maxSingleByteChar;  // 0 for UTF-8
+    private char pendingHighSurrogate;  // a high surrogate at the end of the last write
+
+    static boolean isSupported(Charset charset)
+    {
+        return charset.equals(StandardCharsets.UTF_8)
+            || charset.equals(StandardCharsets.US_ASCII)
+            || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    DirectEncodingWriter(FileOutputOutputStream out, Charset charset)
+    {
+        this.out = out;
+        if (charset.equals(StandardCharsets.US_ASCII)) {
+            this.maxSingleByteChar = 0x7f;
+        }
+        else if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            this.maxSingleByteChar = 0xff;
+        }
+        else {
+            this.maxSingleByteChar = 0;
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+        Buffer buffer = out.getBufferToWrite(MAX_BYTES_PER_CHAR);
+        byte[] array = buffer.array();
+        int base = buffer.offset();
+        int capacity = buffer.capacity();
+        int pos = out.getPosition();
+
+        for (int i = off; i < off + len; i++) {
+            if (capacity - pos < MAX_BYTES_PER_CHAR) {
+                out.setPosition(pos);
+                buffer = out.getBufferToWrite(MAX_BYTES_PER_CHAR);
+                array = buffer.array();
+                base = buffer.offset();
+                capacity = buffer.capacity();
+                pos = out.getPosition();
+            }
+            pos = encode(cbuf[i], array, base, pos);
+        }
+        out.setPosition(pos);
+    }
+
+    @Override
+    public void write(String str, int off, int len)
+    {
+        Buffer buffer = out.getBufferToWrite(MAX_BYTES_PER_CHAR);
+        byte[] array = buffer.array();
+        int base = buffer.offset();
+        int capacity = buffer.capacity();
+        int pos = out.getPosition();
+
+        for (int i = off; i < off + len; i++) {
+            if (capacity - pos < MAX_BYTES_PER_CHAR) {
+                out.setPosition(pos);
+                buffer = out.getBufferToWrite(MAX_BYTES_PER_CHAR);
+                array = buffer.array();
+                base = buffer.offset();
+                capacity = buffer.capacity();
+                pos = out.getPosition();
+            }
+            pos = encode(str.charAt(i), array, base, pos);
+        }
+        out.setPosition(pos);
+    }
+
+    // encodes c at array[base + pos] and returns the new position
+    private int encode(char c, byte[] array, int base, int pos)
+    {
+        if (pendingHighSurrogate != 0) {
+            final char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                if (maxSingleByteChar != 0) {
+                    array[base + pos++] = '?';  // unmappable
+                    return pos;
+                }
+                final int cp = Character.toCodePoint(high, c);
+                array[base + pos++] = (byte) (0xf0 | (cp >> 18));
+                array[base + pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                array[base + pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                array[base + pos++] = (byte) (0x80 | (cp & 0x3f));
+                return pos;
+            }
+            // malformed. '?' and c take at most MAX_BYTES_PER_CHAR bytes in total
+            array[base + pos++] = '?';
+        }
+
+        if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            array[base + pos++] = '?';  // malformed
+        }
+        else if (maxSingleByteChar != 0) {
+            array[base + pos++] = c <= maxSingleByteChar ? (byte) c : (byte) '?';
+        }
+        else if (c < 0x80) {
+            array[base + pos++] = (byte) c;
+        }
+        else if (c < 0x800) {
+            array[base + pos++] = (byte) (0xc0 | (c >> 6));
+            array[base + pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+        else {
+            array[base + pos++] = (byte) (0xe0 | (c >> 12));
+            array[base + pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            array[base + pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return pos;
+    }
+
+    @Override
+    public void flush()
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close()
+    {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            write(new char[] { '?' }, 0, 1);
+        }
+        out.close();
+    }
+}
@@ -77,6 +77,25 @@ public class FileInputInputStream
         return len;
     }
 
+    /**
+     * Returns the rest of the current buffer, or the next buffer of the current file, without
+     * copying bytes. The caller owns the returned buffer and must release it. Bytes returned by
+     * this method are not returned by read methods. Returns null at the end of the file.
+     */
+    public Buffer pollBuffer()
+    {
+        while (pos >= buffer.limit()) {
+            if (!nextBuffer()) {
+                return null;
+            }
+        }
+        Buffer b = buffer;
+        b.offset(b.offset() + pos);  // limit is reduced by pos
+        buffer = Buffer.EMPTY;
+        pos = 0;
+        return b;
+    }
+
     @Override
     public long skip(long len)
     {
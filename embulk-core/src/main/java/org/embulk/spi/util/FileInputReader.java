@@ -0,0 +1,159 @@
+package org.embulk.spi.util;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import org.embulk.spi.Buffer;
+
+/**
+ * Reader which decodes buffers of a FileInputInputStream without copying bytes.
+ *
+ * InputStreamReader copies all bytes to its own buffer before decoding. This reader borrows
+ * buffers using FileInputInputStream.pollBuffer() and decodes them directly. Only the bytes of a
+ * character split across two buffers are copied.
+ */
+class FileInputReader
+        extends Reader
+{
+    // large enough for a character of any charset
+    private static final int PENDING_BYTES = 64;
+
+    private final FileInputInputStream in;
+    private final CharsetDecoder decoder;
+
+    private Buffer buffer = null;
+    private ByteBuffer bytes = null;
+    private final ByteBuffer pending = ByteBuffer.allocate(PENDING_BYTES);  // bytes of a split character
+    private boolean endOfFile = false;
+    private int leftoverChar = -1;  // the second char of a surrogate pair read by read(char[], int, 1)
+
+    FileInputReader(FileInputInputStream in, CharsetDecoder decoder)
+    {
+        this.in = in;
+        this.decoder = decoder;
+        pending.flip();
+    }
+
+    public boolean nextFile()
+    {
+        releaseBuffer();
+        pending.clear().flip();
+        decoder.reset();
+        endOfFile = false;
+        leftoverChar = -1;
+        return in.nextFile();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len)
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (leftoverChar >= 0) {
+            cbuf[off] = (char) leftoverChar;
+            leftoverChar = -1;
+            return 1;
+        }
+        if (len == 1) {
+            // decoders need space for 2 chars to decode a surrogate pair
+            char[] pair = new char[2];
+            int n = read(pair, 0, 2);
+            if (n == 2) {
+                leftoverChar = pair[1];
+            }
+            if (n > 0) {
+                cbuf[off] = pair[0];
+                return 1;
+            }
+            return n;
+        }
+        if (endOfFile) {
+            return -1;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            if (bytes == null || !bytes.hasRemaining()) {
+                releaseBuffer();
+                buffer = in.pollBuffer();
+                if (buffer == null) {
+                    decodeEnd(out);
+                    break;
+                }
+                bytes = ByteBuffer.wrap(buffer.array(), buffer.offset(), buffer.limit());
+            }
+            if (pending.hasRemaining()) {
+                decodePending(out);
+            }
+            else {
+                CoderResult result = decoder.decode(bytes, out, false);
+                if (result.isUnderflow() && bytes.hasRemaining()) {
+                    // the last character continues to the next buffer
+                    pending.clear();
+                    pending.put(bytes);
+                    pending.flip();
+                }
+            }
+        }
+        int n = out.position() - off;
+        return n == 0 ? -1 : n;
+    }
+
+    private void decodePending(CharBuffer out)
+    {
+        // appends bytes of the current buffer to the split character and decodes it
+        int leftover = pending.remaining();
+        int appended = Math.min(bytes.remaining(), PENDING_BYTES - leftover);
+        pending.compact();
+        ByteBuffer head = bytes.duplicate();
+        head.limit(head.position() + appended);
+        pending.put(head);
+        pending.flip();
+
+        decoder.decode(pending, out, false);
+        int consumed = leftover + appended - pending.remaining();
+        if (consumed >= leftover) {
+            // the split character is decoded. continues from the current buffer
+            bytes.position(bytes.position() + consumed - leftover);
+            pending.clear().flip();
+        }
+        else if (out.hasRemaining()) {
+            // the current buffer is too short to complete the character
+            bytes.position(bytes.position() + appended);
+        }
+        else {
+            // output is full. appended bytes are decoded again later
+            pending.limit(pending.limit() - appended);
+        }
+    }
+
+    private void decodeEnd(CharBuffer out)
+    {
+        decoder.decode(pending, out, true);
+        if (pending.hasRemaining()) {
+            return;  // output is full
+        }
+        if (decoder.flush(out).isOverflow()) {
+            return;
+        }
+        endOfFile = true;
+    }
+
+    private void releaseBuffer()
+    {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+        bytes = null;
+    }
+
+    @Override
+    public void close()
+    {
+        releaseBuffer();
+        in.close();
+    }
+}
@@ -72,6 +72,33 @@ public class FileOutputOutputStream
         }
     }
 
+    /**
+     * Returns the current buffer with at least {@code required} bytes of space after
+     * {@link #getPosition()}. LineEncoder uses it to encode characters into the buffer directly.
+     */
+    Buffer getBufferToWrite(int required)
+    {
+        if (buffer.capacity() - pos < required) {
+            flush();
+            if (buffer.capacity() - pos < required) {
+                // the buffer is empty after finish()
+                buffer.release();
+                buffer = allocator.allocate();
+            }
+        }
+        return buffer;
+    }
+
+    int getPosition()
+    {
+        return pos;
+    }
+
+    void setPosition(int pos)
+    {
+        this.pos = pos;
+    }
+
     private boolean doFlush()
     {
         if (pos > 0) {
@@ -4,7 +4,6 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.io.Reader;
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
@@ -32,24 +31,23 @@ public class LineDecoder
         public Newline getNewline();
     }
 
-    private final FileInputInputStream inputStream;
+    private final FileInputReader fileReader;
     private final BufferedReader reader;
     private final Charset charset;
 
     public LineDecoder(FileInput in, DecoderTask task)
     {
         this.charset = task.getCharset();
-        CharsetDecoder decoder = charset
-            .newDecoder()
+        CharsetDecoder decoder = MultiByteCharsetDecoder.newDecoder(charset)
             .onMalformedInput(CodingErrorAction.REPLACE)  // TODO configurable?
             .onUnmappableCharacter(CodingErrorAction.REPLACE);  // TODO configurable?
-        this.inputStream = new FileInputInputStream(in);
-        this.reader = new BufferedReader(new InputStreamReader(inputStream, decoder));
+        this.fileReader = new FileInputReader(new FileInputInputStream(in), decoder);
+        this.reader = new BufferedReader(fileReader);
     }
 
     public boolean nextFile()
     {
-        boolean has = inputStream.nextFile();
+        boolean has = fileReader.nextFile();
         if (has && charset.equals(UTF_8)) {
             skipBom();
         }
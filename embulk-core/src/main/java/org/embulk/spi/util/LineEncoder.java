@@ -48,7 +48,13 @@ public class LineEncoder
         this.newline = task.getNewline().getString();
         this.underlyingFileOutput = out;
         this.outputStream = new FileOutputOutputStream(underlyingFileOutput, task.getBufferAllocator(), FileOutputOutputStream.CloseMode.FLUSH_FINISH);
-        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, encoder), 32*1024);
+        if (DirectEncodingWriter.isSupported(task.getCharset())) {
+            // encodes characters straight into the buffers without BufferedWriter and OutputStreamWriter
+            this.writer = new DirectEncodingWriter(outputStream, task.getCharset());
+        }
+        else {
+            this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, encoder), 32*1024);
+        }
     }
 
     public void addNewLine()
@@ -82,6 +88,16 @@ public class LineEncoder
         }
     }
 
+    public void addText(char[] text, int offset, int length)
+    {
+        try {
+            writer.write(text, offset, length);
+        } catch (IOException ex) {
+            // unexpected
+            throw new RuntimeException(ex);
+        }
+    }
+
     public void nextFile()
     {
         try {
@@ -0,0 +1,210 @@
+package org.embulk.spi.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * CharsetDecoder of legacy Japanese charsets which decodes characters using lookup tables.
+ *
+ * Tables of 1-byte and 2-byte characters are built from the decoder of the JDK when the
+ * charset is used first. Other bytes, such as malformed bytes and 3-byte characters of EUC-JP,
+ * are decoded by the decoder of the JDK one character at a time. Thus results including the
+ * lengths of malformed or unmappable input are same with the decoder of the JDK.
+ */
+class MultiByteCharsetDecoder
+        extends CharsetDecoder
+{
+    // decoders of the JDK for these charsets don't keep state between characters
+    private static final Set<String> SUPPORTED_CHARSETS = ImmutableSet.of(
+            "Shift_JIS", "windows-31j", "EUC-JP");
+
+    // no character in the supported charsets is mapped to U+FFFF
+    private static final char NOT_IN_TABLE = '\uFFFF';
+
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    private static final Map<String, Tables> tablesCache = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a new decoder of the charset. The decoder of the JDK is returned if the charset
+     * is not supported.
+     */
+    public static CharsetDecoder newDecoder(Charset charset)
+    {
+        if (!SUPPORTED_CHARSETS.contains(charset.name())) {
+            return charset.newDecoder();
+        }
+        Tables tables = tablesCache.get(charset.name());
+        if (tables == null) {
+            tables = new Tables(charset);
+            tablesCache.put(charset.name(), tables);
+        }
+        return new MultiByteCharsetDecoder(charset, tables);
+    }
+
+    private static class Tables
+    {
+        private final char[] singleBytes = new char[256];
+        private final char[] doubleBytes = new char[256 * 256];
+        private boolean asciiCompatible = true;
+
+        Tables(Charset charset)
+        {
+            CharsetDecoder decoder = newReportingDecoder(charset);
+            CharBuffer out = CharBuffer.allocate(1);
+            Arrays.fill(singleBytes, NOT_IN_TABLE);
+            Arrays.fill(doubleBytes, NOT_IN_TABLE);
+            for (int b1 = 0; b1 < 256; b1++) {
+                singleBytes[b1] = decodeOne(decoder, out, new byte[] { (byte) b1 });
+                if (b1 < 0x80 && singleBytes[b1] != b1) {
+                    asciiCompatible = false;
+                }
+                if (singleBytes[b1] != NOT_IN_TABLE) {
+                    continue;
+                }
+                for (int b2 = 0; b2 < 256; b2++) {
+                    doubleBytes[(b1 << 8) | b2] = decodeOne(decoder, out, new byte[] { (byte) b1, (byte) b2 });
+                }
+            }
+        }
+
+        // returns NOT_IN_TABLE unless all of the bytes are decoded to one character
+        private static char decodeOne(CharsetDecoder decoder, CharBuffer out, byte[] bytes)
+        {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            out.clear();
+            decoder.reset();
+            decoder.decode(in, out, false);
+            if (out.position() == 1 && !in.hasRemaining()) {
+                return out.get(0);
+            }
+            return NOT_IN_TABLE;
+        }
+    }
+
+    private static CharsetDecoder newReportingDecoder(Charset charset)
+    {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    private final char[] singleBytes;
+    private final char[] doubleBytes;
+    private final boolean asciiCompatible;
+    private final CharsetDecoder fallback;
+    private final CharBuffer fallbackOut = CharBuffer.allocate(1);
+
+    private MultiByteCharsetDecoder(Charset charset, Tables tables)
+    {
+        super(charset, charset.newDecoder().averageCharsPerByte(), charset.newDecoder().maxCharsPerByte());
+        this.singleBytes = tables.singleBytes;
+        this.doubleBytes = tables.doubleBytes;
+        this.asciiCompatible = tables.asciiCompatible;
+        this.fallback = newReportingDecoder(charset);
+    }
+
+    @Override
+    protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out)
+    {
+        if (!in.hasArray() || !out.hasArray()) {
+            // errors are reported, and this decoder takes the action
+            return fallback.decode(in, out, false);
+        }
+
+        byte[] sa = in.array();
+        int sp = in.arrayOffset() + in.position();
+        int sl = in.arrayOffset() + in.limit();
+        char[] da = out.array();
+        int dp = out.arrayOffset() + out.position();
+        int dl = out.arrayOffset() + out.limit();
+        try {
+            while (sp < sl) {
+                if (asciiCompatible) {
+                    // copies a run of ASCII characters
+                    int end = sp + Math.min(sl - sp, dl - dp);
+                    while (sp < end && sa[sp] >= 0) {
+                        da[dp++] = (char) sa[sp++];
+                    }
+                    if (sp >= sl) {
+                        break;
+                    }
+                }
+
+                int b1 = sa[sp] & 0xff;
+                char c = singleBytes[b1];
+                if (c != NOT_IN_TABLE) {
+                    if (dp >= dl) {
+                        return CoderResult.OVERFLOW;
+                    }
+                    da[dp++] = c;
+                    sp++;
+                    continue;
+                }
+                if (sp + 1 < sl) {
+                    c = doubleBytes[(b1 << 8) | (sa[sp + 1] & 0xff)];
+                    if (c != NOT_IN_TABLE) {
+                        if (dp >= dl) {
+                            return CoderResult.OVERFLOW;
+                        }
+                        da[dp++] = c;
+                        sp += 2;
+                        continue;
+                    }
+                }
+
+                in.position(sp - in.arrayOffset());
+                out.position(dp - out.arrayOffset());
+                CoderResult result = decodeByFallback(in, out);
+                if (result != null) {
+                    return result;
+                }
+                sp = in.arrayOffset() + in.position();
+                dp = out.arrayOffset() + out.position();
+            }
+            return CoderResult.UNDERFLOW;
+        }
+        finally {
+            in.position(sp - in.arrayOffset());
+            out.position(dp - out.arrayOffset());
+        }
+    }
+
+    // decodes a character by the decoder of the JDK. returns null if a character is decoded
+    private CoderResult decodeByFallback(ByteBuffer in, CharBuffer out)
+    {
+        ByteBuffer window = in.duplicate();
+        window.limit(window.position() + Math.min(window.remaining(), MAX_BYTES_PER_CHAR));
+        fallbackOut.clear();
+        fallback.reset();
+        CoderResult result = fallback.decode(window, fallbackOut, false);
+        if (fallbackOut.position() > 0) {
+            if (!out.hasRemaining()) {
+                return CoderResult.OVERFLOW;
+            }
+            out.put(fallbackOut.get(0));
+            in.position(window.position());
+            return null;
+        }
+        if (result.isError()) {
+            return result;
+        }
+        // the rest of input is a part of a character
+        return CoderResult.UNDERFLOW;
+    }
+
+    @Override
+    protected void implReset()
+    {
+        fallback.reset();
+    }
+}
@@ -0,0 +1,233 @@
+package org.embulk.spi.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.spi.Exec;
+import org.embulk.spi.util.RetryExecutor.RetryGiveupException;
+import org.embulk.spi.util.RetryExecutor.Retryable;
+import org.slf4j.Logger;
+
+/**
+ * InputStream which reads ranges of an object in parallel using a Reopener.
+ *
+ * The object is split into segments of segmentSize bytes, and up to concurrency segments are
+ * read ahead by threads into buffers. Each segment is read by a stream returned by
+ * Reopener.reopen with the offset of the segment, and reading a segment is retried by
+ * RetryExecutor from the offset where it failed. Segments are returned in order.
+ * At most (concurrency + 1) * segmentSize bytes are buffered.
+ */
+public class ParallelRangeInputStream
+        extends InputStream
+{
+    private final Logger log = Exec.getLogger(getClass());
+
+    private final ResumableInputStream.Reopener reopener;
+    private final long size;
+    private final int segmentSize;
+    private final RetryExecutor retryExecutor;
+    private final ExecutorService executor;
+    private final Queue<Future<byte[]>> segments;
+
+    private long nextSegmentOffset = 0;
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private boolean closed = false;
+
+    public ParallelRangeInputStream(ResumableInputStream.Reopener reopener, long size,
+            int segmentSize, int concurrency)
+    {
+        this(reopener, size, segmentSize, concurrency, RetryExecutor.retryExecutor());
+    }
+
+    public ParallelRangeInputStream(ResumableInputStream.Reopener reopener, long size,
+            int segmentSize, int concurrency, RetryExecutor retryExecutor)
+    {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be positive");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.reopener = reopener;
+        this.size = size;
+        this.segmentSize = segmentSize;
+        this.retryExecutor = retryExecutor;
+        this.executor = Executors.newFixedThreadPool(concurrency, new SegmentThreadFactory(Thread.currentThread().getName()));
+        this.segments = new ArrayDeque<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            submitNextSegment();
+        }
+    }
+
+    private void submitNextSegment()
+    {
+        if (nextSegmentOffset >= size) {
+            return;
+        }
+        final long offset = nextSegmentOffset;
+        final int length = (int) Math.min(segmentSize, size - offset);
+        nextSegmentOffset += length;
+        segments.add(executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception
+            {
+                return readSegment(offset, length);
+            }
+        }));
+    }
+
+    private byte[] readSegment(final long offset, final int length)
+            throws RetryGiveupException, InterruptedException
+    {
+        final byte[] segment = new byte[length];
+        final int[] filled = new int[1];
+        retryExecutor.runInterruptible(new Retryable<Void>() {
+            private Exception lastException = null;
+
+            public Void call() throws Exception
+            {
+                try (InputStream in = reopener.reopen(offset + filled[0], lastException)) {
+                    while (filled[0] < length) {
+                        int n = in.read(segment, filled[0], length - filled[0]);
+                        if (n < 0) {
+                            throw new EOFException(String.format("Unexpected end of stream at offset %d", offset + filled[0]));
+                        }
+                        filled[0] += n;
+                    }
+                }
+                return null;
+            }
+
+            public boolean isRetryableException(Exception exception)
+            {
+                // close() interrupts the threads
+                return !(exception instanceof InterruptedException) && !Thread.currentThread().isInterrupted();
+            }
+
+            public void onRetry(Exception exception, int retryCount, int retryLimit, int retryWait)
+            {
+                lastException = exception;
+                log.warn(String.format("Retrying to read a range from offset %d (%d/%d) after %d msec", offset + filled[0], retryCount, retryLimit, retryWait), exception);
+            }
+
+            public void onGiveup(Exception firstException, Exception lastException)
+            { }
+        });
+        return segment;
+    }
+
+    private boolean nextSegment() throws IOException
+    {
+        Future<byte[]> future = segments.poll();
+        if (future == null) {
+            return false;
+        }
+        try {
+            current = future.get();
+            position = 0;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading a range", ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RetryGiveupException && cause.getCause() instanceof IOException) {
+                throw (IOException) cause.getCause();
+            }
+            throw new IOException(cause);
+        }
+        submitNextSegment();
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        ensureOpen();
+        while (position >= current.length) {
+            if (!nextSegment()) {
+                return -1;
+            }
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        while (position >= current.length) {
+            if (!nextSegment()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        ensureOpen();
+        return current.length - position;
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (!closed) {
+            closed = true;
+            for (Future<byte[]> future : segments) {
+                future.cancel(true);
+            }
+            segments.clear();
+            executor.shutdownNow();
+            current = new byte[0];
+        }
+    }
+
+    private static class SegmentThreadFactory
+            implements ThreadFactory
+    {
+        private final String namePrefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        SegmentThreadFactory(String parentName)
+        {
+            this.namePrefix = parentName + "-range-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
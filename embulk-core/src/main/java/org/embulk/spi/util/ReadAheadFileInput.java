@@ -0,0 +1,222 @@
+package org.embulk.spi.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import com.google.common.base.Throwables;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileInput;
+
+/**
+ * FileInput which reads buffers of another FileInput in a background thread.
+ *
+ * The thread reads ahead until buffers of maxBytes in total are queued so that I/O of the
+ * underlying input overlaps with decoding and parsing. All methods of the underlying input are
+ * called by the thread, and the underlying input is closed by close() after the thread stops.
+ * An exception thrown by the underlying input is rethrown by nextFile() or poll() after the
+ * buffers read before it.
+ */
+public class ReadAheadFileInput
+        implements FileInput
+{
+    private static final Object FILE_START = new Object();
+    private static final Object FILE_END = new Object();
+    private static final Object INPUT_END = new Object();
+
+    private final FileInput in;
+    private final long maxBytes;
+
+    // guarded by this
+    private final Queue<Object> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private Throwable error = null;
+    private boolean stopped = false;
+
+    private Thread thread = null;
+    private boolean inFile = false;
+    private boolean inputEnded = false;
+
+    public ReadAheadFileInput(FileInput in, long maxBytes)
+    {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.in = in;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public boolean nextFile()
+    {
+        if (thread == null) {
+            start();
+        }
+        if (inputEnded) {
+            return false;
+        }
+        // skips the rest of the current file
+        while (true) {
+            Object item = take();
+            if (item == FILE_START) {
+                inFile = true;
+                return true;
+            }
+            else if (item == INPUT_END) {
+                inFile = false;
+                inputEnded = true;
+                return false;
+            }
+            else if (item instanceof Buffer) {
+                ((Buffer) item).release();
+            }
+        }
+    }
+
+    @Override
+    public Buffer poll()
+    {
+        if (thread == null) {
+            throw new IllegalStateException("nextFile() must be called before poll()");
+        }
+        if (!inFile) {
+            return null;
+        }
+        Object item = take();
+        if (item == FILE_END) {
+            inFile = false;
+            return null;
+        }
+        return (Buffer) item;
+    }
+
+    private void start()
+    {
+        // the thread inherits Exec.session() of the current thread
+        thread = new Thread(new Runnable() {
+            public void run()
+            {
+                readAhead();
+            }
+        }, Thread.currentThread().getName() + "-read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readAhead()
+    {
+        try {
+            while (true) {
+                boolean hasFile = in.nextFile();
+                if (!put(hasFile ? FILE_START : INPUT_END, 0)) {
+                    return;
+                }
+                if (!hasFile) {
+                    return;
+                }
+                while (true) {
+                    Buffer buffer = in.poll();
+                    if (buffer == null) {
+                        break;
+                    }
+                    if (!put(buffer, buffer.capacity())) {
+                        buffer.release();
+                        return;
+                    }
+                }
+                if (!put(FILE_END, 0)) {
+                    return;
+                }
+            }
+        }
+        catch (Throwable ex) {
+            synchronized (this) {
+                error = ex;
+                notifyAll();
+            }
+        }
+    }
+
+    // returns false if the input is stopped
+    private synchronized boolean put(Object item, int bytes)
+            throws InterruptedException
+    {
+        // a buffer is always accepted if the queue is empty even if it's larger than maxBytes
+        while (!stopped && !queue.isEmpty() && queuedBytes + bytes > maxBytes) {
+            wait();
+        }
+        if (stopped) {
+            return false;
+        }
+        queue.add(item);
+        queuedBytes += bytes;
+        notifyAll();
+        return true;
+    }
+
+    private synchronized Object take()
+    {
+        try {
+            while (queue.isEmpty()) {
+                if (stopped) {
+                    throw new IllegalStateException("ReadAheadFileInput is already stopped");
+                }
+                if (error != null) {
+                    throw Throwables.propagate(error);
+                }
+                wait();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        Object item = queue.remove();
+        if (item instanceof Buffer) {
+            queuedBytes -= ((Buffer) item).capacity();
+        }
+        notifyAll();
+        return item;
+    }
+
+    /**
+     * Stops reading ahead and waits for the thread. Buffers read ahead are released, and
+     * nextFile() and poll() must not be called after this. The underlying input is not closed.
+     */
+    public void stop()
+    {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        if (thread != null) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (Object item : queue) {
+                if (item instanceof Buffer) {
+                    ((Buffer) item).release();
+                }
+            }
+            queue.clear();
+            queuedBytes = 0;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        stop();
+        in.close();
+    }
+}
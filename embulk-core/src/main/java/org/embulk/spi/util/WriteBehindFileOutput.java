@@ -0,0 +1,215 @@
+package org.embulk.spi.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import com.google.common.base.Throwables;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileOutput;
+
+/**
+ * FileOutput which passes buffers to another FileOutput in a background thread.
+ *
+ * Calls are queued until buffers of maxBytes in total are waiting so that the caller, such as
+ * a formatter, runs concurrently with the underlying output, such as encoders. All methods of
+ * the underlying output are called by the thread. finish() waits until the underlying output is
+ * finished, and close() stops the thread and closes the underlying output. An exception thrown
+ * by the underlying output is rethrown by the next call.
+ */
+public class WriteBehindFileOutput
+        implements FileOutput
+{
+    private static final Object NEXT_FILE = new Object();
+    private static final Object FINISH = new Object();
+
+    private final FileOutput next;
+    private final long maxBytes;
+
+    // guarded by this
+    private final Queue<Object> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private int pending = 0;  // number of queued or running calls
+    private Throwable error = null;
+    private boolean stopped = false;
+
+    private Thread thread = null;
+
+    public WriteBehindFileOutput(FileOutput next, long maxBytes)
+    {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.next = next;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void nextFile()
+    {
+        put(NEXT_FILE, 0);
+    }
+
+    @Override
+    public void add(Buffer buffer)
+    {
+        put(buffer, buffer.capacity());
+    }
+
+    @Override
+    public synchronized void finish()
+    {
+        put(FINISH, 0);
+        try {
+            while (pending > 0 && error == null) {
+                wait();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        checkError();
+    }
+
+    private synchronized void put(Object item, int bytes)
+    {
+        if (stopped) {
+            releaseItem(item);
+            throw new IllegalStateException("WriteBehindFileOutput is already closed");
+        }
+        if (thread == null) {
+            start();
+        }
+        try {
+            // a buffer is always accepted if the queue is empty even if it's larger than maxBytes
+            while (error == null && !queue.isEmpty() && queuedBytes + bytes > maxBytes) {
+                wait();
+            }
+        }
+        catch (InterruptedException ex) {
+            releaseItem(item);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        if (error != null) {
+            releaseItem(item);
+            checkError();
+        }
+        queue.add(item);
+        queuedBytes += bytes;
+        pending++;
+        notifyAll();
+    }
+
+    private void checkError()
+    {
+        if (error != null) {
+            throw Throwables.propagate(error);
+        }
+    }
+
+    private void start()
+    {
+        // the thread inherits Exec.session() of the current thread
+        thread = new Thread(new Runnable() {
+            public void run()
+            {
+                writeBehind();
+            }
+        }, Thread.currentThread().getName() + "-write-behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void writeBehind()
+    {
+        try {
+            while (true) {
+                Object item;
+                synchronized (this) {
+                    while (queue.isEmpty() && !stopped) {
+                        wait();
+                    }
+                    if (queue.isEmpty()) {
+                        return;  // stopped
+                    }
+                    item = queue.remove();
+                    if (item instanceof Buffer) {
+                        queuedBytes -= ((Buffer) item).capacity();
+                    }
+                    notifyAll();
+                }
+
+                if (item == NEXT_FILE) {
+                    next.nextFile();
+                }
+                else if (item == FINISH) {
+                    next.finish();
+                }
+                else {
+                    next.add((Buffer) item);
+                }
+
+                synchronized (this) {
+                    pending--;
+                    notifyAll();
+                }
+            }
+        }
+        catch (Throwable ex) {
+            synchronized (this) {
+                error = ex;
+                notifyAll();
+            }
+        }
+    }
+
+    private static void releaseItem(Object item)
+    {
+        if (item instanceof Buffer) {
+            ((Buffer) item).release();
+        }
+    }
+
+    /**
+     * Stops the thread without calling the rest of queued calls. Queued buffers are released,
+     * and the underlying output is not closed.
+     */
+    public void stop()
+    {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            // calls which are not started yet are discarded
+            for (Object item : queue) {
+                releaseItem(item);
+            }
+            queue.clear();
+            queuedBytes = 0;
+            notifyAll();
+        }
+        if (thread != null) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        stop();
+        next.close();
+    }
+}
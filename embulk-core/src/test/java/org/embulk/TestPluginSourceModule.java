@@ -3,6 +3,7 @@ package org.embulk;
 import static org.embulk.plugin.InjectedPluginSource.registerPluginTo;
 
 import org.embulk.spi.FormatterPlugin;
+import org.embulk.spi.MockFileFormatterPlugin;
 import org.embulk.spi.MockFormatterPlugin;
 import org.embulk.spi.MockParserPlugin;
 import org.embulk.spi.ParserPlugin;
@@ -19,5 +20,7 @@ public class TestPluginSourceModule implements Module
                 MockParserPlugin.class);
         registerPluginTo(binder, FormatterPlugin.class, "mock",
                 MockFormatterPlugin.class);
+        registerPluginTo(binder, FormatterPlugin.class, "mock_file",
+                MockFileFormatterPlugin.class);
     }
 }
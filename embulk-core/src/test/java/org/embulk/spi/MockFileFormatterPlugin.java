@@ -0,0 +1,15 @@
+package org.embulk.spi;
+
+import org.embulk.config.TaskSource;
+
+// MockFormatterPlugin which starts a file when it's opened as file-based formatters do
+public class MockFileFormatterPlugin extends MockFormatterPlugin
+{
+    @Override
+    public PageOutput open(TaskSource taskSource, final Schema schema,
+            FileOutput output)
+    {
+        output.nextFile();
+        return super.open(taskSource, schema, output);
+    }
+}
@@ -2,6 +2,7 @@ package org.embulk.spi;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import java.io.ByteArrayOutputStream;
 import java.util.Random;
 import org.junit.Rule;
@@ -65,6 +66,32 @@ public class TestFileInputInputStream
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testPollBuffer() throws Exception
+    {
+        newOutputStream();
+        out.nextFile();
+        out.write(new byte[] { 1, 2, 3, 4, 5 });
+        out.flush();
+        out.write(new byte[] { 6, 7 });
+        out.finish();
+
+        newInputStream();
+        in.nextFile();
+        assertEquals(1, in.read());
+        Buffer buffer = in.pollBuffer();
+        assertEquals(4, buffer.limit());
+        assertEquals(2, buffer.array()[buffer.offset()]);
+        buffer.release();
+        assertEquals(6, in.read());
+        buffer = in.pollBuffer();
+        assertEquals(1, buffer.limit());
+        assertEquals(7, buffer.array()[buffer.offset()]);
+        buffer.release();
+        assertNull(in.pollBuffer());
+        assertEquals(-1, in.read());
+    }
+
     @Test
     public void testSkipReturnsZeroForNoData() {
         FileInputInputStream in = new FileInputInputStream(new MockFileInput());
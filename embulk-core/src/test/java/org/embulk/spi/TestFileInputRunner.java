@@ -152,7 +152,7 @@ public class TestFileInputRunner
             assertEquals(3.0D, (Double) record[2], 0.01D);
             assertEquals("45", record[3]);
             assertEquals(678L, ((Timestamp) record[4]).toEpochMilli());
-            assertEquals("{\"_c2\":10,\"_c1\":true,\"_c4\":{\"k\":\"v\"},\"_c3\":\"embulk\"}", record[5].toString());
+            assertEquals("{\"_c1\":true,\"_c2\":10,\"_c3\":\"embulk\",\"_c4\":{\"k\":\"v\"}}", record[5].toString());
         }
     }
 
@@ -36,6 +36,7 @@ public class TestFileOutputRunner
     private static class MockFileOutputPlugin implements FileOutputPlugin
     {
         Boolean transactionCompleted = null;
+        int fileCount = 0;
 
         @Override
         public ConfigDiff transaction(ConfigSource config, int taskCount,
@@ -71,6 +72,7 @@ public class TestFileOutputRunner
                 @Override
                 public void nextFile()
                 {
+                    fileCount++;
                 }
 
                 @Override
@@ -170,6 +172,57 @@ public class TestFileOutputRunner
         }
     }
 
+    @Test
+    public void testMaxRecordsPerFile()
+    {
+        MockFileOutputPlugin fileOutputPlugin = new MockFileOutputPlugin();
+        final FileOutputRunner runner = new FileOutputRunner(fileOutputPlugin);
+
+        ImmutableList<ImmutableMap<String, Object>> columns = ImmutableList.of(
+                ImmutableMap.<String,Object>of("name", "col1", "type", "long", "option", ImmutableMap.of()));
+        ConfigSource config = Exec
+                .newConfigSource()
+                .set("type", "unused?")
+                .set("max_records_per_file", 2)
+                .set("formatter",
+                        ImmutableMap.of("type", "mock_file", "columns", columns));
+        final Schema schema = config.getNested("formatter")
+                .loadConfig(MockParserPlugin.PluginTask.class)
+                .getSchemaConfig().toSchema();
+
+        runner.transaction(config, schema, 1, new OutputPlugin.Control()
+        {
+            public List<TaskReport> run(final TaskSource outputTask)
+            {
+                TransactionalPageOutput tran = runner.open(outputTask, schema,
+                        1);
+                boolean committed = false;
+                try {
+                    // a file is closed after the page which reaches 2 records
+                    for (long i = 0; i < 5; i++) {
+                        for (Page page : PageTestUtils.buildPage(
+                                runtime.getBufferAllocator(), schema, i)) {
+                            tran.add(page);
+                        }
+                    }
+                    tran.finish();
+                    tran.commit();
+                    committed = true;
+                } finally {
+                    if (!committed) {
+                        tran.abort();
+                    }
+                    tran.close();
+                }
+                return new ArrayList<TaskReport>();
+            }
+        });
+
+        assertEquals(true, fileOutputPlugin.transactionCompleted);
+        assertEquals(3, fileOutputPlugin.fileCount);
+        assertEquals(4L, MockFormatterPlugin.records.get(0).get(0));
+    }
+
     @Test
     public void testTransactionAborted()
     {
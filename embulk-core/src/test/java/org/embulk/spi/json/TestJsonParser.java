@@ -1,7 +1,11 @@
 package org.embulk.spi.json;
 
+import com.google.common.base.Strings;
 import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
 import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
 import org.msgpack.value.ValueType;
 
 import static org.junit.Assert.assertEquals;
@@ -99,4 +103,36 @@ public class TestJsonParser
         // Not sure this |toString| is to be tested...
         assertEquals("12345.12", msgpackValue.asFloatValue().toString());
     }
+
+    @Test
+    public void testDuplicatedKeys() throws Exception
+    {
+        final JsonParser parser = new JsonParser();
+        final Value msgpackValue = parser.parse("{\"a\":1,\"b\":2,\"a\":3}");
+        assertEquals(2, msgpackValue.asMapValue().size());
+        assertEquals(ValueFactory.newInteger(3), msgpackValue.asMapValue().map().get(ValueFactory.newString("a")));
+        assertEquals(ValueFactory.newInteger(2), msgpackValue.asMapValue().map().get(ValueFactory.newString("b")));
+    }
+
+    @Test
+    public void testTranscode() throws Exception
+    {
+        final JsonParser parser = new JsonParser();
+        final String json = "{\"s\":\"\u00e9\u3042\ud83d\ude00\",\"long\":\"" + Strings.repeat("x", 300) + "\","
+            + "\"i\":[0,-1,127,-33,65536,-2147483649,18446744073709551615],\"f\":1.5,"
+            + "\"b\":[true,false,null],\"o\":{\"e\":{},\"a\":[]}}";
+        for (int i = 0; i < 2; i++) {  // the transcoder is reused
+            final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+            parser.transcode(json, packer);
+            final Value transcoded = MessagePack.newDefaultUnpacker(packer.toByteArray()).unpackValue();
+            assertEquals(parser.parse(json), transcoded);
+        }
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void testTranscodeBrokenJson() throws Exception
+    {
+        final JsonParser parser = new JsonParser();
+        parser.transcode("{\"a\":[1,", MessagePack.newDefaultBufferPacker());
+    }
 }
@@ -5,11 +5,16 @@ import org.junit.Before;
 import org.junit.Test;
 import com.google.common.base.Optional;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import org.embulk.config.Task;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigSource;
 import org.embulk.spi.Exec;
 import org.embulk.EmbulkTestRuntime;
+import java.util.Locale;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.jruby.util.RubyDateFormat;
 
 public class TestTimestampFormatterParser
 {
@@ -72,4 +77,37 @@ public class TestTimestampFormatterParser
         TimestampParser parser = TimestampParser.createTimestampParserForTesting(ptask);
         assertEquals(Timestamp.ofEpochSecond(1454467589, 0), parser.parse("02:46:29 +0000"));
     }
+
+    @Test
+    public void testFastFormatMatchesRubyDateFormat() throws Exception
+    {
+        String[] formats = {
+            "%Y-%m-%d %H:%M:%S.%6N %z",
+            "%Y-%m-%d %H:%M:%S.%N %:z",
+            "%FT%T.%LZ",
+            "%Y%m%d%H%M%S.%3N %%",
+        };
+        Timestamp[] values = {
+            Timestamp.ofEpochSecond(1416365189, 123456789),
+            Timestamp.ofEpochSecond(1416365189, 1000),
+            Timestamp.ofEpochSecond(1416365190, 0),
+            Timestamp.ofEpochSecond(-1, 999999999),
+            Timestamp.ofEpochSecond(-30000000000L, 5),  // year 1019
+            Timestamp.ofEpochSecond(-62135596800L, 0),  // year 1, rendered by RubyDateFormat
+            Timestamp.ofEpochSecond(253402300800L, 0),  // year 10000, rendered by RubyDateFormat
+        };
+        for (String zone : new String[] { "UTC", "Asia/Kolkata", "America/Los_Angeles" }) {
+            DateTimeZone timeZone = DateTimeZone.forID(zone);
+            for (String format : formats) {
+                assertNotNull(FastTimestampFormatter.of(format, timeZone));
+                TimestampFormatter formatter = new TimestampFormatter(format, timeZone);
+                RubyDateFormat dateFormat = new RubyDateFormat(format, Locale.ENGLISH, true);
+                for (Timestamp value : values) {
+                    dateFormat.setDateTime(new DateTime(value.getEpochSecond() * 1000, timeZone));
+                    dateFormat.setNSec(value.getNano());
+                    assertEquals(format + " " + zone, dateFormat.format(null), formatter.format(value));
+                }
+            }
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package org.embulk.spi.time;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import org.joda.time.DateTimeZone;
@@ -211,6 +213,61 @@ public class TestTimestampParser {
         testToParse("-1000", "%Q", -1L);
     }
 
+    @Test
+    public void testFastPathMatchesStrptime() {
+        final String[][] cases = {
+            { "%Y-%m-%d %H:%M:%S", "2017-01-02 03:04:05" },
+            { "%Y-%m-%d %H:%M:%S", "2016-02-29 23:59:59" },
+            { "%Y-%m-%d %H:%M:%S", "0001-01-01 00:00:00" },
+            { "%Y-%m-%dT%H:%M:%S%z", "2017-01-02T03:04:05+09:00" },
+            { "%Y-%m-%dT%H:%M:%S%z", "2017-01-02T03:04:05-0930" },
+            { "%Y-%m-%dT%H:%M:%S%z", "2017-01-02T03:04:05Z" },
+            { "%Y-%m-%d %H:%M:%S.%N %z", "1969-12-31 23:59:59.5 +00:00" },
+            { "%Y-%m-%d %H:%M:%S.%N %z", "2017-01-02 03:04:05.123456789 -08:00" },
+            { "%Y-%m-%d %H:%M:%S.%L", "2017-01-02 03:04:05.123" },
+            { "%Y%m%d%H%M%S", "20170102030405" },
+            { "%Y-%m-%d", "2017-06-30" },
+            { "%s", "1483326245" },
+            { "%s", "-86400" },
+        };
+        for (final DateTimeZone zone : new DateTimeZone[] { DateTimeZone.UTC, DateTimeZone.forID("America/Los_Angeles") }) {
+            for (final String[] c : cases) {
+                final TimestampParser parser = new TimestampParser(c[0], zone, "1970-01-01");
+                assertNotNull(c[0], FastTimestampParser.of(new StrptimeParser().compilePattern(c[0]), zone).parse(c[1]));
+                assertEquals(c[1], parser.parseByStrptime(c[1]), parser.parse(c[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testFastPathFallsBackToStrptime() {
+        // lenient inputs which only StrptimeParser accepts
+        testToParse("2001-02-03T23:59:60", "%Y-%m-%dT%H:%M:%S", 981244800L);
+        testToParse("2001-02-30 00:00:00", "%Y-%m-%d %H:%M:%S", 983491200L);
+        testToParse("2001-2-3 4:05:06", "%Y-%m-%d %H:%M:%S", 981173106L);
+        testToParse("2001-02-03 04:05:06 trailing", "%Y-%m-%d %H:%M:%S", 981173106L);
+        testToParse("2001-02-03T04:05:06 JST", "%Y-%m-%dT%H:%M:%S %z", 981140706L);
+        testToParse("12345-02-03", "%Y-%m-%d", 327406233600L);
+        failToParse("2001-13-03", "%Y-%m-%d");
+
+        // formats which the fast path doesn't support
+        assertNull(FastTimestampParser.of(new StrptimeParser().compilePattern("%H:%M:%S"), DateTimeZone.UTC));
+        assertNull(FastTimestampParser.of(new StrptimeParser().compilePattern("%b %d %Y"), DateTimeZone.UTC));
+        assertNull(FastTimestampParser.of(new StrptimeParser().compilePattern("%z %Y-%m-%d"), DateTimeZone.UTC));
+    }
+
+    @Test
+    public void testRepeatedZones() {
+        final TimestampParser parser = new TimestampParser("%Y-%m-%d %H:%M:%S %Z", DateTimeZone.UTC, "1970-01-01");
+        for (int i = 0; i < 2; i++) {
+            assertEquals(981126000L, parser.parse("2001-02-03 00:00:00 JST").getEpochSecond());
+            assertEquals(981126000L, parser.parse("2001-02-03 00:00:00 JST").getEpochSecond());
+            assertEquals(981187200L, parser.parse("2001-02-03 00:00:00 PST").getEpochSecond());
+            assertEquals(981158400L, parser.parse("2001-02-03 00:00:00 UTC").getEpochSecond());
+        }
+        failToParse("2001-02-03 00:00:00 Unknown/Zone", "%Y-%m-%d %H:%M:%S %Z");
+    }
+
     private void testToParse(final String string, final String format, final long second, final int nanoOfSecond) {
         final TimestampParser parser = new TimestampParser(format, DateTimeZone.UTC, "4567-01-23");
         final Timestamp timestamp = parser.parse(string);
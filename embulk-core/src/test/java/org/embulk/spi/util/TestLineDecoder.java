@@ -234,4 +234,35 @@ public class TestLineDecoder
                 bufferList(Charset.forName("ms932"), "て", "1", "\r\n", "す", "2", "\r", "\n", "と3"));
         assertEquals(ImmutableList.of("て1", "す2", "と3"), decoded);
     }
+
+    @Test
+    public void testDecodeSplitCharacters() throws Exception
+    {
+        for (Charset charset : new Charset[] { StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, Charset.forName("ms932") }) {
+            List<String> decoded = doDecode(
+                    charset, Newline.LF,
+                    splitBufferList(charset, "てすと1\nテスト2\n\uD842\uDFB73"));
+            assertEquals(ImmutableList.of("てすと1", "テスト2", charset.equals(Charset.forName("ms932")) ? "?3" : "\uD842\uDFB73"), decoded);
+        }
+    }
+
+    @Test
+    public void testDecodeMalformedTail() throws Exception
+    {
+        List<Buffer> buffers = bufferList(StandardCharsets.UTF_8, "a\nb");
+        buffers.add(Buffer.wrap(new byte[] { (byte) 0xe3, (byte) 0x81 }));
+        List<String> decoded = doDecode(StandardCharsets.UTF_8, Newline.LF, buffers);
+        assertEquals(ImmutableList.of("a", "b\uFFFD"), decoded);
+    }
+
+    private static List<Buffer> splitBufferList(Charset charset, String source)
+    {
+        // a buffer for each byte
+        List<Buffer> buffers = new ArrayList<Buffer>();
+        ByteBuffer bytes = charset.encode(source);
+        while (bytes.hasRemaining()) {
+            buffers.add(Buffer.wrap(new byte[] { bytes.get() }));
+        }
+        return buffers;
+    }
 }
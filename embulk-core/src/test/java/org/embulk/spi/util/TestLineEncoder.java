@@ -3,14 +3,19 @@ package org.embulk.spi.util;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.UnsupportedCharsetException;
 import com.google.common.collect.ImmutableList;
 import org.junit.Rule;
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import org.embulk.config.ConfigSource;
@@ -115,6 +120,43 @@ public class TestLineEncoder
         }
     }
 
+    @Test
+    public void testDirectEncodingMatchesCharsetEncoder() throws Exception
+    {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            large.append("a\u00e9\u65e5\ud83d\ude00");
+        }
+        String[] texts = { "abc", "日本語(Japanese)", "\u00ff\u0100", "\ud83d\ude00", "x\ud83d", "\ude00y", "\ud83d", "\ude00", "z\ud83d", large.toString(), "\ud83d" };
+
+        for (String charset : new String[] { "utf-8", "us-ascii", "iso-8859-1" }) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (Writer writer = new OutputStreamWriter(expected, Charset.forName(charset).newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE))) {
+                for (String text : texts) {
+                    writer.write(text);
+                    writer.write("\n");
+                }
+            }
+
+            MockFileOutput output = new MockFileOutput();
+            LineEncoder encoder = newEncoder(charset, "LF", output);
+            encoder.nextFile();
+            for (String text : texts) {
+                encoder.addText(text.toCharArray(), 0, text.length());
+                encoder.addNewLine();
+            }
+            encoder.finish();
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            for (Buffer buffer : output.getLastBuffers()) {
+                actual.write(buffer.array(), buffer.offset(), buffer.limit());
+            }
+            assertArrayEquals(charset, expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
     private String bufferToString(Buffer buffer, String charset)
             throws UnsupportedEncodingException
     {
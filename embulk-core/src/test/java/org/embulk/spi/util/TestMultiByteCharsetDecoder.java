@@ -0,0 +1,116 @@
+package org.embulk.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
+import org.junit.Test;
+
+public class TestMultiByteCharsetDecoder
+{
+    private static final String[] CHARSETS = new String[] {
+        "Shift_JIS", "windows-31j", "EUC-JP",
+    };
+
+    @Test
+    public void testSelectDecoder()
+    {
+        for (String name : CHARSETS) {
+            CharsetDecoder decoder = MultiByteCharsetDecoder.newDecoder(Charset.forName(name));
+            assertTrue(decoder instanceof MultiByteCharsetDecoder);
+            assertEquals(Charset.forName(name), decoder.charset());
+        }
+        assertTrue(!(MultiByteCharsetDecoder.newDecoder(Charset.forName("UTF-8")) instanceof MultiByteCharsetDecoder));
+        assertTrue(!(MultiByteCharsetDecoder.newDecoder(Charset.forName("ISO-2022-JP")) instanceof MultiByteCharsetDecoder));
+        assertTrue(!(MultiByteCharsetDecoder.newDecoder(Charset.forName("EUC-KR")) instanceof MultiByteCharsetDecoder));
+    }
+
+    @Test
+    public void testDecodeText() throws CharacterCodingException
+    {
+        for (String name : CHARSETS) {
+            Charset charset = Charset.forName(name);
+            StringBuilder sb = new StringBuilder();
+            Random random = new Random(name.hashCode());
+            for (int i = 0; i < 20000; i++) {
+                // ASCII, and characters which can be encoded to the charset
+                char c = (char) (random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(0xfff0));
+                if (!Character.isSurrogate(c) && charset.newEncoder().canEncode(c)) {
+                    sb.append(c);
+                }
+            }
+            assertDecode(charset, sb.toString().getBytes(charset));
+        }
+    }
+
+    @Test
+    public void testDecodeMalformed() throws CharacterCodingException
+    {
+        for (String name : CHARSETS) {
+            Charset charset = Charset.forName(name);
+            Random random = new Random(name.hashCode());
+            byte[] bytes = new byte[100000];
+            random.nextBytes(bytes);
+            assertDecode(charset, bytes);
+
+            // truncated characters at the end
+            for (int i = 0x80; i < 0x100; i++) {
+                assertDecode(charset, new byte[] { 'a', (byte) i });
+                assertDecode(charset, new byte[] { 'a', (byte) i, (byte) 0xa1 });
+            }
+        }
+    }
+
+    private static void assertDecode(Charset charset, byte[] bytes) throws CharacterCodingException
+    {
+        String expected = newReplacingDecoder(charset.newDecoder()).decode(ByteBuffer.wrap(bytes)).toString();
+
+        CharsetDecoder decoder = newReplacingDecoder(MultiByteCharsetDecoder.newDecoder(charset));
+        assertEquals(charset.name(), expected, decoder.decode(ByteBuffer.wrap(bytes)).toString());
+
+        // input and output split into small buffers
+        for (int size : new int[] { 1, 2, 3, 7 }) {
+            decoder.reset();
+            StringBuilder sb = new StringBuilder();
+            ByteBuffer in = ByteBuffer.allocate(bytes.length);
+            CharBuffer out = CharBuffer.allocate(size);
+            for (int offset = 0; offset < bytes.length; offset += size) {
+                in.put(bytes, offset, Math.min(size, bytes.length - offset));
+                in.flip();
+                while (decoder.decode(in, out, false).isOverflow()) {
+                    drain(out, sb);
+                }
+                in.compact();
+            }
+            in.flip();
+            while (decoder.decode(in, out, true).isOverflow()) {
+                drain(out, sb);
+            }
+            while (decoder.flush(out).isOverflow()) {
+                drain(out, sb);
+            }
+            drain(out, sb);
+            assertEquals(charset.name(), expected, sb.toString());
+        }
+    }
+
+    private static void drain(CharBuffer out, StringBuilder sb)
+    {
+        out.flip();
+        sb.append(out);
+        out.clear();
+    }
+
+    private static CharsetDecoder newReplacingDecoder(CharsetDecoder decoder)
+    {
+        return decoder
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+}
@@ -0,0 +1,137 @@
+package org.embulk.spi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.EmbulkTestRuntime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestParallelRangeInputStream
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final RetryExecutor RETRY = RetryExecutor.retryExecutor()
+        .withRetryLimit(2)
+        .withInitialRetryWait(1);
+
+    @Test
+    public void testReadFile() throws IOException
+    {
+        byte[] data = randomBytes(1024 * 1024 + 7);
+        File file = writeFile(data);
+        for (int segmentSize : new int[] { 1000, 64 * 1024, 2 * 1024 * 1024 }) {
+            for (int concurrency : new int[] { 1, 4 }) {
+                try (InputStream in = new ParallelRangeInputStream(new FileReopener(file, 0), data.length, segmentSize, concurrency, RETRY)) {
+                    assertArrayEquals(data, ByteStreams.toByteArray(in));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadEmpty() throws IOException
+    {
+        File file = writeFile(new byte[0]);
+        try (InputStream in = new ParallelRangeInputStream(new FileReopener(file, 0), 0, 1024, 4, RETRY)) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testRetryFailedSegments() throws IOException
+    {
+        byte[] data = randomBytes(256 * 1024);
+        File file = writeFile(data);
+        // every stream fails after 10000 bytes, and segments are resumed from there
+        FileReopener reopener = new FileReopener(file, 10000);
+        try (InputStream in = new ParallelRangeInputStream(reopener, data.length, 16 * 1024, 4, RETRY)) {
+            assertArrayEquals(data, ByteStreams.toByteArray(in));
+        }
+        assertEquals(32, reopener.opened.get());
+    }
+
+    @Test
+    public void testGiveup() throws IOException
+    {
+        byte[] data = randomBytes(64 * 1024);
+        File file = writeFile(data);
+        // a segment can't be read by 3 attempts
+        FileReopener reopener = new FileReopener(file, 1000);
+        try (InputStream in = new ParallelRangeInputStream(reopener, data.length, 8 * 1024, 2, RETRY)) {
+            ByteStreams.toByteArray(in);
+            fail();
+        }
+        catch (IOException ex) {
+            assertEquals("emulated failure", ex.getMessage());
+        }
+    }
+
+    private static class FileReopener
+            implements ResumableInputStream.Reopener
+    {
+        private final File file;
+        private final int failAfter;
+        private final AtomicInteger opened = new AtomicInteger();
+
+        FileReopener(File file, int failAfter)
+        {
+            this.file = file;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public InputStream reopen(long offset, Exception closedCause) throws IOException
+        {
+            opened.incrementAndGet();
+            InputStream in = new FileInputStream(file);
+            ByteStreams.skipFully(in, offset);
+            if (failAfter <= 0) {
+                return in;
+            }
+            return new FilterInputStream(in) {
+                private int count = 0;
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    if (count >= failAfter) {
+                        throw new IOException("emulated failure");
+                    }
+                    int n = super.read(b, off, Math.min(len, failAfter - count));
+                    count += Math.max(n, 0);
+                    return n;
+                }
+            };
+        }
+    }
+
+    private File writeFile(byte[] data) throws IOException
+    {
+        File file = tmp.newFile();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] randomBytes(int size)
+    {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,159 @@
+package org.embulk.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileInput;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestReadAheadFileInput
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testReadFiles()
+    {
+        List<List<Buffer>> files = ImmutableList.<List<Buffer>>of(
+                ImmutableList.of(buffer("ab"), buffer("cd"), buffer("ef")),
+                ImmutableList.<Buffer>of(),
+                ImmutableList.of(buffer("gh")));
+        for (long maxBytes : new long[] { 1, 4, 1024 }) {
+            try (ReadAheadFileInput input = new ReadAheadFileInput(new ListFileInput(copy(files)), maxBytes)) {
+                assertTrue(input.nextFile());
+                assertEquals("abcdef", readFile(input));
+                assertTrue(input.nextFile());
+                assertEquals("", readFile(input));
+                assertTrue(input.nextFile());
+                assertEquals("gh", readFile(input));
+                assertFalse(input.nextFile());
+                assertFalse(input.nextFile());
+            }
+        }
+    }
+
+    @Test
+    public void testSkipRestOfFile()
+    {
+        List<List<Buffer>> files = ImmutableList.<List<Buffer>>of(
+                ImmutableList.of(buffer("ab"), buffer("cd")),
+                ImmutableList.of(buffer("ef")));
+        try (ReadAheadFileInput input = new ReadAheadFileInput(new ListFileInput(files), 1)) {
+            assertTrue(input.nextFile());
+            assertEquals("ab", string(input.poll()));
+            assertTrue(input.nextFile());
+            assertEquals("ef", string(input.poll()));
+            assertNull(input.poll());
+            assertNull(input.poll());
+            assertFalse(input.nextFile());
+        }
+    }
+
+    @Test
+    public void testException()
+    {
+        FileInput failing = new FileInput() {
+            private int count = 0;
+
+            public boolean nextFile()
+            {
+                return true;
+            }
+
+            public Buffer poll()
+            {
+                if (count++ < 2) {
+                    return buffer("x");
+                }
+                throw new IllegalStateException("emulated exception");
+            }
+
+            public void close()
+            { }
+        };
+        try (ReadAheadFileInput input = new ReadAheadFileInput(failing, 1024)) {
+            assertTrue(input.nextFile());
+            assertEquals("x", string(input.poll()));
+            assertEquals("x", string(input.poll()));
+            try {
+                input.poll();
+                fail();
+            }
+            catch (IllegalStateException ex) {
+                assertEquals("emulated exception", ex.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCloseBeforeEnd()
+    {
+        final boolean[] closed = new boolean[1];
+        FileInput endless = new FileInput() {
+            public boolean nextFile()
+            {
+                return true;
+            }
+
+            public Buffer poll()
+            {
+                return buffer("y");
+            }
+
+            public void close()
+            {
+                closed[0] = true;
+            }
+        };
+        ReadAheadFileInput input = new ReadAheadFileInput(endless, 16);
+        assertTrue(input.nextFile());
+        assertEquals("y", string(input.poll()));
+        input.close();
+        assertTrue(closed[0]);
+    }
+
+    private static String readFile(FileInput input)
+    {
+        StringBuilder sb = new StringBuilder();
+        Buffer buffer;
+        while ((buffer = input.poll()) != null) {
+            sb.append(string(buffer));
+        }
+        return sb.toString();
+    }
+
+    private static List<List<Buffer>> copy(List<List<Buffer>> files)
+    {
+        List<List<Buffer>> copy = new ArrayList<>();
+        for (List<Buffer> file : files) {
+            List<Buffer> buffers = new ArrayList<>();
+            for (Buffer buffer : file) {
+                buffers.add(Buffer.copyOf(buffer.array(), buffer.offset(), buffer.offset() + buffer.limit()));
+            }
+            copy.add(buffers);
+        }
+        return copy;
+    }
+
+    private static Buffer buffer(String s)
+    {
+        return Buffer.copyOf(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(Buffer buffer)
+    {
+        String s = new String(buffer.array(), buffer.offset(), buffer.limit(), StandardCharsets.UTF_8);
+        buffer.release();
+        return s;
+    }
+}
@@ -0,0 +1,120 @@
+package org.embulk.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileOutput;
+import org.embulk.spi.MockFileOutput;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestWriteBehindFileOutput
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testWriteFiles()
+    {
+        for (long maxBytes : new long[] { 1, 4, 1024 }) {
+            MockFileOutput mock = new MockFileOutput();
+            try (WriteBehindFileOutput output = new WriteBehindFileOutput(mock, maxBytes)) {
+                output.nextFile();
+                output.add(buffer("ab"));
+                output.add(buffer("cd"));
+                output.nextFile();
+                output.nextFile();
+                output.add(buffer("ef"));
+                output.finish();
+
+                // finish() returns after all calls are done
+                assertTrue(mock.isFinished());
+                assertEquals(3, mock.getFiles().size());
+                assertEquals(2, mock.getFiles().get(0).size());
+                assertEquals("ab", string(mock.getFiles().get(0).get(0)));
+                assertEquals("cd", string(mock.getFiles().get(0).get(1)));
+                assertEquals(0, mock.getFiles().get(1).size());
+                assertEquals(1, mock.getFiles().get(2).size());
+                assertEquals("ef", string(mock.getFiles().get(2).get(0)));
+            }
+            assertTrue(mock.isClosed());
+        }
+    }
+
+    @Test
+    public void testException()
+    {
+        FileOutput failing = new MockFileOutput() {
+            @Override
+            public void add(Buffer buffer)
+            {
+                buffer.release();
+                throw new IllegalStateException("emulated exception");
+            }
+        };
+        try (WriteBehindFileOutput output = new WriteBehindFileOutput(failing, 1024)) {
+            output.nextFile();
+            output.add(buffer("x"));
+            try {
+                output.finish();
+                fail();
+            }
+            catch (IllegalStateException ex) {
+                assertEquals("emulated exception", ex.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testCloseBeforeFinish() throws InterruptedException
+    {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        MockFileOutput slow = new MockFileOutput() {
+            @Override
+            public void add(Buffer buffer)
+            {
+                blocked.countDown();
+                try {
+                    unblock.await();
+                }
+                catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                super.add(buffer);
+            }
+        };
+        WriteBehindFileOutput output = new WriteBehindFileOutput(slow, 1024);
+        output.nextFile();
+        output.add(buffer("a"));
+        output.add(buffer("b"));
+        output.add(buffer("c"));
+        blocked.await();
+        unblock.countDown();
+        output.close();
+
+        // queued calls after the running call are discarded
+        assertTrue(slow.isClosed());
+        assertFalse(slow.isFinished());
+        assertEquals(1, slow.getFiles().size());
+        assertEquals("a", string(slow.getFiles().get(0).get(0)));
+    }
+
+    private static Buffer buffer(String s)
+    {
+        return Buffer.copyOf(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(Buffer buffer)
+    {
+        String s = new String(buffer.array(), buffer.offset(), buffer.limit(), StandardCharsets.UTF_8);
+        buffer.release();
+        return s;
+    }
+}
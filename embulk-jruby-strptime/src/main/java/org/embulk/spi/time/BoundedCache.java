@@ -0,0 +1,34 @@
+package org.embulk.spi.time;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of values parsed from strings in data, such as time zones.
+ *
+ * Such strings are usually a few kinds. The cache is cleared when it overflows so that
+ * unexpected inputs don't grow it without bound. This is package-private, and used also
+ * by classes of embulk-core in the same package.
+ */
+final class BoundedCache<K, V>
+{
+    private final int maxSize;
+    private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+
+    BoundedCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    V get(K key)
+    {
+        return map.get(key);
+    }
+
+    void put(K key, V value)
+    {
+        if (map.size() >= maxSize) {
+            map.clear();
+        }
+        map.put(key, value);
+    }
+}
@@ -13,6 +13,8 @@ package org.embulk.spi.time;
  */
 public class TimeZoneConverter
 {
+    private static final BoundedCache<String, Integer> zoneDiffCache = new BoundedCache<>(1024);
+
     // Ported zones_source in ext/date/date_parse.c
     private static int getOffsetFromZonesSource(String z)
     {
@@ -364,6 +366,18 @@ public class TimeZoneConverter
 
     // Ported date_zone_to_diff in ext/date/date_parse.c
     public static int dateZoneToDiff(String zone)
+    {
+        final Integer cached = zoneDiffCache.get(zone);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int diff = parseDateZoneToDiff(zone);
+        zoneDiffCache.put(zone, diff);
+        return diff;
+    }
+
+    private static int parseDateZoneToDiff(String zone)
     {
         String z = zone.toLowerCase();
 
@@ -0,0 +1,231 @@
+package org.embulk.standards;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.zip.Inflater;
+import javax.validation.constraints.Min;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.Task;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.DecoderPlugin;
+import org.embulk.spi.Exec;
+import org.embulk.spi.FileInput;
+import org.slf4j.Logger;
+
+/**
+ * Decoder plugin which detects compression of each file by its magic bytes.
+ *
+ * Files compressed by gzip, bzip2 or LZ4 are decompressed by the gzip, bzip2 or lz4 decoder
+ * plugin. Other files are passed through as they are. The bytes read to detect compression are
+ * given to the decoder as the head of the file, so nothing is read twice.
+ */
+public class AutoFileDecoderPlugin
+        implements DecoderPlugin
+{
+    public interface PluginTask
+            extends Task
+    {
+        // passed to the gzip and bzip2 decoders
+        @Config("threads")
+        @ConfigDefault("1")
+        @Min(1)
+        int getThreads();
+
+        TaskSource getGzipTaskSource();
+        void setGzipTaskSource(TaskSource taskSource);
+
+        TaskSource getBzip2TaskSource();
+        void setBzip2TaskSource(TaskSource taskSource);
+
+        TaskSource getLz4TaskSource();
+        void setLz4TaskSource(TaskSource taskSource);
+    }
+
+    enum Compression
+    {
+        NONE, GZIP, BZIP2, LZ4;
+    }
+
+    private static final int MAGIC_BYTES = 4;
+
+    @Override
+    public void transaction(ConfigSource config, DecoderPlugin.Control control)
+    {
+        PluginTask task = config.loadConfig(PluginTask.class);
+        task.setGzipTaskSource(config.loadConfig(GzipFileDecoderPlugin.PluginTask.class).dump());
+        task.setBzip2TaskSource(config.loadConfig(Bzip2FileDecoderPlugin.PluginTask.class).dump());
+        task.setLz4TaskSource(config.loadConfig(Lz4FileDecoderPlugin.PluginTask.class).dump());
+        control.run(task.dump());
+    }
+
+    @Override
+    public FileInput open(TaskSource taskSource, FileInput fileInput)
+    {
+        PluginTask task = taskSource.loadTask(PluginTask.class);
+        return new AutoFileInput(fileInput, task);
+    }
+
+    static Compression detect(byte[] magic, int length)
+    {
+        if (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return Compression.GZIP;
+        }
+        if (length >= 4 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h' && magic[3] >= '1' && magic[3] <= '9') {
+            return Compression.BZIP2;
+        }
+        if (length >= 4) {
+            int value = (magic[0] & 0xff) | ((magic[1] & 0xff) << 8) | ((magic[2] & 0xff) << 16) | ((magic[3] & 0xff) << 24);
+            if (value == Lz4Codec.MAGIC || (value & Lz4Codec.SKIPPABLE_MAGIC_MASK) == Lz4Codec.SKIPPABLE_MAGIC) {
+                return Compression.LZ4;
+            }
+        }
+        return Compression.NONE;
+    }
+
+    private static class AutoFileInput
+            implements FileInput
+    {
+        private final Logger log = Exec.getLogger(AutoFileDecoderPlugin.class);
+
+        private final FileInput in;
+        private final PluginTask task;
+
+        private FileInput current = null;
+        private Inflater inflater = null;  // reused for all gzip files of the task
+
+        AutoFileInput(FileInput in, PluginTask task)
+        {
+            this.in = in;
+            this.task = task;
+        }
+
+        @Override
+        public boolean nextFile()
+        {
+            closeCurrent();
+            if (!in.nextFile()) {
+                return false;
+            }
+
+            Queue<Buffer> head = new ArrayDeque<>();
+            byte[] magic = new byte[MAGIC_BYTES];
+            int length = 0;
+            while (length < MAGIC_BYTES) {
+                Buffer buffer = in.poll();
+                if (buffer == null) {
+                    break;
+                }
+                head.add(buffer);
+                int n = Math.min(buffer.limit(), MAGIC_BYTES - length);
+                buffer.getBytes(0, magic, length, n);
+                length += n;
+            }
+
+            Compression compression = detect(magic, length);
+            log.debug("Detected compression of a file: {}", compression);
+            FileInput file = new HeadFileInput(in, head);
+            switch (compression) {
+            case GZIP:
+                if (inflater == null) {
+                    inflater = new Inflater(true);
+                }
+                current = new GzipFileDecoderPlugin().open(task.getGzipTaskSource(), file, inflater, false);
+                break;
+            case BZIP2:
+                current = new Bzip2FileDecoderPlugin().open(task.getBzip2TaskSource(), file);
+                break;
+            case LZ4:
+                current = new Lz4FileDecoderPlugin().open(task.getLz4TaskSource(), file);
+                break;
+            default:
+                current = file;
+                break;
+            }
+            current.nextFile();
+            return true;
+        }
+
+        @Override
+        public Buffer poll()
+        {
+            if (current == null) {
+                throw new IllegalStateException("nextFile() must be called before poll()");
+            }
+            return current.poll();
+        }
+
+        private void closeCurrent()
+        {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            try {
+                closeCurrent();
+            }
+            finally {
+                try {
+                    in.close();
+                }
+                finally {
+                    if (inflater != null) {
+                        inflater.end();
+                        inflater = null;
+                    }
+                }
+            }
+        }
+    }
+
+    // the current file of the input whose first buffers are already polled
+    private static class HeadFileInput
+            implements FileInput
+    {
+        private final FileInput in;
+        private final Queue<Buffer> head;
+        private boolean started = false;
+
+        HeadFileInput(FileInput in, Queue<Buffer> head)
+        {
+            this.in = in;
+            this.head = head;
+        }
+
+        @Override
+        public boolean nextFile()
+        {
+            if (started) {
+                return false;
+            }
+            started = true;
+            return true;
+        }
+
+        @Override
+        public Buffer poll()
+        {
+            Buffer buffer = head.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+            return in.poll();
+        }
+
+        @Override
+        public void close()
+        {
+            // the input is closed by AutoFileInput
+            while (!head.isEmpty()) {
+                head.poll().release();
+            }
+        }
+    }
+}
@@ -2,6 +2,9 @@ package org.embulk.standards;
 
 import java.io.InputStream;
 import java.io.IOException;
+import javax.validation.constraints.Min;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
 import org.embulk.config.Task;
 import org.embulk.config.TaskSource;
 import org.embulk.config.ConfigSource;
@@ -19,6 +22,12 @@ public class Bzip2FileDecoderPlugin
     public interface PluginTask
             extends Task
     {
+        // decompresses blocks on this number of threads if it's greater than 1
+        @Config("threads")
+        @ConfigDefault("1")
+        @Min(1)
+        int getThreads();
+
         @ConfigInject
         BufferAllocator getBufferAllocator();
     }
@@ -33,7 +42,7 @@ public class Bzip2FileDecoderPlugin
     @Override
     public FileInput open(TaskSource taskSource, FileInput fileInput)
     {
-        PluginTask task = taskSource.loadTask(PluginTask.class);
+        final PluginTask task = taskSource.loadTask(PluginTask.class);
         final FileInputInputStream files = new FileInputInputStream(fileInput);
         return new InputStreamFileInput(
                 task.getBufferAllocator(),
@@ -43,6 +52,9 @@ public class Bzip2FileDecoderPlugin
                         if (!files.nextFile()) {
                             return null;
                         }
+                        if (task.getThreads() > 1) {
+                            return new ParallelBzip2InputStream(files, task.getThreads());
+                        }
                         return new BZip2CompressorInputStream(files, true);
                     }
 
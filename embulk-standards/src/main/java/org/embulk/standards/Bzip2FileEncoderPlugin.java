@@ -29,6 +29,12 @@ public class Bzip2FileEncoderPlugin
         @Max(9)
         int getLevel();
 
+        // compresses blocks on this number of threads if it's greater than 1
+        @Config("threads")
+        @ConfigDefault("1")
+        @Min(1)
+        int getThreads();
+
         @ConfigInject
         BufferAllocator getBufferAllocator();
     }
@@ -50,6 +56,9 @@ public class Bzip2FileEncoderPlugin
             public OutputStream openNext() throws IOException
             {
                 output.nextFile();
+                if (task.getThreads() > 1) {
+                    return new ParallelBzip2OutputStream(output, task.getLevel(), task.getThreads());
+                }
                 return new BZip2CompressorOutputStream(output, task.getLevel());
             }
 
@@ -0,0 +1,31 @@
+package org.embulk.standards;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads shared by the encoders and decoders which compress or decompress blocks in parallel.
+ *
+ * The pool is not bounded. Each stream limits the number of blocks in flight by its threads option.
+ * Idle threads terminate in 60 seconds.
+ */
+class CompressionThreads
+{
+    private static ExecutorService executor = null;
+
+    private CompressionThreads()
+    { }
+
+    static synchronized ExecutorService getExecutor()
+    {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("embulk-compression-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+        return executor;
+    }
+}
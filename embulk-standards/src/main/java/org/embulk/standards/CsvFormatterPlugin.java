@@ -112,6 +112,8 @@ public class CsvFormatterPlugin
         final String newlineInField = task.getNewlineInField().getString();
         final String nullString = task.getNullString();
 
+        final CsvValueWriter valueWriter = new CsvValueWriter(encoder, delimiter, quotePolicy, quote, escape, newlineInField, nullString);
+
         // create a file
         encoder.nextFile();
 
@@ -133,9 +135,9 @@ public class CsvFormatterPlugin
                         {
                             addDelimiter(column);
                             if (!pageReader.isNull(column)) {
-                                addValue(Boolean.toString(pageReader.getBoolean(column)));
+                                valueWriter.addBoolean(pageReader.getBoolean(column));
                             } else {
-                                addNullString();
+                                valueWriter.addNull();
                             }
                         }
 
@@ -143,9 +145,9 @@ public class CsvFormatterPlugin
                         {
                             addDelimiter(column);
                             if (!pageReader.isNull(column)) {
-                                addValue(Long.toString(pageReader.getLong(column)));
+                                valueWriter.addLong(pageReader.getLong(column));
                             } else {
-                                addNullString();
+                                valueWriter.addNull();
                             }
                         }
 
@@ -153,9 +155,9 @@ public class CsvFormatterPlugin
                         {
                             addDelimiter(column);
                             if (!pageReader.isNull(column)) {
-                                addValue(Double.toString(pageReader.getDouble(column)));
+                                valueWriter.addDouble(pageReader.getDouble(column));
                             } else {
-                                addNullString();
+                                valueWriter.addNull();
                             }
                         }
 
@@ -163,9 +165,9 @@ public class CsvFormatterPlugin
                         {
                             addDelimiter(column);
                             if (!pageReader.isNull(column)) {
-                                addValue(pageReader.getString(column));
+                                valueWriter.addString(pageReader.getString(column));
                             } else {
-                                addNullString();
+                                valueWriter.addNull();
                             }
                         }
 
@@ -174,9 +176,9 @@ public class CsvFormatterPlugin
                             addDelimiter(column);
                             if (!pageReader.isNull(column)) {
                                 Timestamp value = pageReader.getTimestamp(column);
-                                addValue(timestampFormatters[column.getIndex()].format(value));
+                                valueWriter.addString(timestampFormatters[column.getIndex()].format(value));
                             } else {
-                                addNullString();
+                                valueWriter.addNull();
                             }
                         }
 
@@ -185,9 +187,9 @@ public class CsvFormatterPlugin
                             addDelimiter(column);
                             if (!pageReader.isNull(column)) {
                                 Value value = pageReader.getJson(column);
-                                addValue(value.toJson());
+                                valueWriter.addString(value.toJson());
                             } else {
-                                addNullString();
+                                valueWriter.addNull();
                             }
                         }
 
@@ -197,16 +199,6 @@ public class CsvFormatterPlugin
                                 encoder.addText(delimiterString);
                             }
                         }
-
-                        private void addValue(String v)
-                        {
-                            encoder.addText(setEscapeAndQuoteValue(v, delimiter, quotePolicy, quote, escape, newlineInField, nullString));
-                        }
-
-                        private void addNullString()
-                        {
-                            encoder.addText(nullString);
-                        }
                     });
                     encoder.addNewLine();
                 }
@@ -32,7 +32,7 @@ import org.slf4j.Logger;
 public class CsvParserPlugin
         implements ParserPlugin
 {
-    private static final ImmutableSet<String> TRUE_STRINGS =
+    static final ImmutableSet<String> TRUE_STRINGS =
         ImmutableSet.of(
                 "true", "True", "TRUE",
                 "yes", "Yes", "YES",
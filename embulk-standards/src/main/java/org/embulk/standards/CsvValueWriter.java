@@ -0,0 +1,219 @@
+package org.embulk.standards;
+
+import java.util.Arrays;
+import org.embulk.spi.util.LineEncoder;
+import org.embulk.standards.CsvFormatterPlugin.QuotePolicy;
+
+/**
+ * Writes CSV values to a LineEncoder.
+ *
+ * A value is scanned once. Values which don't include quote, delimiter or newline characters
+ * are passed to the encoder as they are. Others are escaped and quoted into a reused buffer.
+ * Numbers are rendered into the buffer without creating Strings.
+ */
+class CsvValueWriter
+{
+    private final LineEncoder encoder;
+    private final char delimiter;
+    private final QuotePolicy policy;
+    private final char quote;
+    private final char escape;
+    private final String newline;
+    private final String nullString;
+    private final String quoteString;
+    private char[] source = new char[32];
+    private char[] buffer = new char[64];
+
+    CsvValueWriter(LineEncoder encoder, char delimiter, QuotePolicy policy, char quote, char escape,
+            String newline, String nullString)
+    {
+        this.encoder = encoder;
+        this.delimiter = delimiter;
+        this.policy = policy;
+        this.quote = quote;
+        this.escape = escape;
+        this.newline = newline;
+        this.nullString = nullString;
+        this.quoteString = String.valueOf(quote);
+    }
+
+    void addNull()
+    {
+        encoder.addText(nullString);
+    }
+
+    void addBoolean(boolean v)
+    {
+        addString(Boolean.toString(v));
+    }
+
+    void addString(String v)
+    {
+        final int length = v.length();
+        boolean clean = true;
+        for (int i = 0; i < length; i++) {
+            if (isSpecial(v.charAt(i))) {
+                clean = false;
+                break;
+            }
+        }
+
+        if (clean) {
+            if (requiresQuote(v)) {
+                encoder.addText(quoteString);
+                encoder.addText(v);
+                encoder.addText(quoteString);
+            }
+            else {
+                encoder.addText(v);
+            }
+            return;
+        }
+
+        if (source.length < length) {
+            source = new char[Math.max(source.length * 2, length)];
+        }
+        v.getChars(0, length, source, 0);
+        addEscaped(source, length, requiresQuote(v));
+    }
+
+    void addLong(long v)
+    {
+        addChars(writeLong(v, 0));
+    }
+
+    void addDouble(double v)
+    {
+        // Double.toString prints integral values in [1e-3, 1e7) as "<integer>.0"
+        if (v == Math.rint(v) && Math.abs(v) < 1e7 && (v != 0.0 || Double.doubleToRawLongBits(v) == 0L)) {
+            int length = writeLong((long) v, 0);
+            source[length++] = '.';
+            source[length++] = '0';
+            addChars(length);
+        }
+        else {
+            addString(Double.toString(v));
+        }
+    }
+
+    private void addChars(int length)
+    {
+        for (int i = 0; i < length; i++) {
+            if (isSpecial(source[i])) {
+                addEscaped(source, length, requiresQuote(source, length));
+                return;
+            }
+        }
+        if (requiresQuote(source, length)) {
+            encoder.addText(quoteString);
+            encoder.addText(source, 0, length);
+            encoder.addText(quoteString);
+        }
+        else {
+            encoder.addText(source, 0, length);
+        }
+    }
+
+    // writes decimal digits of v to source at offset and returns the end offset
+    private int writeLong(long v, int offset)
+    {
+        if (v == Long.MIN_VALUE) {
+            final String s = Long.toString(v);
+            s.getChars(0, s.length(), source, offset);
+            return offset + s.length();
+        }
+        int p = offset;
+        if (v < 0) {
+            source[p++] = '-';
+            v = -v;
+        }
+        final int start = p;
+        do {
+            source[p++] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = p - 1; i < j; i++, j--) {
+            final char c = source[i];
+            source[i] = source[j];
+            source[j] = c;
+        }
+        return p;
+    }
+
+    private boolean isSpecial(char c)
+    {
+        return (policy != QuotePolicy.NONE && c == quote) || c == '\r' || c == '\n' || c == delimiter;
+    }
+
+    private boolean requiresQuote(String v)
+    {
+        return policy == QuotePolicy.ALL || (policy == QuotePolicy.MINIMAL && v.equals(nullString));
+    }
+
+    private boolean requiresQuote(char[] chars, int length)
+    {
+        if (policy == QuotePolicy.ALL) {
+            return true;
+        }
+        if (policy != QuotePolicy.MINIMAL || length != nullString.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[i] != nullString.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addEscaped(char[] chars, int length, boolean requireQuote)
+    {
+        // each char expands to at most the longer of an escaped pair and an escaped newline
+        final int maxLength = length * Math.max(2, newline.length() + 1) + 2;
+        if (buffer.length < maxLength) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, maxLength));
+        }
+        final char[] out = buffer;
+        int p = 1;  // out[0] is reserved for the opening quote
+        char previousChar = ' ';
+        for (int i = 0; i < length; i++) {
+            final char c = chars[i];
+            if (policy != QuotePolicy.NONE && c == quote) {
+                out[p++] = escape;
+                out[p++] = c;
+                requireQuote = true;
+            }
+            else if (c == '\r' || (c == '\n' && previousChar != '\r')) {
+                if (policy == QuotePolicy.NONE) {
+                    out[p++] = escape;
+                }
+                newline.getChars(0, newline.length(), out, p);
+                p += newline.length();
+                requireQuote = true;
+            }
+            else if (c == '\n') {
+                // the second char of CRLF
+            }
+            else if (c == delimiter) {
+                if (policy == QuotePolicy.NONE) {
+                    out[p++] = escape;
+                }
+                out[p++] = c;
+                requireQuote = true;
+            }
+            else {
+                out[p++] = c;
+            }
+            previousChar = c;
+        }
+
+        if (policy != QuotePolicy.NONE && requireQuote) {
+            out[0] = quote;
+            out[p++] = quote;
+            encoder.addText(out, 0, p);
+        }
+        else {
+            encoder.addText(out, 1, p - 1);
+        }
+    }
+}
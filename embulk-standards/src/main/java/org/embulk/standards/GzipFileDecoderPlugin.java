@@ -2,7 +2,10 @@ package org.embulk.standards;
 
 import java.io.InputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import javax.validation.constraints.Min;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
 import org.embulk.config.Task;
 import org.embulk.config.TaskSource;
 import org.embulk.config.ConfigSource;
@@ -19,10 +22,19 @@ public class GzipFileDecoderPlugin
     public interface PluginTask
             extends Task
     {
+        // inflates members on this number of threads if it's greater than 1
+        @Config("threads")
+        @ConfigDefault("1")
+        @Min(1)
+        int getThreads();
+
         @ConfigInject
         BufferAllocator getBufferAllocator();
     }
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PARALLEL_SEGMENT_SIZE = 1024 * 1024;
+
     @Override
     public void transaction(ConfigSource config, DecoderPlugin.Control control)
     {
@@ -33,7 +45,14 @@ public class GzipFileDecoderPlugin
     @Override
     public FileInput open(TaskSource taskSource, FileInput fileInput)
     {
-        PluginTask task = taskSource.loadTask(PluginTask.class);
+        // reused for all files of the task
+        return open(taskSource, fileInput, new Inflater(true), true);
+    }
+
+    // the inflater is ended when the input is closed if endInflater is true
+    FileInput open(TaskSource taskSource, FileInput fileInput, final Inflater inflater, final boolean endInflater)
+    {
+        final PluginTask task = taskSource.loadTask(PluginTask.class);
         final FileInputInputStream files = new FileInputInputStream(fileInput);
         return new InputStreamFileInput(
                 task.getBufferAllocator(),
@@ -43,12 +62,22 @@ public class GzipFileDecoderPlugin
                         if (!files.nextFile()) {
                             return null;
                         }
-                        return new GZIPInputStream(files, 8*1024);
+                        if (task.getThreads() > 1) {
+                            return new ParallelGzipInputStream(files, task.getThreads(), PARALLEL_SEGMENT_SIZE, inflater);
+                        }
+                        return new ParallelGzipInputStream(files, 1, BUFFER_SIZE, inflater);
                     }
 
                     public void close() throws IOException
                     {
-                        files.close();
+                        try {
+                            files.close();
+                        }
+                        finally {
+                            if (endInflater) {
+                                inflater.end();
+                            }
+                        }
                     }
                 });
     }
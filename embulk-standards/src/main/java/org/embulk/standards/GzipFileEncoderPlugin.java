@@ -11,9 +11,11 @@ import org.embulk.config.ConfigInject;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.TaskSource;
 import org.embulk.config.ConfigSource;
+import org.embulk.config.ConfigException;
 import org.embulk.spi.EncoderPlugin;
 import org.embulk.spi.FileOutput;
 import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.unit.ByteSize;
 import org.embulk.spi.util.FileOutputOutputStream;
 import org.embulk.spi.util.OutputStreamFileOutput;
 
@@ -29,6 +31,16 @@ public class GzipFileEncoderPlugin
         @Max(9)
         int getLevel();
 
+        // compresses blocks on this number of threads if it's greater than 1
+        @Config("threads")
+        @ConfigDefault("1")
+        @Min(1)
+        int getThreads();
+
+        @Config("block_size")
+        @ConfigDefault("\"128KB\"")
+        ByteSize getBlockSize();
+
         @ConfigInject
         BufferAllocator getBufferAllocator();
     }
@@ -36,6 +48,13 @@ public class GzipFileEncoderPlugin
     public void transaction(ConfigSource config, EncoderPlugin.Control control)
     {
         PluginTask task = config.loadConfig(PluginTask.class);
+
+        // validate block_size
+        long blockSize = task.getBlockSize().getBytes();
+        if (blockSize < 1024 || blockSize > Integer.MAX_VALUE / 2) {
+            throw new ConfigException("block_size of gzip encoder must be between 1KB and 1GB");
+        }
+
         control.run(task.dump());
     }
 
@@ -50,6 +69,9 @@ public class GzipFileEncoderPlugin
             public OutputStream openNext() throws IOException
             {
                 output.nextFile();
+                if (task.getThreads() > 1) {
+                    return new ParallelGzipOutputStream(output, task.getLevel(), (int) task.getBlockSize().getBytes(), task.getThreads());
+                }
                 return new GZIPOutputStream(output) {
                     {
                         this.def.setLevel(task.getLevel());
@@ -0,0 +1,214 @@
+package org.embulk.standards;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.embulk.standards.JsonParserPlugin.InvalidEscapeStringPolicy;
+
+/**
+ * InputStream which fixes invalid string escapes in JSON text while bytes flow through it.
+ *
+ * The stream works on raw bytes with a constant size buffer. It assumes an ASCII-compatible
+ * encoding such as UTF-8 because backslash escapes never appear inside multi-byte sequences of
+ * those encodings.
+ *
+ * A backslash which ends a line or the input is removed. The underlying stream is not closed
+ * by {@link #close()} because its owner manages it.
+ */
+class InvalidEscapeStringInputStream
+        extends InputStream
+{
+    private static final int UNICODE_ESCAPE_LENGTH = 6;  // \\uXXXX
+
+    private final InputStream in;
+    private final InvalidEscapeStringPolicy policy;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+    private boolean passNextByte;
+
+    InvalidEscapeStringInputStream(InputStream in, InvalidEscapeStringPolicy policy)
+    {
+        this(in, policy, 32 * 1024);
+    }
+
+    InvalidEscapeStringInputStream(InputStream in, InvalidEscapeStringPolicy policy, int bufferSize)
+    {
+        this.in = in;
+        this.policy = policy;
+        this.buffer = new byte[Math.max(bufferSize, UNICODE_ESCAPE_LENGTH)];
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        if (n <= 0) {
+            return -1;
+        }
+        return b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+
+        int n = 0;
+        while (n < len) {
+            if (fill(1) == 0) {
+                break;
+            }
+
+            if (passNextByte) {
+                // second byte of a valid escape sequence
+                b[off + n++] = buffer[position++];
+                passNextByte = false;
+                continue;
+            }
+
+            if (buffer[position] != '\\') {
+                // copy a run of bytes which doesn't include backslash as is
+                int end = Math.min(limit, position + (len - n));
+                int i = position;
+                while (i < end && buffer[i] != '\\') {
+                    i++;
+                }
+                System.arraycopy(buffer, position, b, off + n, i - position);
+                n += i - position;
+                position = i;
+                continue;
+            }
+
+            int available = fill(UNICODE_ESCAPE_LENGTH);
+            if (available < 2) {
+                // backslash at the end of input
+                position++;
+                continue;
+            }
+
+            byte next = buffer[position + 1];
+            switch (next) {
+            case 'b':
+            case 'f':
+            case 'n':
+            case 'r':
+            case 't':
+            case '"':
+            case '\\':
+            case '/':
+                b[off + n++] = buffer[position++];
+                passNextByte = true;
+                break;
+            case '\r':
+            case '\n':
+                // backslash at the end of a line
+                position++;
+                break;
+            case 'u':
+                int hexLength = countUntilLineEnd(position + 2, Math.min(limit, position + UNICODE_ESCAPE_LENGTH));
+                if (hexLength < 4) {
+                    // too short as an unicode escape
+                    position++;
+                }
+                else if (isHexDigits(position + 2, 4)) {
+                    b[off + n++] = buffer[position++];
+                    passNextByte = true;
+                }
+                else if (policy == InvalidEscapeStringPolicy.SKIP) {
+                    // remove backslash and u
+                    position += 2;
+                }
+                else {
+                    position++;
+                }
+                break;
+            default:
+                if (policy == InvalidEscapeStringPolicy.SKIP) {
+                    // remove backslash and the whole following character
+                    position += 1 + Math.min(utf8SequenceLength(next), available - 1);
+                }
+                else {
+                    position++;
+                }
+                break;
+            }
+        }
+
+        if (n == 0) {
+            return -1;
+        }
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return limit - position;
+    }
+
+    @Override
+    public void close()
+    {
+        // the underlying stream is closed by the owner
+    }
+
+    private int fill(int required)
+            throws IOException
+    {
+        while (limit - position < required && !eof) {
+            if (buffer.length - position < required) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                eof = true;
+            }
+            else {
+                limit += n;
+            }
+        }
+        return limit - position;
+    }
+
+    private int countUntilLineEnd(int from, int to)
+    {
+        int i = from;
+        while (i < to && buffer[i] != '\n' && buffer[i] != '\r') {
+            i++;
+        }
+        return i - from;
+    }
+
+    private boolean isHexDigits(int from, int length)
+    {
+        for (int i = from; i < from + length; i++) {
+            byte c = buffer[i];
+            if (!(('0' <= c && c <= '9') || ('a' <= c && c <= 'f') || ('A' <= c && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int utf8SequenceLength(byte lead)
+    {
+        if ((lead & 0xe0) == 0xc0) {
+            return 2;
+        }
+        else if ((lead & 0xf0) == 0xe0) {
+            return 3;
+        }
+        else if ((lead & 0xf8) == 0xf0) {
+            return 4;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,346 @@
+package org.embulk.standards;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.ColumnConfig;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.SchemaConfig;
+import org.embulk.spi.json.JsonParseException;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.time.TimestampParseException;
+import org.embulk.spi.time.TimestampParser;
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.TimestampType;
+import org.embulk.spi.type.Type;
+import org.embulk.standards.JsonParserPlugin.JsonRecordValidateException;
+
+/**
+ * Extracts typed columns from a stream of JSON records.
+ *
+ * Each column is located by a JSON pointer. Values are written to the PageBuilder straight
+ * from Jackson tokens, and subtrees which no column points to are skipped without being built.
+ */
+class JsonColumnExtractor
+{
+    private final JsonFactory factory;
+    private final org.embulk.spi.json.JsonParser jsonParser;
+    private final PageBuilder pageBuilder;
+    private final Column[] columns;
+    private final Node root;
+    private String invalidValueMessage;
+
+    JsonColumnExtractor(JsonFactory factory, SchemaConfig schemaConfig,
+            TimestampParser[] timestampParsers, PageBuilder pageBuilder)
+    {
+        this.factory = factory;
+        this.jsonParser = new org.embulk.spi.json.JsonParser();
+        this.pageBuilder = pageBuilder;
+        this.columns = new Column[schemaConfig.getColumnCount()];
+        this.root = new Node();
+
+        int i = 0;
+        for (ColumnConfig config : schemaConfig.getColumns()) {
+            Column column = config.toColumn(i);
+            columns[i] = column;
+            String pointer = config.getOption().get(String.class, "json_pointer", defaultJsonPointer(column.getName()));
+            Node node = root;
+            try {
+                for (JsonPointer p = JsonPointer.compile(pointer); !p.matches() && node.setter == null; p = p.tail()) {
+                    node = node.child(p.getMatchingProperty());
+                }
+            }
+            catch (IllegalArgumentException ex) {
+                throw new ConfigException(String.format("Invalid json_pointer '%s' of column '%s'", pointer, column.getName()), ex);
+            }
+            if (node.setter != null || !node.children.isEmpty()) {
+                throw new ConfigException(String.format("json_pointer '%s' of column '%s' overlaps with another column", pointer, column.getName()));
+            }
+            node.setter = newValueSetter(column, timestampParsers[i]);
+            i++;
+        }
+    }
+
+    private static String defaultJsonPointer(String columnName)
+    {
+        return "/" + columnName.replace("~", "~0").replace("/", "~1");
+    }
+
+    /**
+     * Reads a JSON record starting at the current token, and sets its columns to the PageBuilder.
+     * Columns which don't exist in the record are set to null.
+     *
+     * @throws JsonRecordValidateException if the record is not an object or a value can't be converted.
+     * The whole record is consumed even in that case.
+     */
+    void extractRecord(JsonParser parser, JsonToken token)
+            throws IOException
+    {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            throw new JsonRecordValidateException(
+                    String.format("A Json record must represent map value but it's %s", token.name()));
+        }
+
+        for (Column column : columns) {
+            pageBuilder.setNull(column);
+        }
+        invalidValueMessage = null;
+
+        readValue(parser, token, root);
+
+        if (invalidValueMessage != null) {
+            throw new JsonRecordValidateException(invalidValueMessage);
+        }
+    }
+
+    private void readValue(JsonParser parser, JsonToken token, Node node)
+            throws IOException
+    {
+        if (node.setter != null) {
+            try {
+                if (token == JsonToken.VALUE_NULL) {
+                    pageBuilder.setNull(node.setter.column);
+                }
+                else {
+                    node.setter.set(parser, token);
+                }
+            }
+            catch (InvalidValueException | NumberFormatException | TimestampParseException | JsonParseException ex) {
+                // keep reading to consume the rest of this record
+                if (invalidValueMessage == null) {
+                    invalidValueMessage = String.format("Invalid value for column '%s': %s",
+                            node.setter.column.getName(), ex.getMessage());
+                }
+                parser.skipChildren();
+            }
+            return;
+        }
+
+        switch (token) {
+        case START_OBJECT:
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                Node child = node.children.get(parser.getCurrentName());
+                token = nextToken(parser);
+                if (child == null) {
+                    parser.skipChildren();
+                }
+                else {
+                    readValue(parser, token, child);
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw unexpectedToken(parser, token);
+            }
+            break;
+        case START_ARRAY:
+            int index = 0;
+            while ((token = nextToken(parser)) != JsonToken.END_ARRAY) {
+                Node child = node.children.isEmpty() ? null : node.children.get(Integer.toString(index));
+                if (child == null) {
+                    parser.skipChildren();
+                }
+                else {
+                    readValue(parser, token, child);
+                }
+                index++;
+            }
+            break;
+        default:
+            // a scalar value where columns expect an object or an array
+            break;
+        }
+    }
+
+    private static JsonToken nextToken(JsonParser parser)
+            throws IOException
+    {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            throw new JsonParseException("Unexpected end of JSON at " + parser.getTokenLocation());
+        }
+        return token;
+    }
+
+    private static JsonParseException unexpectedToken(JsonParser parser, JsonToken token)
+    {
+        if (token == null) {
+            return new JsonParseException("Unexpected end of JSON at " + parser.getTokenLocation());
+        }
+        return new JsonParseException("Unexpected token " + token + " at " + parser.getTokenLocation());
+    }
+
+    private String readStructureAsString(JsonParser parser)
+            throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return writer.toString();
+    }
+
+    private ValueSetter newValueSetter(Column column, final TimestampParser timestampParser)
+    {
+        Type type = column.getType();
+        if (type instanceof BooleanType) {
+            return new ValueSetter(column) {
+                void set(JsonParser parser, JsonToken token) throws IOException
+                {
+                    switch (token) {
+                    case VALUE_TRUE:
+                        pageBuilder.setBoolean(column, true);
+                        break;
+                    case VALUE_FALSE:
+                        pageBuilder.setBoolean(column, false);
+                        break;
+                    case VALUE_STRING:
+                        pageBuilder.setBoolean(column, CsvParserPlugin.TRUE_STRINGS.contains(parser.getText()));
+                        break;
+                    default:
+                        throw new InvalidValueException(token);
+                    }
+                }
+            };
+        }
+        else if (type instanceof LongType) {
+            return new ValueSetter(column) {
+                void set(JsonParser parser, JsonToken token) throws IOException
+                {
+                    switch (token) {
+                    case VALUE_NUMBER_INT:
+                        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                            throw new InvalidValueException("Too large number " + parser.getText());
+                        }
+                        pageBuilder.setLong(column, parser.getLongValue());
+                        break;
+                    case VALUE_STRING:
+                        pageBuilder.setLong(column, Long.parseLong(parser.getText()));
+                        break;
+                    default:
+                        throw new InvalidValueException(token);
+                    }
+                }
+            };
+        }
+        else if (type instanceof DoubleType) {
+            return new ValueSetter(column) {
+                void set(JsonParser parser, JsonToken token) throws IOException
+                {
+                    switch (token) {
+                    case VALUE_NUMBER_INT:
+                    case VALUE_NUMBER_FLOAT:
+                        pageBuilder.setDouble(column, parser.getDoubleValue());
+                        break;
+                    case VALUE_STRING:
+                        pageBuilder.setDouble(column, Double.parseDouble(parser.getText()));
+                        break;
+                    default:
+                        throw new InvalidValueException(token);
+                    }
+                }
+            };
+        }
+        else if (type instanceof StringType) {
+            return new ValueSetter(column) {
+                void set(JsonParser parser, JsonToken token) throws IOException
+                {
+                    switch (token) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        pageBuilder.setString(column, readStructureAsString(parser));
+                        break;
+                    default:
+                        pageBuilder.setString(column, parser.getText());
+                        break;
+                    }
+                }
+            };
+        }
+        else if (type instanceof TimestampType) {
+            return new ValueSetter(column) {
+                void set(JsonParser parser, JsonToken token) throws IOException
+                {
+                    switch (token) {
+                    case VALUE_NUMBER_INT:
+                        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                            throw new InvalidValueException("Too large number " + parser.getText());
+                        }
+                        // epoch seconds
+                        pageBuilder.setTimestamp(column, Timestamp.ofEpochSecond(parser.getLongValue()));
+                        break;
+                    case VALUE_STRING:
+                        pageBuilder.setTimestamp(column, timestampParser.parse(parser.getText()));
+                        break;
+                    default:
+                        throw new InvalidValueException(token);
+                    }
+                }
+            };
+        }
+        else if (type instanceof JsonType) {
+            return new ValueSetter(column) {
+                void set(JsonParser parser, JsonToken token) throws IOException
+                {
+                    // builds msgpack Value only for the subtree of this column
+                    pageBuilder.setJson(column, jsonParser.parse(readStructureAsString(parser)));
+                }
+            };
+        }
+        throw new ConfigException("Unknown column type: " + type);
+    }
+
+    private static class Node
+    {
+        private final Map<String, Node> children = new HashMap<>();
+        private ValueSetter setter;
+
+        Node child(String name)
+        {
+            Node child = children.get(name);
+            if (child == null) {
+                child = new Node();
+                children.put(name, child);
+            }
+            return child;
+        }
+    }
+
+    private static abstract class ValueSetter
+    {
+        protected final Column column;
+
+        ValueSetter(Column column)
+        {
+            this.column = column;
+        }
+
+        abstract void set(JsonParser parser, JsonToken token) throws IOException;
+    }
+
+    private static class InvalidValueException
+            extends RuntimeException
+    {
+        InvalidValueException(JsonToken token)
+        {
+            super("Unexpected token " + token);
+        }
+
+        InvalidValueException(String message)
+        {
+            super(message);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package org.embulk.standards;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Function;
-import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharSource;
-import com.google.common.io.CharStreams;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigSource;
@@ -18,20 +20,23 @@ import org.embulk.spi.PageBuilder;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.ParserPlugin;
 import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
 import org.embulk.spi.json.JsonParseException;
 import org.embulk.spi.json.JsonParser;
+import org.embulk.spi.time.TimestampParser;
 import org.embulk.spi.type.Types;
 import org.embulk.spi.util.FileInputInputStream;
-import org.jruby.embed.io.ReaderInputStream;
+import org.embulk.spi.util.Timestamps;
 import org.msgpack.core.Preconditions;
 import org.msgpack.value.Value;
 import org.slf4j.Logger;
 
 import javax.annotation.Nullable;
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class JsonParserPlugin
         implements ParserPlugin
@@ -57,7 +62,7 @@ public class JsonParserPlugin
     }
 
     public interface PluginTask
-            extends Task
+            extends Task, TimestampParser.Task
     {
         @Config("stop_on_invalid_record")
         @ConfigDefault("false")
@@ -66,6 +71,12 @@ public class JsonParserPlugin
         @Config("invalid_string_escapes")
         @ConfigDefault("\"PASSTHROUGH\"")
         InvalidEscapeStringPolicy getInvalidEscapeStringPolicy();
+
+        // If columns are set, each of them is extracted by its "json_pointer" option (default: "/<name>")
+        // instead of storing the whole record into a single json column.
+        @Config("columns")
+        @ConfigDefault("null")
+        Optional<SchemaConfig> getSchemaConfig();
     }
 
     private final Logger log;
@@ -79,7 +90,12 @@ public class JsonParserPlugin
     public void transaction(ConfigSource configSource, Control control)
     {
         PluginTask task = configSource.loadConfig(PluginTask.class);
-        control.run(task.dump(), newSchema());
+        if (task.getSchemaConfig().isPresent()) {
+            control.run(task.dump(), task.getSchemaConfig().get().toSchema());
+        }
+        else {
+            control.run(task.dump(), newSchema());
+        }
     }
 
     @VisibleForTesting
@@ -92,6 +108,10 @@ public class JsonParserPlugin
     public void run(TaskSource taskSource, Schema schema, FileInput input, PageOutput output)
     {
         PluginTask task = taskSource.loadTask(PluginTask.class);
+        if (task.getSchemaConfig().isPresent()) {
+            runWithColumns(task, schema, input, output);
+            return;
+        }
 
         final boolean stopOnInvalidRecord = task.getStopOnInvalidRecord();
         final Column column = schema.getColumn(0); // record column
@@ -136,6 +156,55 @@ public class JsonParserPlugin
         }
     }
 
+    private void runWithColumns(PluginTask task, Schema schema, FileInput input, PageOutput output)
+    {
+        final boolean stopOnInvalidRecord = task.getStopOnInvalidRecord();
+        final TimestampParser[] timestampParsers = Timestamps.newTimestampColumnParsers(task, task.getSchemaConfig().get());
+        final JsonFactory factory = newJsonFactory();
+
+        try (PageBuilder pageBuilder = newPageBuilder(schema, output);
+                FileInputInputStream in = new FileInputInputStream(input)) {
+            final JsonColumnExtractor extractor = new JsonColumnExtractor(factory, task.getSchemaConfig().get(), timestampParsers, pageBuilder);
+            while (in.nextFile()) {
+                boolean evenOneJsonParsed = false;
+                try (com.fasterxml.jackson.core.JsonParser parser = factory.createParser(newInputStream(in, task))) {
+                    JsonToken token;
+                    while ((token = parser.nextToken()) != null) {
+                        try {
+                            extractor.extractRecord(parser, token);
+                            pageBuilder.addRecord();
+                            evenOneJsonParsed = true;
+                        }
+                        catch (JsonRecordValidateException e) {
+                            if (stopOnInvalidRecord) {
+                                throw new DataException(String.format("Invalid record at line %d", parser.getCurrentLocation().getLineNr()), e);
+                            }
+                            log.warn(String.format("Skipped record at line %d (%s)", parser.getCurrentLocation().getLineNr(), e.getMessage()));
+                        }
+                    }
+                }
+                catch (IOException | JsonParseException e) {
+                    if (Exec.isPreview() && evenOneJsonParsed) {
+                        // see run()
+                        break;
+                    }
+                    throw new DataException(e);
+                }
+            }
+
+            pageBuilder.finish();
+        }
+    }
+
+    private static JsonFactory newJsonFactory()
+    {
+        // same features as org.embulk.spi.json.JsonParser
+        JsonFactory factory = new JsonFactory();
+        factory.enable(com.fasterxml.jackson.core.JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS);
+        factory.enable(com.fasterxml.jackson.core.JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS);
+        return factory;
+    }
+
     private PageBuilder newPageBuilder(Schema schema, PageOutput output)
     {
         return new PageBuilder(Exec.getBufferAllocator(), schema, output);
@@ -143,17 +212,20 @@ public class JsonParserPlugin
 
     private JsonParser.Stream newJsonStream(FileInputInputStream in, PluginTask task)
             throws IOException
+    {
+        return new JsonParser().open(newInputStream(in, task));
+    }
+
+    private InputStream newInputStream(FileInputInputStream in, PluginTask task)
     {
         InvalidEscapeStringPolicy policy = task.getInvalidEscapeStringPolicy();
         switch (policy) {
             case SKIP:
             case UNESCAPE:
-                Iterable<CharSource> lines = Lists.transform(CharStreams.readLines(new BufferedReader(new InputStreamReader(in))),
-                        invalidEscapeStringFunction(policy));
-                return new JsonParser().open(new ReaderInputStream(CharSource.concat(lines).openStream()));
+                return new InvalidEscapeStringInputStream(in, policy);
             case PASSTHROUGH:
             default:
-                return new JsonParser().open(in);
+                return in;
         }
     }
 
@@ -161,8 +233,6 @@ public class JsonParserPlugin
     {
         return new Function<String, CharSource>()
         {
-            final Pattern digitsPattern = Pattern.compile("\\p{XDigit}+");
-
             @Override
             public CharSource apply(@Nullable String input)
             {
@@ -170,56 +240,12 @@ public class JsonParserPlugin
                 if (policy == InvalidEscapeStringPolicy.PASSTHROUGH) {
                     return CharSource.wrap(input);
                 }
-                StringBuilder builder = new StringBuilder();
-                char[] charArray = input.toCharArray();
-                for (int characterIndex = 0; characterIndex < charArray.length; characterIndex++) {
-                    char c = charArray[characterIndex];
-                    if (c == '\\') {
-                        if (charArray.length > characterIndex + 1) {
-                            char next = charArray[characterIndex + 1];
-                            switch (next) {
-                                case 'b':
-                                case 'f':
-                                case 'n':
-                                case 'r':
-                                case 't':
-                                case '"':
-                                case '\\':
-                                case '/':
-                                    builder.append(c);
-                                    break;
-                                case 'u': // hexstring such as \u0001
-                                    if (charArray.length > characterIndex + 5) {
-                                        char[] hexChars = {charArray[characterIndex + 2], charArray[characterIndex + 3], charArray[characterIndex + 4],
-                                                           charArray[characterIndex + 5]};
-                                        String hexString = new String(hexChars);
-                                        if (digitsPattern.matcher(hexString).matches()) {
-                                            builder.append(c);
-                                        } else {
-                                            if (policy == InvalidEscapeStringPolicy.SKIP) {
-                                                // remove \\u
-                                                characterIndex++;
-                                            }
-                                        }
-                                    }
-                                    break;
-                                default:
-                                    switch (policy) {
-                                        case SKIP:
-                                            characterIndex++;
-                                            break;
-                                        case UNESCAPE:
-                                            break;
-                                    }
-                                    break;
-                            }
-                        }
-                    }
-                    else {
-                        builder.append(c);
-                    }
+                try (InputStream in = new InvalidEscapeStringInputStream(new ByteArrayInputStream(input.getBytes(UTF_8)), policy)) {
+                    return CharSource.wrap(new String(ByteStreams.toByteArray(in), UTF_8));
+                }
+                catch (IOException ex) {
+                    throw new AssertionError(ex);
                 }
-                return CharSource.wrap(builder.toString());
             }
         };
     }
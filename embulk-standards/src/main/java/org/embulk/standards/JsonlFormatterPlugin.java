@@ -0,0 +1,303 @@
+package org.embulk.standards;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.IOException;
+import java.util.Map;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigInject;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.Task;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.Column;
+import org.embulk.spi.ColumnVisitor;
+import org.embulk.spi.FileOutput;
+import org.embulk.spi.FormatterPlugin;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.TimestampFormatter;
+import org.embulk.spi.util.FileOutputOutputStream;
+import org.embulk.spi.util.Newline;
+import org.embulk.spi.util.Timestamps;
+import org.msgpack.value.IntegerValue;
+import org.msgpack.value.Value;
+
+public class JsonlFormatterPlugin
+        implements FormatterPlugin
+{
+    public interface PluginTask
+            extends Task, TimestampFormatter.Task
+    {
+        @Config("newline")
+        @ConfigDefault("\"LF\"")
+        Newline getNewline();
+
+        @Config("column_options")
+        @ConfigDefault("{}")
+        Map<String, TimestampColumnOption> getColumnOptions();
+
+        @ConfigInject
+        BufferAllocator getBufferAllocator();
+    }
+
+    public interface TimestampColumnOption
+            extends Task, TimestampFormatter.TimestampColumnOption
+    { }
+
+    @Override
+    public void transaction(ConfigSource config, Schema schema,
+            FormatterPlugin.Control control)
+    {
+        PluginTask task = config.loadConfig(PluginTask.class);
+
+        // validate column_options
+        for (String columnName : task.getColumnOptions().keySet()) {
+            schema.lookupColumn(columnName);  // throws SchemaConfigException
+        }
+
+        control.run(task.dump());
+    }
+
+    @Override
+    public PageOutput open(TaskSource taskSource, final Schema schema,
+            final FileOutput output)
+    {
+        final PluginTask task = taskSource.loadTask(PluginTask.class);
+        final TimestampFormatter[] timestampFormatters = Timestamps.newTimestampColumnFormatters(task, schema, task.getColumnOptions());
+        final FileOutputOutputStream stream = new FileOutputOutputStream(output, task.getBufferAllocator(), FileOutputOutputStream.CloseMode.FLUSH_FINISH);
+        final SerializedString[] fieldNames = new SerializedString[schema.getColumnCount()];
+        for (Column column : schema.getColumns()) {
+            fieldNames[column.getIndex()] = new SerializedString(column.getName());
+        }
+
+        // create a file
+        stream.nextFile();
+
+        final JsonGenerator generator;
+        try {
+            JsonFactory factory = new JsonFactory();
+            factory.setRootValueSeparator(null);  // records are separated by newline
+            generator = factory.createGenerator(stream, JsonEncoding.UTF8);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        return new PageOutput() {
+            private final PageReader pageReader = new PageReader(schema);
+            private final String newline = task.getNewline().getString();
+            private boolean finished = false;
+
+            private final ColumnVisitor visitor = new ColumnVisitor() {
+                public void booleanColumn(Column column)
+                {
+                    try {
+                        writeFieldName(column);
+                        if (!pageReader.isNull(column)) {
+                            generator.writeBoolean(pageReader.getBoolean(column));
+                        }
+                        else {
+                            generator.writeNull();
+                        }
+                    }
+                    catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+
+                public void longColumn(Column column)
+                {
+                    try {
+                        writeFieldName(column);
+                        if (!pageReader.isNull(column)) {
+                            generator.writeNumber(pageReader.getLong(column));
+                        }
+                        else {
+                            generator.writeNull();
+                        }
+                    }
+                    catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+
+                public void doubleColumn(Column column)
+                {
+                    try {
+                        writeFieldName(column);
+                        if (!pageReader.isNull(column)) {
+                            writeDouble(generator, pageReader.getDouble(column));
+                        }
+                        else {
+                            generator.writeNull();
+                        }
+                    }
+                    catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+
+                public void stringColumn(Column column)
+                {
+                    try {
+                        writeFieldName(column);
+                        if (!pageReader.isNull(column)) {
+                            generator.writeString(pageReader.getString(column));
+                        }
+                        else {
+                            generator.writeNull();
+                        }
+                    }
+                    catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+
+                public void timestampColumn(Column column)
+                {
+                    try {
+                        writeFieldName(column);
+                        if (!pageReader.isNull(column)) {
+                            generator.writeString(timestampFormatters[column.getIndex()].format(pageReader.getTimestamp(column)));
+                        }
+                        else {
+                            generator.writeNull();
+                        }
+                    }
+                    catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+
+                public void jsonColumn(Column column)
+                {
+                    try {
+                        writeFieldName(column);
+                        if (!pageReader.isNull(column)) {
+                            writeValue(generator, pageReader.getJson(column));
+                        }
+                        else {
+                            generator.writeNull();
+                        }
+                    }
+                    catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+
+                private void writeFieldName(Column column) throws IOException
+                {
+                    generator.writeFieldName(fieldNames[column.getIndex()]);
+                }
+            };
+
+            public void add(Page page)
+            {
+                try {
+                    pageReader.setPage(page);
+                    while (pageReader.nextRecord()) {
+                        generator.writeStartObject();
+                        schema.visitColumns(visitor);
+                        generator.writeEndObject();
+                        generator.writeRaw(newline);
+                    }
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+            public void finish()
+            {
+                try {
+                    generator.close();  // closes stream with FLUSH_FINISH
+                    finished = true;
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+            public void close()
+            {
+                try {
+                    if (!finished) {
+                        generator.close();
+                        finished = true;
+                    }
+                    output.close();  // this is necessary because CloseMode is not FLUSH_FINISH_CLOSE
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+    }
+
+    // writes a msgpack value as Value.toJson does but without building the string
+    private static void writeValue(JsonGenerator generator, Value value)
+            throws IOException
+    {
+        switch (value.getValueType()) {
+        case NIL:
+            generator.writeNull();
+            break;
+        case BOOLEAN:
+            generator.writeBoolean(value.asBooleanValue().getBoolean());
+            break;
+        case INTEGER:
+            IntegerValue integer = value.asIntegerValue();
+            if (integer.isInLongRange()) {
+                generator.writeNumber(integer.toLong());
+            }
+            else {
+                generator.writeNumber(integer.toBigInteger());
+            }
+            break;
+        case FLOAT:
+            writeDouble(generator, value.asFloatValue().toDouble());
+            break;
+        case STRING:
+        case BINARY:
+            generator.writeString(value.toString());
+            break;
+        case ARRAY:
+            generator.writeStartArray();
+            for (Value element : value.asArrayValue()) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+            break;
+        case MAP:
+            generator.writeStartObject();
+            for (Map.Entry<Value, Value> entry : value.asMapValue().entrySet()) {
+                Value key = entry.getKey();
+                generator.writeFieldName(key.isStringValue() ? key.toString() : key.toJson());
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+            break;
+        default:
+            generator.writeRawValue(value.toJson());
+            break;
+        }
+    }
+
+    private static void writeDouble(JsonGenerator generator, double v)
+            throws IOException
+    {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            // JSON has no representation of them. Value.toJson writes null as well.
+            generator.writeNull();
+        }
+        else {
+            generator.writeNumber(v);
+        }
+    }
+}
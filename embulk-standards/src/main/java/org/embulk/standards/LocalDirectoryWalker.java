@@ -0,0 +1,326 @@
+package org.embulk.standards;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Lists files under a directory recursively in the same order with Files.walkFileTree.
+ *
+ * Subdirectories are listed in parallel by a ForkJoinPool. Files are classified by the
+ * attributes read with the directory entry, and only symbolic links need another stat call.
+ *
+ * If an index is loaded, entries of a directory are taken from the index instead of reading
+ * the directory when its modification time is not changed since the previous listing.
+ */
+class LocalDirectoryWalker
+{
+    public interface Filter
+    {
+        boolean acceptDirectory(Path path);
+
+        boolean acceptFile(Path path);
+    }
+
+    private static final String INDEX_FORMAT = "embulk-local-file-index";
+    private static final int INDEX_VERSION = 1;
+
+    // directories modified within this duration before listing are not indexed because
+    // entries added in the same timestamp granularity can't be detected by the next listing
+    private static final long INDEX_MIN_AGE_MILLIS = 2000;
+
+    private static final byte FILE = 0;
+    private static final byte DIRECTORY = 1;
+
+    private final boolean followSymlinks;
+    private final int threads;
+
+    private Map<String, DirectoryEntries> previousIndex = new HashMap<>();
+    private final Map<String, DirectoryEntries> nextIndex = new ConcurrentHashMap<>();
+    private final Queue<Path> directories = new ConcurrentLinkedQueue<>();
+    private long listingStartMillis;
+
+    public LocalDirectoryWalker(boolean followSymlinks, int threads)
+    {
+        this.followSymlinks = followSymlinks;
+        this.threads = threads;
+    }
+
+    public List<String> walk(final Path directory, final Filter filter)
+            throws IOException
+    {
+        listingStartMillis = System.currentTimeMillis();
+        nextIndex.clear();
+        directories.clear();
+
+        BasicFileAttributes attrs = readAttributes(directory, followSymlinks);
+        if (!attrs.isDirectory()) {
+            // a symbolic link to a directory is skipped unless follow_symlinks is true
+            return ImmutableList.of();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new DirectoryTask(null, directory, attrs, filter));
+        }
+        catch (RuntimeException ex) {
+            // IOException is wrapped to be thrown from RecursiveTask.compute
+            for (Throwable cause : Throwables.getCausalChain(ex)) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw ex;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private class DirectoryTask
+            extends RecursiveTask<List<String>>
+    {
+        private final DirectoryTask parent;
+        private final Path directory;
+        private final BasicFileAttributes attrs;
+        private final Filter filter;
+
+        DirectoryTask(DirectoryTask parent, Path directory, BasicFileAttributes attrs, Filter filter)
+        {
+            this.parent = parent;
+            this.directory = directory;
+            this.attrs = attrs;
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<String> compute()
+        {
+            directories.add(directory);
+            try {
+                // files and subtasks in the order of entries
+                List<Object> results = new ArrayList<>();
+                DirectoryEntries entries = readEntries(directory, attrs);
+                for (int i = 0; i < entries.names.size(); i++) {
+                    Path path = directory.resolve(entries.names.get(i));
+                    if (entries.kinds.get(i) == DIRECTORY) {
+                        if (filter.acceptDirectory(path)) {
+                            BasicFileAttributes childAttrs = readAttributes(path, true);
+                            if (childAttrs.isDirectory()) {
+                                checkLoop(path, childAttrs);
+                                results.add(new DirectoryTask(this, path, childAttrs, filter).fork());
+                            }
+                        }
+                    }
+                    else if (filter.acceptFile(path)) {
+                        results.add(path.toString());
+                    }
+                }
+
+                ImmutableList.Builder<String> builder = ImmutableList.builder();
+                for (Object result : results) {
+                    if (result instanceof String) {
+                        builder.add((String) result);
+                    }
+                    else {
+                        @SuppressWarnings("unchecked")
+                        ForkJoinTask<List<String>> task = (ForkJoinTask<List<String>>) result;
+                        builder.addAll(task.join());
+                    }
+                }
+                return builder.build();
+            }
+            catch (IOException ex) {
+                throw new WalkException(ex);
+            }
+        }
+
+        private void checkLoop(Path path, BasicFileAttributes childAttrs)
+                throws IOException
+        {
+            if (!followSymlinks) {
+                return;
+            }
+            Object key = childAttrs.fileKey();
+            for (DirectoryTask ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+                boolean same;
+                if (key != null && ancestor.attrs.fileKey() != null) {
+                    same = key.equals(ancestor.attrs.fileKey());
+                }
+                else {
+                    same = Files.isSameFile(path, ancestor.directory);
+                }
+                if (same) {
+                    throw new FileSystemLoopException(path.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns directories read by the last listing.
+     */
+    public List<Path> getDirectories()
+    {
+        return ImmutableList.copyOf(directories);
+    }
+
+    private DirectoryEntries readEntries(Path directory, BasicFileAttributes attrs)
+            throws IOException
+    {
+        String key = directory.toString();
+        long modified = attrs.lastModifiedTime().toMillis();
+
+        DirectoryEntries entries = previousIndex.get(key);
+        if (entries == null || entries.modified != modified) {
+            entries = new DirectoryEntries(modified);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    BasicFileAttributes childAttrs = readAttributes(path, false);
+                    if (childAttrs.isSymbolicLink()) {
+                        try {
+                            childAttrs = readAttributes(path, true);
+                        }
+                        catch (IOException ex) {
+                            throw new RuntimeException("Can't resolve symbolic link", ex);
+                        }
+                        if (childAttrs.isDirectory() && !followSymlinks) {
+                            continue;
+                        }
+                    }
+                    entries.add(path.getFileName().toString(), childAttrs.isDirectory() ? DIRECTORY : FILE);
+                }
+            }
+        }
+
+        if (modified + INDEX_MIN_AGE_MILLIS < listingStartMillis) {
+            nextIndex.put(key, entries);
+        }
+        return entries;
+    }
+
+    private static BasicFileAttributes readAttributes(Path path, boolean followLinks)
+            throws IOException
+    {
+        if (followLinks) {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        else {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+    }
+
+    /**
+     * Loads an index saved by the previous listing. A missing file is an empty index.
+     */
+    public void loadIndex(Path path)
+            throws IOException
+    {
+        Map<String, DirectoryEntries> index = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (!INDEX_FORMAT.equals(in.readUTF()) || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Unknown format of listing index");
+            }
+            if (in.readBoolean() != followSymlinks) {
+                // directory entries depend on follow_symlinks
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String directory = in.readUTF();
+                DirectoryEntries entries = new DirectoryEntries(in.readLong());
+                int size = in.readInt();
+                for (int j = 0; j < size; j++) {
+                    byte kind = in.readByte();
+                    entries.add(in.readUTF(), kind);
+                }
+                index.put(directory, entries);
+            }
+        }
+        catch (NoSuchFileException ex) {
+            return;
+        }
+        previousIndex = index;
+    }
+
+    /**
+     * Saves directories read by the last listing. The file is replaced atomically.
+     */
+    public void saveIndex(Path path)
+            throws IOException
+    {
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeUTF(INDEX_FORMAT);
+                out.writeInt(INDEX_VERSION);
+                out.writeBoolean(followSymlinks);
+                out.writeInt(nextIndex.size());
+                for (Map.Entry<String, DirectoryEntries> pair : nextIndex.entrySet()) {
+                    DirectoryEntries entries = pair.getValue();
+                    out.writeUTF(pair.getKey());
+                    out.writeLong(entries.modified);
+                    out.writeInt(entries.names.size());
+                    for (int i = 0; i < entries.names.size(); i++) {
+                        out.writeByte(entries.kinds.get(i));
+                        out.writeUTF(entries.names.get(i));
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static class DirectoryEntries
+    {
+        private final long modified;
+        private final List<String> names = new ArrayList<>();
+        private final List<Byte> kinds = new ArrayList<>();
+
+        DirectoryEntries(long modified)
+        {
+            this.modified = modified;
+        }
+
+        void add(String name, byte kind)
+        {
+            names.add(name);
+            kinds.add(kind);
+        }
+    }
+
+    private static class WalkException
+            extends RuntimeException
+    {
+        WalkException(IOException cause)
+        {
+            super(cause);
+        }
+    }
+}
@@ -3,17 +3,31 @@ package org.embulk.standards;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.Files;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.FileVisitResult;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.google.common.base.Optional;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigInject;
@@ -22,17 +36,20 @@ import org.embulk.config.Task;
 import org.embulk.config.TaskSource;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
 import org.embulk.config.TaskReport;
+import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferAllocator;
 import org.embulk.spi.Exec;
 import org.embulk.spi.FileInputPlugin;
 import org.embulk.spi.TransactionalFileInput;
+import org.embulk.spi.unit.ByteSize;
 import org.embulk.spi.util.InputStreamTransactionalFileInput;
 import org.slf4j.Logger;
 
-import java.nio.file.FileVisitOption;
-import java.util.EnumSet;
-import java.util.Set;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 public class LocalFileInputPlugin
         implements FileInputPlugin
@@ -51,24 +68,160 @@ public class LocalFileInputPlugin
         @ConfigDefault("false")
         boolean getFollowSymlinks();
 
+        // reads files through memory mapping instead of FileInputStream
+        @Config("mmap")
+        @ConfigDefault("false")
+        boolean getMmap();
+
+        // number of threads to list subdirectories in parallel
+        @Config("listing_threads")
+        @ConfigDefault("1")
+        int getListingThreads();
+
+        // file to save entries of directories to skip reading unmodified directories next time
+        @Config("listing_index")
+        @ConfigDefault("null")
+        Optional<String> getListingIndex();
+
+        // detects new and appended files by last_files instead of last_path
+        @Config("detect_changes")
+        @ConfigDefault("false")
+        boolean getDetectChanges();
+
+        @Config("last_files")
+        @ConfigDefault("[]")
+        List<FileState> getLastFiles();
+
+        // size of the head and the end of the previous read compared to detect replaced files
+        @Config("checksum_bytes")
+        @ConfigDefault("4096")
+        int getChecksumBytes();
+
+        // waits for new or appended files using WatchService if detect_changes is true
+        @Config("watch")
+        @ConfigDefault("false")
+        boolean getWatch();
+
+        // stops adding files to a transaction when changed bytes reach this size
+        @Config("max_batch_size")
+        @ConfigDefault("null")
+        Optional<ByteSize> getMaxBatchSize();
+
         List<String> getFiles();
         void setFiles(List<String> files);
 
+        // ranges of files to read if detect_changes is true
+        List<Long> getStartOffsets();
+        void setStartOffsets(List<Long> offsets);
+
+        List<Long> getEndOffsets();
+        void setEndOffsets(List<Long> offsets);
+
+        List<FileState> getFileStates();
+        void setFileStates(List<FileState> states);
+
         @ConfigInject
         BufferAllocator getBufferAllocator();
     }
 
+    public static class FileState
+    {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String headChecksum;
+        private final String tailChecksum;
+
+        @JsonCreator
+        public FileState(
+                @JsonProperty("path") String path,
+                @JsonProperty("size") long size,
+                @JsonProperty("modified") long modified,
+                @JsonProperty("head_checksum") String headChecksum,
+                @JsonProperty("tail_checksum") String tailChecksum)
+        {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.headChecksum = headChecksum;
+            this.tailChecksum = tailChecksum;
+        }
+
+        // null if the entry only pads last_files
+        @JsonProperty("path")
+        public String getPath()
+        {
+            return path;
+        }
+
+        @JsonProperty("size")
+        public long getSize()
+        {
+            return size;
+        }
+
+        // last modified time in milliseconds since the epoch
+        @JsonProperty("modified")
+        public long getModified()
+        {
+            return modified;
+        }
+
+        // checksum of the first checksum_bytes bytes, or null if checksum_bytes is 0
+        @JsonProperty("head_checksum")
+        public String getHeadChecksum()
+        {
+            return headChecksum;
+        }
+
+        // checksum of the last checksum_bytes bytes, or null if checksum_bytes is 0
+        @JsonProperty("tail_checksum")
+        public String getTailChecksum()
+        {
+            return tailChecksum;
+        }
+    }
+
     private final Logger log = Exec.getLogger(getClass());
 
     private final static Path CURRENT_DIR = Paths.get(".").normalize();
 
+    // directories are listed again at this interval while watching because events may be lost
+    // by overflow, or not delivered at all on some file systems such as NFS
+    private final static long WATCH_RESCAN_SECONDS = 60;
+
     @Override
     public ConfigDiff transaction(ConfigSource config, FileInputPlugin.Control control)
     {
         PluginTask task = config.loadConfig(PluginTask.class);
+        if (task.getListingThreads() < 1) {
+            throw new ConfigException("listing_threads must be 1 or larger");
+        }
+        if (task.getChecksumBytes() < 0) {
+            throw new ConfigException("checksum_bytes must not be negative");
+        }
+        if (task.getWatch() && !task.getDetectChanges()) {
+            throw new ConfigException("watch: true requires detect_changes: true");
+        }
+        if (task.getDetectChanges()) {
+            checkResumable(config);
+        }
+        if (task.getMaxBatchSize().isPresent() && task.getMaxBatchSize().get().getBytes() <= 0) {
+            throw new ConfigException("max_batch_size must be larger than 0");
+        }
 
         // list files recursively
-        List<String> files = listFiles(task);
+        List<String> files;
+        if (task.getWatch()) {
+            files = watchChanges(task, lineTerminator(config));
+        } else if (task.getDetectChanges()) {
+            files = detectChanges(task, listFiles(task), lineTerminator(config));
+        } else {
+            files = listFiles(task);
+            task.setStartOffsets(ImmutableList.<Long>of());
+            task.setEndOffsets(ImmutableList.<Long>of());
+            task.setFileStates(ImmutableList.<FileState>of());
+        }
         log.info("Loading files {}", files);
         task.setFiles(files);
 
@@ -89,6 +242,11 @@ public class LocalFileInputPlugin
         // build next config
         ConfigDiff configDiff = Exec.newConfigDiff();
 
+        if (task.getDetectChanges()) {
+            configDiff.set("last_files", task.getFileStates());
+            return configDiff;
+        }
+
         // last_path
         if (task.getFiles().isEmpty()) {
             // keep the last value
@@ -111,6 +269,12 @@ public class LocalFileInputPlugin
     { }
 
     public List<String> listFiles(PluginTask task)
+    {
+        return listFiles(task, null);
+    }
+
+    // adds listed directories to the list if it's not null
+    private List<String> listFiles(PluginTask task, List<Path> listedDirectories)
     {
         Path pathPrefix = Paths.get(task.getPathPrefix()).normalize();
         final Path directory;
@@ -124,82 +288,276 @@ public class LocalFileInputPlugin
             directory = (d == null ? CURRENT_DIR : d);
         }
 
-        final ImmutableList.Builder<String> builder = ImmutableList.builder();
-        final String lastPath = task.getLastPath().orNull();
+        // last_path is not used if detect_changes is true
+        final String lastPath = task.getDetectChanges() ? null : task.getLastPath().orNull();
         try {
             log.info("Listing local files at directory '{}' filtering filename by prefix '{}'", directory.equals(CURRENT_DIR) ? "." : directory.toString(), fileNamePrefix);
 
-            int maxDepth = Integer.MAX_VALUE;
-            Set<FileVisitOption> opts;
-            if (task.getFollowSymlinks()) {
-                opts = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
-            } else {
-                opts = EnumSet.noneOf(FileVisitOption.class);
+            if (!task.getFollowSymlinks()) {
                 log.info("\"follow_symlinks\" is set false. Note that symbolic links to directories are skipped.");
             }
 
-            Files.walkFileTree(directory, opts, maxDepth, new SimpleFileVisitor<Path>() {
+            LocalDirectoryWalker walker = new LocalDirectoryWalker(task.getFollowSymlinks(), task.getListingThreads());
+            Path indexPath = null;
+            if (task.getListingIndex().isPresent()) {
+                indexPath = Paths.get(task.getListingIndex().get());
+                try {
+                    walker.loadIndex(indexPath);
+                } catch (IOException ex) {
+                    log.warn(String.format("Failed to load listing index '%s'. Listing all directories", indexPath), ex);
+                }
+            }
+
+            List<String> files = walker.walk(directory, new LocalDirectoryWalker.Filter() {
                 @Override
-                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs)
+                public boolean acceptDirectory(Path path)
                 {
-                    if (path.equals(directory)) {
-                        return FileVisitResult.CONTINUE;
-                    } else if (lastPath != null && path.toString().compareTo(lastPath) <= 0) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    } else {
-                        Path parent = path.getParent();
-                        if (parent == null) {
-                            parent = CURRENT_DIR;
-                        }
-                        if (parent.equals(directory)) {
-                            if (path.getFileName().toString().startsWith(fileNamePrefix)) {
-                                return FileVisitResult.CONTINUE;
-                            } else {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                        } else {
-                            return FileVisitResult.CONTINUE;
-                        }
+                    if (lastPath != null && path.toString().compareTo(lastPath) <= 0) {
+                        return false;
                     }
+                    return acceptChild(path);
                 }
 
                 @Override
-                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs)
+                public boolean acceptFile(Path path)
                 {
-                    try {
-                        // Avoid directories from listing.
-                        // Directories are normally unvisited with |FileVisitor#visitFile|, but symbolic links to
-                        // directories are visited like files unless |FOLLOW_LINKS| is set in |Files#walkFileTree|.
-                        // Symbolic links to directories are explicitly skipped here by checking with |Path#toReadlPath|.
-                        if (Files.isDirectory(path.toRealPath())) {
-                            return FileVisitResult.CONTINUE;
-                        }
-                    } catch (IOException ex){
-                        throw new RuntimeException("Can't resolve symbolic link", ex);
-                    }
                     if (lastPath != null && path.toString().compareTo(lastPath) <= 0) {
-                        return FileVisitResult.CONTINUE;
+                        return false;
+                    }
+                    return acceptChild(path);
+                }
+
+                private boolean acceptChild(Path path)
+                {
+                    Path parent = path.getParent();
+                    if (parent == null) {
+                        parent = CURRENT_DIR;
+                    }
+                    if (parent.equals(directory)) {
+                        return path.getFileName().toString().startsWith(fileNamePrefix);
                     } else {
-                        Path parent = path.getParent();
-                        if (parent == null) {
-                            parent = CURRENT_DIR;
-                        }
-                        if (parent.equals(directory)) {
-                            if (path.getFileName().toString().startsWith(fileNamePrefix)) {
-                                builder.add(path.toString());
-                                return FileVisitResult.CONTINUE;
-                            }
-                        } else {
-                            builder.add(path.toString());
-                        }
-                        return FileVisitResult.CONTINUE;
+                        return true;
                     }
                 }
             });
+
+            if (listedDirectories != null) {
+                listedDirectories.addAll(walker.getDirectories());
+            }
+            if (indexPath != null) {
+                try {
+                    walker.saveIndex(indexPath);
+                } catch (IOException ex) {
+                    log.warn(String.format("Failed to save listing index '%s'", indexPath), ex);
+                }
+            }
+            return files;
         } catch (IOException ex) {
             throw new RuntimeException(String.format("Failed get a list of local files at '%s'", directory), ex);
         }
-        return builder.build();
+    }
+
+    private List<String> watchChanges(PluginTask task, byte lineTerminator)
+    {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Set<Path> watchedDirectories = new HashSet<>();
+            boolean waiting = false;
+            while (true) {
+                List<Path> directories = new ArrayList<>();
+                List<String> files = detectChanges(task, listFiles(task, directories), lineTerminator);
+                if (!files.isEmpty()) {
+                    return files;
+                }
+
+                // lists again without waiting if new directories are registered because files
+                // created in them before registration don't cause events
+                boolean registered = false;
+                for (Path directory : directories) {
+                    if (watchedDirectories.add(directory)) {
+                        directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                        registered = true;
+                    }
+                }
+                if (registered) {
+                    continue;
+                }
+
+                if (!waiting) {
+                    log.info("Waiting for new or appended files");
+                    waiting = true;
+                }
+                WatchKey key = watcher.poll(WATCH_RESCAN_SECONDS, TimeUnit.SECONDS);
+                while (key != null) {
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        // the directory is deleted
+                        watchedDirectories.remove((Path) key.watchable());
+                    }
+                    key = watcher.poll();
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to watch local files", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    // appended bytes are read from the middle of a file. they can't be decoded alone, and
+    // they don't start with header lines
+    private static void checkResumable(ConfigSource config)
+    {
+        if (!config.get(List.class, "decoders", ImmutableList.of()).isEmpty()) {
+            throw new ConfigException("detect_changes: true can't be used with decoders because appended bytes of encoded files can't be decoded");
+        }
+        ConfigSource parser = config.getNestedOrGetEmpty("parser");
+        if (parser.get(Integer.class, "skip_header_lines", 0) > 0 || parser.get(Boolean.class, "header_line", false)) {
+            throw new ConfigException("detect_changes: true can't be used with skip_header_lines or header_line of the parser because appended bytes don't start with header lines");
+        }
+    }
+
+    // the last byte of newline of the parser
+    private static byte lineTerminator(ConfigSource config)
+    {
+        String newline = config.getNestedOrGetEmpty("parser").get(String.class, "newline", "CRLF");
+        return (byte) ("CR".equals(newline) ? '\r' : '\n');
+    }
+
+    private List<String> detectChanges(PluginTask task, List<String> files, byte lineTerminator)
+    {
+        Map<String, FileState> lastFiles = new HashMap<>();
+        for (FileState state : task.getLastFiles()) {
+            // entries without path are padding. first entries win in case that the config
+            // already has entries of deleted files after the entries of the last diff
+            if (state.getPath() != null && !lastFiles.containsKey(state.getPath())) {
+                lastFiles.put(state.getPath(), state);
+            }
+        }
+        int checksumBytes = task.getChecksumBytes();
+        long maxBatchBytes = task.getMaxBatchSize().isPresent() ? task.getMaxBatchSize().get().getBytes() : Long.MAX_VALUE;
+        long batchBytes = 0;
+
+        ImmutableList.Builder<String> targets = ImmutableList.builder();
+        ImmutableList.Builder<Long> startOffsets = ImmutableList.builder();
+        ImmutableList.Builder<Long> endOffsets = ImmutableList.builder();
+        List<FileState> states = new ArrayList<>();
+        for (String file : files) {
+            Path path = Paths.get(file);
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                long size = attrs.size();
+                long modified = attrs.lastModifiedTime().toMillis();
+
+                FileState last = lastFiles.get(file);
+                if (last != null && last.getSize() == size && last.getModified() == modified) {
+                    states.add(last);
+                    continue;
+                }
+                if (batchBytes >= maxBatchBytes) {
+                    // read by the next transaction
+                    if (last != null) {
+                        states.add(last);
+                    }
+                    continue;
+                }
+
+                long start = 0;
+                if (last != null && size > last.getSize() && isAppended(path, last, checksumBytes)) {
+                    start = last.getSize();
+                }
+
+                // files are read up to the last line at listing so that the next run starts from
+                // there. a line being written at the end is read after it's completed
+                long end = endOfLastLine(path, start, size, lineTerminator);
+                if (checksumBytes > 0) {
+                    states.add(new FileState(file, end, modified,
+                                checksum(path, 0, Math.min(checksumBytes, end)),
+                                checksum(path, Math.max(0, end - checksumBytes), end)));
+                } else {
+                    states.add(new FileState(file, end, modified, null, null));
+                }
+                if (start < end) {
+                    targets.add(file);
+                    startOffsets.add(start);
+                    endOffsets.add(end);
+                    batchBytes += end - start;
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException(String.format("Failed to detect changes of '%s'", file), ex);
+            }
+        }
+
+        // merging config diffs overwrites arrays element by element. entries of deleted files are
+        // overwritten by these padding entries instead of remaining at the end of last_files.
+        // slots which are already padding are not padded again so that last_files shrinks
+        int lastEntries = task.getLastFiles().size();
+        while (lastEntries > 0 && task.getLastFiles().get(lastEntries - 1).getPath() == null) {
+            lastEntries--;
+        }
+        for (int i = states.size(); i < lastEntries; i++) {
+            states.add(new FileState(null, 0, 0, null, null));
+        }
+
+        task.setStartOffsets(startOffsets.build());
+        task.setEndOffsets(endOffsets.build());
+        task.setFileStates(ImmutableList.copyOf(states));
+        return targets.build();
+    }
+
+    // returns true if the bytes read last time are not changed
+    private static boolean isAppended(Path path, FileState last, int checksumBytes)
+            throws IOException
+    {
+        if (checksumBytes == 0 || last.getHeadChecksum() == null || last.getTailChecksum() == null) {
+            return true;
+        }
+        long size = last.getSize();
+        return last.getHeadChecksum().equals(checksum(path, 0, Math.min(checksumBytes, size))) &&
+            last.getTailChecksum().equals(checksum(path, Math.max(0, size - checksumBytes), size));
+    }
+
+    // returns the offset next to the last line terminator between start and end, or start if
+    // there are no line terminators
+    private static long endOfLastLine(Path path, long start, long end, byte lineTerminator)
+            throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.allocate(8192);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = end;
+            while (position > start) {
+                int length = (int) Math.min(bytes.capacity(), position - start);
+                position -= length;
+                bytes.clear();
+                bytes.limit(length);
+                while (bytes.hasRemaining()) {
+                    if (channel.read(bytes, position + bytes.position()) < 0) {
+                        return start;  // truncated while reading
+                    }
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (bytes.get(i) == lineTerminator) {
+                        return position + i + 1;
+                    }
+                }
+            }
+        }
+        return start;
+    }
+
+    private static String checksum(Path path, long start, long end)
+            throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0) {
+                    break;  // truncated while reading
+                }
+            }
+        }
+        bytes.flip();
+        return Hashing.murmur3_128().hashBytes(bytes.array(), 0, bytes.limit()).toString();
     }
 
     @Override
@@ -208,13 +566,36 @@ public class LocalFileInputPlugin
         final PluginTask task = taskSource.loadTask(PluginTask.class);
 
         final File file = new File(task.getFiles().get(taskIndex));
+        final long startOffset;
+        final long endOffset;
+        if (task.getDetectChanges()) {
+            startOffset = task.getStartOffsets().get(taskIndex);
+            endOffset = task.getEndOffsets().get(taskIndex);
+        } else {
+            startOffset = 0;
+            endOffset = -1;  // end of the file
+        }
+
+        if (task.getMmap()) {
+            return new MappedFileInput(task.getBufferAllocator(), file.toPath(), startOffset, endOffset);
+        }
 
         return new InputStreamTransactionalFileInput(
                 task.getBufferAllocator(),
                 new InputStreamTransactionalFileInput.Opener() {
                     public InputStream open() throws IOException
                     {
-                        return new FileInputStream(file);
+                        FileInputStream in = new FileInputStream(file);
+                        if (endOffset < 0) {
+                            return in;
+                        }
+                        try {
+                            in.getChannel().position(startOffset);
+                        } catch (IOException ex) {
+                            in.close();
+                            throw ex;
+                        }
+                        return ByteStreams.limit(in, endOffset - startOffset);
                     }
                 })
         {
@@ -229,4 +610,122 @@ public class LocalFileInputPlugin
             }
         };
     }
+
+    /**
+     * Reads a file by copying regions of MappedByteBuffer into buffers.
+     *
+     * Bytes are copied from the page cache to the buffers once without read(2) system calls.
+     * FileInputStream copies them twice, to a native buffer and then to the buffer. Buffers are
+     * still backed by arrays because decoders and parsers access Buffer.array() directly.
+     */
+    private static class MappedFileInput
+            implements TransactionalFileInput
+    {
+        // maps a large file in windows to limit the address space held until mappings are
+        // garbage-collected
+        private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+        private final BufferAllocator allocator;
+        private final Path path;
+        private final long startOffset;
+        private final long endOffset;
+        private FileChannel channel = null;
+        private long fileSize;
+        private long windowPosition;
+        private MappedByteBuffer window = null;
+        private boolean opened = false;
+
+        MappedFileInput(BufferAllocator allocator, Path path, long startOffset, long endOffset)
+        {
+            this.allocator = allocator;
+            this.path = path;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        @Override
+        public boolean nextFile()
+        {
+            if (opened) {
+                closeChannel();
+                return false;
+            }
+            opened = true;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                fileSize = channel.size();
+                if (endOffset >= 0) {
+                    fileSize = Math.min(fileSize, endOffset);
+                }
+                windowPosition = startOffset;
+            }
+            catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            return true;
+        }
+
+        @Override
+        public Buffer poll()
+        {
+            if (channel == null) {
+                if (!opened) {
+                    throw new IllegalStateException("nextFile() must be called before poll()");
+                }
+                return null;
+            }
+            try {
+                if (window == null || !window.hasRemaining()) {
+                    long size = Math.min(MAP_WINDOW_SIZE, fileSize - windowPosition);
+                    if (size <= 0) {
+                        window = null;
+                        return null;
+                    }
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowPosition, size);
+                    windowPosition += size;
+                }
+            }
+            catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            Buffer buffer = allocator.allocate();
+            int n = Math.min(buffer.capacity(), window.remaining());
+            window.get(buffer.array(), buffer.offset(), n);
+            buffer.limit(n);
+            return buffer;
+        }
+
+        private void closeChannel()
+        {
+            window = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+                finally {
+                    channel = null;
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            closeChannel();
+        }
+
+        @Override
+        public void abort()
+        { }
+
+        @Override
+        public TaskReport commit()
+        {
+            return Exec.newTaskReport();
+        }
+    }
 }
@@ -1,13 +1,24 @@
 package org.embulk.standards;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.IllegalFormatException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigDefault;
@@ -37,6 +48,34 @@ public class LocalFileOutputPlugin
         @Config("sequence_format")
         @ConfigDefault("\"%03d.%02d.\"")
         String getSequenceFormat();
+
+        // writes buffers on another thread so that formatting overlaps with disk I/O
+        @Config("write_behind")
+        @ConfigDefault("false")
+        boolean getWriteBehind();
+
+        @Config("fsync")
+        @ConfigDefault("\"NONE\"")
+        FsyncPolicy getFsyncPolicy();
+    }
+
+    public enum FsyncPolicy
+    {
+        NONE("NONE"),
+        ON_COMMIT("ON_COMMIT"),
+        PER_FILE("PER_FILE");
+
+        private final String string;
+
+        private FsyncPolicy(String string)
+        {
+            this.string = string;
+        }
+
+        public String getString()
+        {
+            return string;
+        }
     }
 
     private final Logger log = Exec.getLogger(getClass());
@@ -76,73 +115,328 @@ public class LocalFileOutputPlugin
     public TransactionalFileOutput open(TaskSource taskSource, final int taskIndex)
     {
         PluginTask task = taskSource.loadTask(PluginTask.class);
+        return new LocalFileOutput(task, taskIndex, log);
+    }
+
+    private static class LocalFileOutput
+            implements TransactionalFileOutput
+    {
+        private static final int MAX_PENDING_BUFFERS = 8;
+        private static final long WRITER_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+        private final String pathPrefix;
+        private final String pathSuffix;
+        private final String sequenceFormat;
+        private final int taskIndex;
+        private final FsyncPolicy fsyncPolicy;
+        private final Logger log;
+        private final List<Path> paths = new ArrayList<>();
+        private int fileIndex = 0;
+
+        // write-behind: buffers are written by a single thread in the order of add() calls
+        private final ExecutorService writer;
+        private final Semaphore pendingBuffers = new Semaphore(MAX_PENDING_BUFFERS);
+        private volatile Throwable writeError;
+        private boolean finished = false;
+        private volatile boolean discardPending = false;  // set when the task is closed without finish()
+
+        private volatile FileChannel channel = null;  // used only by the writer thread if write-behind is enabled
+
+        LocalFileOutput(PluginTask task, int taskIndex, Logger log)
+        {
+            this.pathPrefix = task.getPathPrefix();
+            this.pathSuffix = task.getFileNameExtension();
+            this.sequenceFormat = task.getSequenceFormat();
+            this.taskIndex = taskIndex;
+            this.fsyncPolicy = task.getFsyncPolicy();
+            this.log = log;
+            if (task.getWriteBehind()) {
+                this.writer = Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("embulk-local-file-writer-" + taskIndex)
+                                .setDaemon(true)
+                                .build());
+            }
+            else {
+                this.writer = null;
+            }
+        }
+
+        public void nextFile()
+        {
+            checkWriteError();
+            String path = pathPrefix + String.format(sequenceFormat, taskIndex, fileIndex) + pathSuffix;
+            log.info("Writing local file '{}'", path);
+            paths.add(Paths.get(path));
+
+            // opens the file here so that errors are reported by this call even with write-behind
+            final FileChannel next;
+            try {
+                next = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);  // TODO exception class
+            }
+            fileIndex++;
+
+            try {
+                runOnWriter(new IOAction() {
+                    public void run() throws IOException
+                    {
+                        try {
+                            closeChannel();
+                        }
+                        finally {
+                            channel = next;
+                        }
+                    }
+                }, next, false);
+            }
+            catch (RuntimeException ex) {
+                // the action is not queued if the writer failed or stopped before
+                try {
+                    next.close();
+                }
+                catch (IOException closeError) {
+                    ex.addSuppressed(closeError);
+                }
+                throw ex;
+            }
+        }
 
-        final String pathPrefix = task.getPathPrefix();
-        final String pathSuffix = task.getFileNameExtension();
-        final String sequenceFormat = task.getSequenceFormat();
-
-        return new TransactionalFileOutput() {
-            private final List<String> fileNames = new ArrayList<>();
-            private int fileIndex = 0;
-            private FileOutputStream output = null;
-
-            public void nextFile()
-            {
-                closeFile();
-                String path = pathPrefix + String.format(sequenceFormat, taskIndex, fileIndex) + pathSuffix;
-                log.info("Writing local file '{}'", path);
-                fileNames.add(path);
+        public void add(final Buffer buffer)
+        {
+            if (writer == null) {
                 try {
-                    output = new FileOutputStream(new File(path));
-                } catch (FileNotFoundException ex) {
-                    throw new RuntimeException(ex);  // TODO exception class
+                    write(buffer);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                } finally {
+                    buffer.release();
                 }
-                fileIndex++;
+                return;
             }
 
-            private void closeFile()
-            {
-                if (output != null) {
+            try {
+                checkWriteError();
+                pendingBuffers.acquire();
+            }
+            catch (InterruptedException ex) {
+                buffer.release();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+            catch (RuntimeException ex) {
+                buffer.release();
+                throw ex;
+            }
+
+            writer.execute(new WriterTask() {
+                public void run()
+                {
                     try {
-                        output.close();
+                        if (writeError == null && !discardPending) {
+                            write(buffer);
+                        }
+                    }
+                    catch (Throwable ex) {
+                        writeError = ex;
+                    }
+                    finally {
+                        discard();
+                    }
+                }
+
+                void discard()
+                {
+                    buffer.release();
+                    pendingBuffers.release();
+                }
+            });
+        }
+
+        private void write(Buffer buffer) throws IOException
+        {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.array(), buffer.offset(), buffer.limit());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        private void closeChannel() throws IOException
+        {
+            if (channel != null) {
+                try {
+                    if (fsyncPolicy == FsyncPolicy.PER_FILE && !discardPending) {
+                        channel.force(true);
+                    }
+                }
+                finally {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+
+        public void finish()
+        {
+            runOnWriter(new IOAction() {
+                public void run() throws IOException
+                {
+                    closeChannel();
+                }
+            }, null, true);
+            finished = true;
+        }
+
+        public void close()
+        {
+            if (writer != null) {
+                if (!finished) {
+                    // the task failed. pending buffers are released without being written
+                    discardPending = true;
+                }
+                writer.shutdown();
+                try {
+                    if (!writer.awaitTermination(WRITER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        log.warn("Writing local file didn't complete in {} seconds. Interrupting the writer thread", WRITER_SHUTDOWN_TIMEOUT_SECONDS);
+                        discardPending = true;
+                        stopWriter();
+                    }
+                }
+                catch (InterruptedException ex) {
+                    discardPending = true;
+                    stopWriter();
+                    Thread.currentThread().interrupt();
+                }
+                if (!writer.isTerminated()) {
+                    // the writer thread still owns the channel
+                    log.warn("Writer thread of local file didn't stop. The file is left open");
+                    return;
+                }
+            }
+            try {
+                closeChannel();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        public void abort()
+        { }
+
+        public TaskReport commit()
+        {
+            if (fsyncPolicy == FsyncPolicy.ON_COMMIT) {
+                for (Path path : paths) {
+                    try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                        file.force(true);
                     } catch (IOException ex) {
                         throw new RuntimeException(ex);
                     }
                 }
             }
+            TaskReport report = Exec.newTaskReport();
+            // TODO better setting for Report
+            // report.set("file_names", fileNames);
+            // report.set("file_sizes", fileSizes);
+            return report;
+        }
 
-            public void add(Buffer buffer)
-            {
+        // resourceOnDiscard is closed if the action is discarded without being run
+        private void runOnWriter(final IOAction action, final Closeable resourceOnDiscard, boolean wait)
+        {
+            if (writer == null) {
                 try {
-                    output.write(buffer.array(), buffer.offset(), buffer.limit());
+                    action.run();
                 } catch (IOException ex) {
                     throw new RuntimeException(ex);
-                } finally {
-                    buffer.release();
                 }
+                return;
             }
 
-            public void finish()
-            {
-                closeFile();
-            }
+            checkWriteError();
+            final FutureTask<Void> future = new FutureTask<>(new Runnable() {
+                public void run()
+                {
+                    try {
+                        action.run();
+                    }
+                    catch (Throwable ex) {
+                        if (writeError == null) {
+                            writeError = ex;
+                        }
+                    }
+                }
+            }, null);
+            writer.execute(new WriterTask() {
+                public void run()
+                {
+                    future.run();
+                }
 
-            public void close()
-            {
-                closeFile();
+                void discard()
+                {
+                    future.cancel(false);
+                    if (resourceOnDiscard != null) {
+                        try {
+                            resourceOnDiscard.close();
+                        }
+                        catch (IOException ex) {
+                            log.warn("Failed to close a discarded local file", ex);
+                        }
+                    }
+                }
+            });
+            if (wait) {
+                try {
+                    future.get();
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ex);
+                }
+                catch (ExecutionException ex) {
+                    throw new RuntimeException(ex.getCause());
+                }
+                checkWriteError();
             }
+        }
 
-            public void abort()
-            { }
+        private void stopWriter()
+        {
+            // interrupting a write closes the channel. queued tasks are discarded without being
+            // run because only the writer thread touches the channel
+            List<Runnable> queued = writer.shutdownNow();
+            try {
+                writer.awaitTermination(WRITER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            for (Runnable task : queued) {
+                ((WriterTask) task).discard();
+            }
+        }
 
-            public TaskReport commit()
-            {
-                TaskReport report = Exec.newTaskReport();
-                // TODO better setting for Report
-                // report.set("file_names", fileNames);
-                // report.set("file_sizes", fileSizes);
-                return report;
+        private void checkWriteError()
+        {
+            Throwable error = writeError;
+            if (error != null) {
+                Throwables.propagateIfPossible(error);
+                throw new RuntimeException(error);
             }
-        };
+        }
+    }
+
+    private interface IOAction
+    {
+        void run() throws IOException;
+    }
+
+    // a task queued to the writer thread. discard() releases its resources if it is not run
+    private static abstract class WriterTask
+            implements Runnable
+    {
+        abstract void discard();
     }
 }
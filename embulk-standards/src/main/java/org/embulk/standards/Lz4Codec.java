@@ -0,0 +1,336 @@
+package org.embulk.standards;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 block compression and xxHash32 used by the LZ4 frame format.
+ *
+ * See https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md and lz4_Frame_format.md.
+ */
+final class Lz4Codec
+{
+    static final int MAGIC = 0x184D2204;
+    static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+    static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    static final int UNCOMPRESSED_FLAG = 0x80000000;
+    static final int MAX_OFFSET = 65535;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;  // the last 5 bytes are always literals
+    private static final int MF_LIMIT = 12;  // the last match starts at least 12 bytes before the end
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    static int maxCompressedLength(int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses src[srcOff, srcOff + srcLen) into dst at dstOff and returns the compressed length.
+     * dst must have maxCompressedLength(srcLen) bytes.
+     */
+    int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff)
+    {
+        final int srcEnd = srcOff + srcLen;
+        final int mfLimit = srcEnd - MF_LIMIT;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+        int sp = srcOff;
+        int dp = dstOff;
+        int anchor = sp;
+
+        if (srcLen >= MF_LIMIT + 1) {
+            Arrays.fill(hashTable, -1);
+            sp++;
+            int searchCount = 1 << SKIP_TRIGGER;
+            while (sp < mfLimit) {
+                final int sequence = readIntLE(src, sp);
+                final int h = hash(sequence);
+                final int ref = hashTable[h];
+                hashTable[h] = sp;
+                if (ref < srcOff || sp - ref > MAX_OFFSET || readIntLE(src, ref) != sequence) {
+                    // accelerates skipping of incompressible data
+                    sp += searchCount++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchCount = 1 << SKIP_TRIGGER;
+
+                int matchStart = sp;
+                int refStart = ref;
+                while (matchStart > anchor && refStart > srcOff && src[matchStart - 1] == src[refStart - 1]) {
+                    matchStart--;
+                    refStart--;
+                }
+                int matchEnd = sp + MIN_MATCH;
+                int refEnd = ref + MIN_MATCH;
+                while (matchEnd < matchLimit && src[matchEnd] == src[refEnd]) {
+                    matchEnd++;
+                    refEnd++;
+                }
+
+                dp = writeSequence(src, anchor, matchStart - anchor, matchStart - refStart, matchEnd - matchStart, dst, dp);
+                sp = matchEnd;
+                anchor = sp;
+                if (sp < mfLimit) {
+                    hashTable[hash(readIntLE(src, sp - 2))] = sp - 2;
+                }
+            }
+        }
+
+        // last literals
+        final int literals = srcEnd - anchor;
+        dp = writeLength(literals, dst, dp);
+        System.arraycopy(src, anchor, dst, dp, literals);
+        dp += literals;
+        return dp - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+            byte[] dst, int dp)
+    {
+        final int tokenPos = dp;
+        dp = writeLength(literals, dst, dp);
+        System.arraycopy(src, literalStart, dst, dp, literals);
+        dp += literals;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+
+        final int length = matchLength - MIN_MATCH;
+        if (length >= 15) {
+            dst[tokenPos] |= 15;
+            int remaining = length - 15;
+            while (remaining >= 255) {
+                dst[dp++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[dp++] = (byte) remaining;
+        }
+        else {
+            dst[tokenPos] |= length;
+        }
+        return dp;
+    }
+
+    // writes the token with the literal length and its extension bytes
+    private static int writeLength(int literals, byte[] dst, int dp)
+    {
+        if (literals >= 15) {
+            dst[dp++] = (byte) (15 << 4);
+            int remaining = literals - 15;
+            while (remaining >= 255) {
+                dst[dp++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[dp++] = (byte) remaining;
+        }
+        else {
+            dst[dp++] = (byte) (literals << 4);
+        }
+        return dp;
+    }
+
+    /**
+     * Decompresses src[srcOff, srcOff + srcLen) into dst at dstOff and returns the decompressed
+     * length. Matches can refer bytes from dst[historyStart]. Returns -1 if the data is malformed
+     * or larger than dstMax bytes.
+     */
+    static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstMax, int historyStart)
+    {
+        final int srcEnd = srcOff + srcLen;
+        final int dstEnd = dstOff + dstMax;
+        int sp = srcOff;
+        int dp = dstOff;
+
+        while (true) {
+            if (sp >= srcEnd) {
+                return -1;
+            }
+            final int token = src[sp++] & 0xff;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (sp >= srcEnd) {
+                        return -1;
+                    }
+                    b = src[sp++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > srcEnd - sp || literals > dstEnd - dp) {
+                return -1;
+            }
+            System.arraycopy(src, sp, dst, dp, literals);
+            sp += literals;
+            dp += literals;
+
+            if (sp == srcEnd) {
+                return dp - dstOff;  // the last sequence has only literals
+            }
+
+            if (srcEnd - sp < 2) {
+                return -1;
+            }
+            final int offset = (src[sp] & 0xff) | ((src[sp + 1] & 0xff) << 8);
+            sp += 2;
+            if (offset == 0 || offset > dp - historyStart) {
+                return -1;
+            }
+
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (sp >= srcEnd) {
+                        return -1;
+                    }
+                    b = src[sp++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstEnd - dp) {
+                return -1;
+            }
+
+            int ref = dp - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, dp, matchLength);
+                dp += matchLength;
+            }
+            else {
+                // overlapping copy repeats the last offset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[dp++] = dst[ref++];
+                }
+            }
+        }
+    }
+
+    private static int hash(int sequence)
+    {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    static int readIntLE(byte[] b, int pos)
+    {
+        return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8) | ((b[pos + 2] & 0xff) << 16) | ((b[pos + 3] & 0xff) << 24);
+    }
+
+    static void writeIntLE(byte[] b, int pos, int v)
+    {
+        b[pos] = (byte) v;
+        b[pos + 1] = (byte) (v >>> 8);
+        b[pos + 2] = (byte) (v >>> 16);
+        b[pos + 3] = (byte) (v >>> 24);
+    }
+
+    /**
+     * Streaming xxHash32 with seed 0.
+     */
+    static final class XxHash32
+    {
+        private static final int PRIME1 = 0x9E3779B1;
+        private static final int PRIME2 = 0x85EBCA77;
+        private static final int PRIME3 = 0xC2B2AE3D;
+        private static final int PRIME4 = 0x27D4EB2F;
+        private static final int PRIME5 = 0x165667B1;
+
+        private int v1;
+        private int v2;
+        private int v3;
+        private int v4;
+        private long totalLength;
+        private final byte[] memory = new byte[16];
+        private int memorySize;
+
+        XxHash32()
+        {
+            reset();
+        }
+
+        void reset()
+        {
+            v1 = PRIME1 + PRIME2;
+            v2 = PRIME2;
+            v3 = 0;
+            v4 = -PRIME1;
+            totalLength = 0;
+            memorySize = 0;
+        }
+
+        static int hash(byte[] b, int off, int len)
+        {
+            XxHash32 h = new XxHash32();
+            h.update(b, off, len);
+            return h.getValue();
+        }
+
+        void update(byte[] b, int off, int len)
+        {
+            totalLength += len;
+            if (memorySize + len < 16) {
+                System.arraycopy(b, off, memory, memorySize, len);
+                memorySize += len;
+                return;
+            }
+
+            final int end = off + len;
+            if (memorySize > 0) {
+                int fill = 16 - memorySize;
+                System.arraycopy(b, off, memory, memorySize, fill);
+                round(memory, 0);
+                off += fill;
+                memorySize = 0;
+            }
+            while (off <= end - 16) {
+                round(b, off);
+                off += 16;
+            }
+            if (off < end) {
+                System.arraycopy(b, off, memory, 0, end - off);
+                memorySize = end - off;
+            }
+        }
+
+        private void round(byte[] b, int off)
+        {
+            v1 = Integer.rotateLeft(v1 + readIntLE(b, off) * PRIME2, 13) * PRIME1;
+            v2 = Integer.rotateLeft(v2 + readIntLE(b, off + 4) * PRIME2, 13) * PRIME1;
+            v3 = Integer.rotateLeft(v3 + readIntLE(b, off + 8) * PRIME2, 13) * PRIME1;
+            v4 = Integer.rotateLeft(v4 + readIntLE(b, off + 12) * PRIME2, 13) * PRIME1;
+        }
+
+        int getValue()
+        {
+            int h;
+            if (totalLength >= 16) {
+                h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+            }
+            else {
+                h = v3 + PRIME5;  // v3 is the seed
+            }
+            h += (int) totalLength;
+
+            int p = 0;
+            while (p <= memorySize - 4) {
+                h = Integer.rotateLeft(h + readIntLE(memory, p) * PRIME3, 17) * PRIME4;
+                p += 4;
+            }
+            while (p < memorySize) {
+                h = Integer.rotateLeft(h + (memory[p] & 0xff) * PRIME5, 11) * PRIME1;
+                p++;
+            }
+
+            h ^= h >>> 15;
+            h *= PRIME2;
+            h ^= h >>> 13;
+            h *= PRIME3;
+            h ^= h >>> 16;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.embulk.standards;
+
+import org.embulk.config.ConfigInject;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.Task;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.DataException;
+import org.embulk.spi.DecoderPlugin;
+import org.embulk.spi.FileInput;
+
+/**
+ * Decoder plugin which decompresses files in the LZ4 frame format.
+ *
+ * Blocks are decompressed from the buffers of the input into buffers returned by poll(). A
+ * block is copied only if it spans input buffers. A file can have multiple frames and
+ * skippable frames.
+ */
+public class Lz4FileDecoderPlugin
+        implements DecoderPlugin
+{
+    public interface PluginTask
+            extends Task
+    {
+        @ConfigInject
+        BufferAllocator getBufferAllocator();
+    }
+
+    @Override
+    public void transaction(ConfigSource config, DecoderPlugin.Control control)
+    {
+        PluginTask task = config.loadConfig(PluginTask.class);
+        control.run(task.dump());
+    }
+
+    @Override
+    public FileInput open(TaskSource taskSource, FileInput fileInput)
+    {
+        PluginTask task = taskSource.loadTask(PluginTask.class);
+        return new Lz4FileInput(fileInput, task.getBufferAllocator());
+    }
+
+    private static class Lz4FileInput
+            implements FileInput
+    {
+        private static final int FLG_VERSION_MASK = 0xc0;
+        private static final int FLG_VERSION = 0x40;
+        private static final int FLG_BLOCK_INDEPENDENCE = 0x20;
+        private static final int FLG_BLOCK_CHECKSUM = 0x10;
+        private static final int FLG_CONTENT_SIZE = 0x08;
+        private static final int FLG_CONTENT_CHECKSUM = 0x04;
+        private static final int FLG_DICT_ID = 0x01;
+
+        private final FileInput in;
+        private final BufferAllocator allocator;
+
+        private Buffer current = null;
+        private int position = 0;
+
+        private boolean inFrame = false;
+        private boolean blockIndependence;
+        private boolean blockChecksum;
+        private boolean contentChecksum;
+        private int maxBlockSize;
+        private final Lz4Codec.XxHash32 contentHash = new Lz4Codec.XxHash32();
+        private byte[] staging = new byte[0];
+
+        // the last 64KB of decompressed data and the block being decompressed for dependent blocks
+        private byte[] window = null;
+        private int windowLength = 0;
+
+        Lz4FileInput(FileInput in, BufferAllocator allocator)
+        {
+            this.in = in;
+            this.allocator = allocator;
+        }
+
+        @Override
+        public boolean nextFile()
+        {
+            releaseCurrent();
+            inFrame = false;
+            return in.nextFile();
+        }
+
+        @Override
+        public Buffer poll()
+        {
+            while (true) {
+                if (!inFrame) {
+                    if (!readFrameHeader()) {
+                        return null;
+                    }
+                    continue;
+                }
+
+                int size = readIntLE();
+                if (size == 0) {
+                    // end mark
+                    if (contentChecksum && readIntLE() != contentHash.getValue()) {
+                        throw new DataException("LZ4 content checksum mismatch");
+                    }
+                    inFrame = false;
+                    continue;
+                }
+
+                Buffer buffer = readBlock(size);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+
+        // returns false at the end of the file
+        private boolean readFrameHeader()
+        {
+            int first = readByte();
+            if (first < 0) {
+                return false;
+            }
+            int magic = first | (readRequiredByte() << 8) | (readRequiredByte() << 16) | (readRequiredByte() << 24);
+            if ((magic & Lz4Codec.SKIPPABLE_MAGIC_MASK) == Lz4Codec.SKIPPABLE_MAGIC) {
+                skip(readIntLE() & 0xffffffffL);
+                return true;
+            }
+            if (magic != Lz4Codec.MAGIC) {
+                throw new DataException("Not in LZ4 frame format");
+            }
+
+            byte[] descriptor = new byte[14];
+            int length = 0;
+            int flg = readRequiredByte();
+            descriptor[length++] = (byte) flg;
+            descriptor[length++] = (byte) readRequiredByte();  // BD
+            if ((flg & FLG_VERSION_MASK) != FLG_VERSION) {
+                throw new DataException("Unsupported LZ4 frame version");
+            }
+            if ((flg & FLG_DICT_ID) != 0) {
+                throw new DataException("LZ4 frames with a dictionary are not supported");
+            }
+            if ((flg & FLG_CONTENT_SIZE) != 0) {
+                for (int i = 0; i < 8; i++) {
+                    descriptor[length++] = (byte) readRequiredByte();
+                }
+            }
+            int headerChecksum = readRequiredByte();
+            if (headerChecksum != ((Lz4Codec.XxHash32.hash(descriptor, 0, length) >>> 8) & 0xff)) {
+                throw new DataException("LZ4 frame header checksum mismatch");
+            }
+
+            int blockSizeId = (descriptor[1] >>> 4) & 0x07;
+            if (blockSizeId < 4) {
+                throw new DataException("Invalid LZ4 block size");
+            }
+            maxBlockSize = 1 << (8 + 2 * blockSizeId);  // 64KB, 256KB, 1MB or 4MB
+            blockIndependence = (flg & FLG_BLOCK_INDEPENDENCE) != 0;
+            blockChecksum = (flg & FLG_BLOCK_CHECKSUM) != 0;
+            contentChecksum = (flg & FLG_CONTENT_CHECKSUM) != 0;
+            contentHash.reset();
+            windowLength = 0;
+            if (!blockIndependence && (window == null || window.length < Lz4Codec.MAX_OFFSET + 1 + maxBlockSize)) {
+                window = new byte[Lz4Codec.MAX_OFFSET + 1 + maxBlockSize];
+            }
+            inFrame = true;
+            return true;
+        }
+
+        // returns null if the block is empty
+        private Buffer readBlock(int size)
+        {
+            boolean uncompressed = (size & Lz4Codec.UNCOMPRESSED_FLAG) != 0;
+            int length = size & ~Lz4Codec.UNCOMPRESSED_FLAG;
+            if (length > maxBlockSize) {
+                throw new DataException("LZ4 block is larger than the maximum block size");
+            }
+
+            // uses the input buffer directly if it has the whole block
+            byte[] src;
+            int srcOffset;
+            if (current != null && current.limit() - position >= length) {
+                src = current.array();
+                srcOffset = current.offset() + position;
+                position += length;
+            }
+            else {
+                if (staging.length < length) {
+                    staging = new byte[Math.max(length, maxBlockSize)];
+                }
+                readFully(staging, 0, length);
+                src = staging;
+                srcOffset = 0;
+            }
+            // src may be a part of the current input buffer which is released when the next bytes are read
+            int blockHash = blockChecksum ? Lz4Codec.XxHash32.hash(src, srcOffset, length) : 0;
+
+            Buffer buffer = allocator.allocate(maxBlockSize);
+            try {
+                byte[] dst = buffer.array();
+                int dstOffset = buffer.offset();
+                int decompressed;
+                if (blockIndependence) {
+                    if (uncompressed) {
+                        System.arraycopy(src, srcOffset, dst, dstOffset, length);
+                        decompressed = length;
+                    }
+                    else {
+                        decompressed = Lz4Codec.decompress(src, srcOffset, length, dst, dstOffset, maxBlockSize, dstOffset);
+                    }
+                }
+                else {
+                    // matches can refer the previous blocks
+                    if (uncompressed) {
+                        System.arraycopy(src, srcOffset, window, windowLength, length);
+                        decompressed = length;
+                    }
+                    else {
+                        decompressed = Lz4Codec.decompress(src, srcOffset, length, window, windowLength, maxBlockSize, 0);
+                    }
+                    if (decompressed > 0) {
+                        System.arraycopy(window, windowLength, dst, dstOffset, decompressed);
+                        slideWindow(decompressed);
+                    }
+                }
+                if (decompressed < 0) {
+                    throw new DataException("Malformed LZ4 block");
+                }
+                if (blockChecksum && readIntLE() != blockHash) {
+                    throw new DataException("LZ4 block checksum mismatch");
+                }
+                if (contentChecksum) {
+                    contentHash.update(dst, dstOffset, decompressed);
+                }
+
+                if (decompressed == 0) {
+                    return null;
+                }
+                buffer.limit(decompressed);
+                Buffer b = buffer;
+                buffer = null;
+                return b;
+            }
+            finally {
+                if (buffer != null) {
+                    buffer.release();
+                }
+            }
+        }
+
+        private void slideWindow(int appended)
+        {
+            windowLength += appended;
+            int keep = Math.min(windowLength, Lz4Codec.MAX_OFFSET);
+            System.arraycopy(window, windowLength - keep, window, 0, keep);
+            windowLength = keep;
+        }
+
+        private int readIntLE()
+        {
+            return readRequiredByte() | (readRequiredByte() << 8) | (readRequiredByte() << 16) | (readRequiredByte() << 24);
+        }
+
+        private int readRequiredByte()
+        {
+            int b = readByte();
+            if (b < 0) {
+                throw new DataException("Unexpected end of LZ4 frame");
+            }
+            return b;
+        }
+
+        private int readByte()
+        {
+            if (!ensureCurrent()) {
+                return -1;
+            }
+            return current.array()[current.offset() + position++] & 0xff;
+        }
+
+        private void readFully(byte[] b, int off, int len)
+        {
+            while (len > 0) {
+                if (!ensureCurrent()) {
+                    throw new DataException("Unexpected end of LZ4 frame");
+                }
+                int n = Math.min(len, current.limit() - position);
+                System.arraycopy(current.array(), current.offset() + position, b, off, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void skip(long len)
+        {
+            while (len > 0) {
+                if (!ensureCurrent()) {
+                    throw new DataException("Unexpected end of LZ4 frame");
+                }
+                int n = (int) Math.min(len, current.limit() - position);
+                position += n;
+                len -= n;
+            }
+        }
+
+        // returns false at the end of the file
+        private boolean ensureCurrent()
+        {
+            while (current == null || position >= current.limit()) {
+                releaseCurrent();
+                current = in.poll();
+                if (current == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void releaseCurrent()
+        {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+            position = 0;
+        }
+
+        @Override
+        public void close()
+        {
+            releaseCurrent();
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.embulk.standards;
+
+import org.embulk.config.ConfigInject;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.Task;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.EncoderPlugin;
+import org.embulk.spi.FileOutput;
+
+/**
+ * Encoder plugin which compresses files in the LZ4 frame format.
+ *
+ * Buffers are copied into 64KB blocks which are compressed directly into buffers passed to the
+ * next output. Blocks are independent and the frame has the content checksum.
+ */
+public class Lz4FileEncoderPlugin
+        implements EncoderPlugin
+{
+    public interface PluginTask
+            extends Task
+    {
+        @ConfigInject
+        BufferAllocator getBufferAllocator();
+    }
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCK_SIZE_ID = 4;  // 64KB
+    private static final int FLG = 0x40 | 0x20 | 0x04;  // version 01, independent blocks, content checksum
+
+    @Override
+    public void transaction(ConfigSource config, EncoderPlugin.Control control)
+    {
+        PluginTask task = config.loadConfig(PluginTask.class);
+        control.run(task.dump());
+    }
+
+    @Override
+    public FileOutput open(TaskSource taskSource, FileOutput fileOutput)
+    {
+        PluginTask task = taskSource.loadTask(PluginTask.class);
+        return new Lz4FileOutput(fileOutput, task.getBufferAllocator());
+    }
+
+    private static class Lz4FileOutput
+            implements FileOutput
+    {
+        private final FileOutput next;
+        private final BufferAllocator allocator;
+        private final Lz4Codec codec = new Lz4Codec();
+        private final Lz4Codec.XxHash32 contentHash = new Lz4Codec.XxHash32();
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private int blockLength = 0;
+        private boolean inFrame = false;
+
+        // compressed bytes are written to out.array() at out.offset() + outPosition
+        private Buffer out = null;
+        private int outPosition = 0;
+
+        Lz4FileOutput(FileOutput next, BufferAllocator allocator)
+        {
+            this.next = next;
+            this.allocator = allocator;
+        }
+
+        @Override
+        public void nextFile()
+        {
+            finishFrame();
+            next.nextFile();
+
+            contentHash.reset();
+            blockLength = 0;
+            reserve(7);
+            byte[] array = out.array();
+            int p = out.offset() + outPosition;
+            Lz4Codec.writeIntLE(array, p, Lz4Codec.MAGIC);
+            array[p + 4] = (byte) FLG;
+            array[p + 5] = (byte) (BLOCK_SIZE_ID << 4);
+            array[p + 6] = (byte) (Lz4Codec.XxHash32.hash(array, p + 4, 2) >>> 8);
+            outPosition += 7;
+            inFrame = true;
+        }
+
+        @Override
+        public void add(Buffer buffer)
+        {
+            try {
+                byte[] array = buffer.array();
+                int off = buffer.offset();
+                int len = buffer.limit();
+                contentHash.update(array, off, len);
+                while (len > 0) {
+                    int n = Math.min(len, BLOCK_SIZE - blockLength);
+                    System.arraycopy(array, off, block, blockLength, n);
+                    blockLength += n;
+                    off += n;
+                    len -= n;
+                    if (blockLength == BLOCK_SIZE) {
+                        writeBlock();
+                    }
+                }
+            }
+            finally {
+                buffer.release();
+            }
+        }
+
+        private void writeBlock()
+        {
+            reserve(4 + Lz4Codec.maxCompressedLength(blockLength));
+            byte[] array = out.array();
+            int p = out.offset() + outPosition;
+            int compressed = codec.compress(block, 0, blockLength, array, p + 4);
+            if (compressed < blockLength) {
+                Lz4Codec.writeIntLE(array, p, compressed);
+                outPosition += 4 + compressed;
+            }
+            else {
+                Lz4Codec.writeIntLE(array, p, blockLength | Lz4Codec.UNCOMPRESSED_FLAG);
+                System.arraycopy(block, 0, array, p + 4, blockLength);
+                outPosition += 4 + blockLength;
+            }
+            blockLength = 0;
+            flushOut();
+        }
+
+        private void finishFrame()
+        {
+            if (!inFrame) {
+                return;
+            }
+            if (blockLength > 0) {
+                writeBlock();
+            }
+            reserve(8);
+            byte[] array = out.array();
+            int p = out.offset() + outPosition;
+            Lz4Codec.writeIntLE(array, p, 0);  // end mark
+            Lz4Codec.writeIntLE(array, p + 4, contentHash.getValue());
+            outPosition += 8;
+            flushOut();
+            inFrame = false;
+        }
+
+        // makes sure that out has the space
+        private void reserve(int length)
+        {
+            if (out != null && out.capacity() - outPosition >= length) {
+                return;
+            }
+            flushOut();
+            out = allocator.allocate(length);
+            outPosition = 0;
+        }
+
+        private void flushOut()
+        {
+            if (out != null) {
+                Buffer buffer = out;
+                out = null;
+                if (outPosition > 0) {
+                    buffer.limit(outPosition);
+                    next.add(buffer);
+                }
+                else {
+                    buffer.release();
+                }
+                outPosition = 0;
+            }
+        }
+
+        @Override
+        public void finish()
+        {
+            finishFrame();
+            next.finish();
+        }
+
+        @Override
+        public void close()
+        {
+            if (out != null) {
+                out.release();
+                out = null;
+            }
+            next.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.embulk.standards;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary file format written by {@link PageDumpFormatterPlugin} and read by {@link PageDumpParserPlugin}.
+ *
+ * <pre>
+ * file:   magic "EPD\1" | int column count | (string name | string type) * columns | sync marker (16 bytes) | block *
+ * block:  sync marker | int record count | int body length | record *
+ * record: null bit set ((columns + 7) / 8 bytes) | value of each non-null column
+ * value:  boolean: 1 byte, long: 8 bytes, double: 8 bytes, timestamp: long epoch second and int nano,
+ *         string: int length and UTF-8 bytes, json: int length and MessagePack bytes
+ * </pre>
+ *
+ * Integers are big-endian. The sync marker is random for each file so that a reader starting at
+ * an arbitrary position can find the next block.
+ */
+final class PageDumpFormat
+{
+    static final byte[] MAGIC = new byte[] { 'E', 'P', 'D', 1 };
+    static final int SYNC_MARKER_SIZE = 16;
+
+    static final int BOOLEAN = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int STRING = 3;
+    static final int TIMESTAMP = 4;
+    static final int JSON = 5;
+
+    private PageDumpFormat() { }
+
+    static int nullBitSetSize(int columnCount)
+    {
+        return (columnCount + 7) / 8;
+    }
+
+    static int[] typeCodes(Schema schema)
+    {
+        int[] codes = new int[schema.getColumnCount()];
+        for (Column column : schema.getColumns()) {
+            codes[column.getIndex()] = typeCode(column.getType());
+        }
+        return codes;
+    }
+
+    private static int typeCode(Type type)
+    {
+        if (type.equals(Types.BOOLEAN)) {
+            return BOOLEAN;
+        }
+        else if (type.equals(Types.LONG)) {
+            return LONG;
+        }
+        else if (type.equals(Types.DOUBLE)) {
+            return DOUBLE;
+        }
+        else if (type.equals(Types.STRING)) {
+            return STRING;
+        }
+        else if (type.equals(Types.TIMESTAMP)) {
+            return TIMESTAMP;
+        }
+        else if (type.equals(Types.JSON)) {
+            return JSON;
+        }
+        throw new IllegalArgumentException("Unsupported column type: " + type);
+    }
+
+    static void writeHeader(DataOutput out, Schema schema, byte[] syncMarker)
+            throws IOException
+    {
+        out.write(MAGIC);
+        out.writeInt(schema.getColumnCount());
+        for (Column column : schema.getColumns()) {
+            writeString(out, column.getName());
+            writeString(out, column.getType().getName());
+        }
+        out.write(syncMarker);
+    }
+
+    /**
+     * Reads the file header and returns the sync marker. Throws DataException if the file is not
+     * in this format or its columns don't match the schema.
+     */
+    static byte[] readHeader(DataInput in, Schema schema)
+            throws IOException
+    {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new DataException("Not a page_dump file");
+        }
+
+        int columnCount = in.readInt();
+        if (columnCount != schema.getColumnCount()) {
+            throw new DataException(String.format("The file has %d columns but %d columns are configured",
+                        columnCount, schema.getColumnCount()));
+        }
+        for (Column column : schema.getColumns()) {
+            String name = readString(in);
+            String type = readString(in);
+            if (!name.equals(column.getName()) || !type.equals(column.getType().getName())) {
+                throw new DataException(String.format("Column %d of the file is '%s' (%s) but '%s' (%s) is configured",
+                            column.getIndex(), name, type, column.getName(), column.getType().getName()));
+            }
+        }
+
+        byte[] syncMarker = new byte[SYNC_MARKER_SIZE];
+        in.readFully(syncMarker);
+        return syncMarker;
+    }
+
+    private static void writeString(DataOutput out, String value)
+            throws IOException
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in)
+            throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new DataException("Broken page_dump file header");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
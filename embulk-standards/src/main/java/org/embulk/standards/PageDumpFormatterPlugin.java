@@ -0,0 +1,241 @@
+package org.embulk.standards;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import org.embulk.config.ConfigInject;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.Task;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.FileOutput;
+import org.embulk.spi.FormatterPlugin;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReader;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.util.FileOutputOutputStream;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Formatter plugin which writes records in the typed binary format of {@link PageDumpFormat}.
+ *
+ * Each page is written as a block. {@link PageDumpParserPlugin} reads the records back without
+ * parsing text or timestamps.
+ */
+public class PageDumpFormatterPlugin
+        implements FormatterPlugin
+{
+    public interface PluginTask
+            extends Task
+    {
+        @ConfigInject
+        BufferAllocator getBufferAllocator();
+    }
+
+    @Override
+    public void transaction(ConfigSource config, Schema schema,
+            FormatterPlugin.Control control)
+    {
+        PluginTask task = config.loadConfig(PluginTask.class);
+        control.run(task.dump());
+    }
+
+    @Override
+    public PageOutput open(TaskSource taskSource, final Schema schema,
+            final FileOutput output)
+    {
+        final PluginTask task = taskSource.loadTask(PluginTask.class);
+        final FileOutputOutputStream stream = new FileOutputOutputStream(output, task.getBufferAllocator(), FileOutputOutputStream.CloseMode.FLUSH_FINISH);
+        final byte[] syncMarker = newSyncMarker();
+
+        // create a file
+        stream.nextFile();
+        try {
+            PageDumpFormat.writeHeader(new DataOutputStream(stream), schema, syncMarker);
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        return new PageOutput() {
+            private final PageReader pageReader = new PageReader(schema);
+            private final int[] typeCodes = PageDumpFormat.typeCodes(schema);
+            private final byte[] nullBitSet = new byte[PageDumpFormat.nullBitSetSize(schema.getColumnCount())];
+            private final BlockWriter block = new BlockWriter();
+            private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+            private boolean finished = false;
+
+            public void add(Page page)
+            {
+                try {
+                    pageReader.setPage(page);
+                    block.reset();
+                    int count = 0;
+                    while (pageReader.nextRecord()) {
+                        writeRecord();
+                        count++;
+                    }
+                    if (count > 0) {
+                        stream.write(syncMarker);
+                        block.writeHeader(stream, count);
+                        stream.write(block.array(), 0, block.length());
+                    }
+                }
+                catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+
+            private void writeRecord() throws IOException
+            {
+                Arrays.fill(nullBitSet, (byte) 0);
+                for (int i = 0; i < typeCodes.length; i++) {
+                    if (pageReader.isNull(i)) {
+                        nullBitSet[i >>> 3] |= (byte) (1 << (i & 7));
+                    }
+                }
+                block.putBytes(nullBitSet, 0, nullBitSet.length);
+
+                for (int i = 0; i < typeCodes.length; i++) {
+                    if (pageReader.isNull(i)) {
+                        continue;
+                    }
+                    switch (typeCodes[i]) {
+                    case PageDumpFormat.BOOLEAN:
+                        block.putByte(pageReader.getBoolean(i) ? 1 : 0);
+                        break;
+                    case PageDumpFormat.LONG:
+                        block.putLong(pageReader.getLong(i));
+                        break;
+                    case PageDumpFormat.DOUBLE:
+                        block.putLong(Double.doubleToRawLongBits(pageReader.getDouble(i)));
+                        break;
+                    case PageDumpFormat.STRING:
+                        byte[] bytes = pageReader.getString(i).getBytes(UTF_8);
+                        block.putInt(bytes.length);
+                        block.putBytes(bytes, 0, bytes.length);
+                        break;
+                    case PageDumpFormat.TIMESTAMP:
+                        Timestamp timestamp = pageReader.getTimestamp(i);
+                        block.putLong(timestamp.getEpochSecond());
+                        block.putInt(timestamp.getNano());
+                        break;
+                    case PageDumpFormat.JSON:
+                        packer.clear();
+                        pageReader.getJson(i).writeTo(packer);
+                        byte[] packed = packer.toByteArray();
+                        block.putInt(packed.length);
+                        block.putBytes(packed, 0, packed.length);
+                        break;
+                    default:
+                        throw new AssertionError();
+                    }
+                }
+            }
+
+            public void finish()
+            {
+                stream.close();  // closes stream with FLUSH_FINISH
+                finished = true;
+            }
+
+            public void close()
+            {
+                pageReader.close();
+                if (!finished) {
+                    stream.close();
+                    finished = true;
+                }
+                output.close();  // this is necessary because CloseMode is not FLUSH_FINISH_CLOSE
+            }
+        };
+    }
+
+    private static byte[] newSyncMarker()
+    {
+        UUID uuid = UUID.randomUUID();
+        return ByteBuffer.allocate(PageDumpFormat.SYNC_MARKER_SIZE)
+            .putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits())
+            .array();
+    }
+
+    // serializes records of a block into a reused array
+    private static class BlockWriter
+    {
+        private byte[] array = new byte[64 * 1024];
+        private int length = 0;
+
+        void reset()
+        {
+            length = 0;
+        }
+
+        byte[] array()
+        {
+            return array;
+        }
+
+        int length()
+        {
+            return length;
+        }
+
+        void writeHeader(FileOutputOutputStream stream, int recordCount)
+        {
+            byte[] header = new byte[8];
+            putInt(header, 0, recordCount);
+            putInt(header, 4, length);
+            stream.write(header, 0, header.length);
+        }
+
+        void putByte(int v)
+        {
+            ensureCapacity(1);
+            array[length++] = (byte) v;
+        }
+
+        void putInt(int v)
+        {
+            ensureCapacity(4);
+            putInt(array, length, v);
+            length += 4;
+        }
+
+        void putLong(long v)
+        {
+            ensureCapacity(8);
+            putInt(array, length, (int) (v >>> 32));
+            putInt(array, length + 4, (int) v);
+            length += 8;
+        }
+
+        void putBytes(byte[] b, int off, int len)
+        {
+            ensureCapacity(len);
+            System.arraycopy(b, off, array, length, len);
+            length += len;
+        }
+
+        private static void putInt(byte[] b, int pos, int v)
+        {
+            b[pos] = (byte) (v >>> 24);
+            b[pos + 1] = (byte) (v >>> 16);
+            b[pos + 2] = (byte) (v >>> 8);
+            b[pos + 3] = (byte) v;
+        }
+
+        private void ensureCapacity(int len)
+        {
+            if (array.length - length < len) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, length + len));
+            }
+        }
+    }
+}
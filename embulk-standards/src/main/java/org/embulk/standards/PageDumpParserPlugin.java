@@ -0,0 +1,183 @@
+package org.embulk.standards;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.Task;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.spi.FileInput;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.ParserPlugin;
+import org.embulk.spi.Schema;
+import org.embulk.spi.SchemaConfig;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.util.FileInputInputStream;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Parser plugin which reads files written by {@link PageDumpFormatterPlugin}.
+ *
+ * Values are copied into pages as they are. The columns are embedded in the file and must match
+ * the "columns" option, which the guess fills from the file.
+ */
+public class PageDumpParserPlugin
+        implements ParserPlugin
+{
+    public interface PluginTask
+            extends Task
+    {
+        @Config("columns")
+        SchemaConfig getSchemaConfig();
+    }
+
+    @Override
+    public void transaction(ConfigSource config, ParserPlugin.Control control)
+    {
+        PluginTask task = config.loadConfig(PluginTask.class);
+        control.run(task.dump(), task.getSchemaConfig().toSchema());
+    }
+
+    @Override
+    public void run(TaskSource taskSource, Schema schema,
+            FileInput input, PageOutput output)
+    {
+        final int[] typeCodes = PageDumpFormat.typeCodes(schema);
+
+        try (PageBuilder pageBuilder = new PageBuilder(Exec.getBufferAllocator(), schema, output);
+                FileInputInputStream in = new FileInputInputStream(input)) {
+            BlockReader block = new BlockReader(pageBuilder, typeCodes);
+            while (in.nextFile()) {
+                boolean evenOneBlockRead = false;
+                try {
+                    DataInputStream data = new DataInputStream(in);
+                    byte[] syncMarker = PageDumpFormat.readHeader(data, schema);
+                    while (block.read(data, syncMarker)) {
+                        evenOneBlockRead = true;
+                    }
+                }
+                catch (EOFException ex) {
+                    if (Exec.isPreview() && evenOneBlockRead) {
+                        // the sample buffer of preview can end in the middle of a block
+                        break;
+                    }
+                    throw new DataException("Unexpected end of page_dump file", ex);
+                }
+                catch (IOException ex) {
+                    throw new DataException(ex);
+                }
+            }
+
+            pageBuilder.finish();
+        }
+    }
+
+    private static class BlockReader
+    {
+        private final PageBuilder pageBuilder;
+        private final int[] typeCodes;
+        private final byte[] syncMarker = new byte[PageDumpFormat.SYNC_MARKER_SIZE];
+        private final byte[] nullBitSet;
+        private byte[] body = new byte[64 * 1024];
+
+        BlockReader(PageBuilder pageBuilder, int[] typeCodes)
+        {
+            this.pageBuilder = pageBuilder;
+            this.typeCodes = typeCodes;
+            this.nullBitSet = new byte[PageDumpFormat.nullBitSetSize(typeCodes.length)];
+        }
+
+        // returns false at the end of the file
+        boolean read(DataInputStream in, byte[] expectedSyncMarker)
+                throws IOException
+        {
+            int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            syncMarker[0] = (byte) first;
+            in.readFully(syncMarker, 1, syncMarker.length - 1);
+            if (!Arrays.equals(syncMarker, expectedSyncMarker)) {
+                throw new DataException("Broken page_dump file: sync marker mismatch");
+            }
+
+            int recordCount = in.readInt();
+            int length = in.readInt();
+            if (recordCount < 0 || length < 0) {
+                throw new DataException("Broken page_dump file: invalid block header");
+            }
+            if (body.length < length) {
+                body = new byte[Math.max(length, body.length * 2)];
+            }
+            in.readFully(body, 0, length);
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(body, 0, length);
+                for (int i = 0; i < recordCount; i++) {
+                    readRecord(buffer);
+                }
+                if (buffer.hasRemaining()) {
+                    throw new DataException("Broken page_dump file: block has extra bytes");
+                }
+            }
+            catch (RuntimeException ex) {
+                if (ex instanceof DataException) {
+                    throw ex;
+                }
+                throw new DataException("Broken page_dump file: malformed record", ex);
+            }
+            return true;
+        }
+
+        private void readRecord(ByteBuffer buffer)
+                throws IOException
+        {
+            buffer.get(nullBitSet);
+            for (int i = 0; i < typeCodes.length; i++) {
+                if ((nullBitSet[i >>> 3] & (1 << (i & 7))) != 0) {
+                    pageBuilder.setNull(i);
+                    continue;
+                }
+                switch (typeCodes[i]) {
+                case PageDumpFormat.BOOLEAN:
+                    pageBuilder.setBoolean(i, buffer.get() != 0);
+                    break;
+                case PageDumpFormat.LONG:
+                    pageBuilder.setLong(i, buffer.getLong());
+                    break;
+                case PageDumpFormat.DOUBLE:
+                    pageBuilder.setDouble(i, buffer.getDouble());
+                    break;
+                case PageDumpFormat.STRING:
+                    int stringLength = buffer.getInt();
+                    pageBuilder.setString(i, new String(body, buffer.position(), stringLength, UTF_8));
+                    buffer.position(buffer.position() + stringLength);
+                    break;
+                case PageDumpFormat.TIMESTAMP:
+                    long epochSecond = buffer.getLong();
+                    int nano = buffer.getInt();
+                    pageBuilder.setTimestamp(i, Timestamp.ofEpochSecond(epochSecond, nano));
+                    break;
+                case PageDumpFormat.JSON:
+                    int jsonLength = buffer.getInt();
+                    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(body, buffer.position(), jsonLength)) {
+                        pageBuilder.setJson(i, unpacker.unpackValue());
+                    }
+                    buffer.position(buffer.position() + jsonLength);
+                    break;
+                default:
+                    throw new AssertionError();
+                }
+            }
+            pageBuilder.addRecord();
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package org.embulk.standards;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * InputStream which decompresses blocks of bzip2 streams in parallel.
+ *
+ * Blocks of a bzip2 stream are not byte-aligned. This stream scans bits for the block header
+ * magic (0x314159265359) and the end of stream magic (0x177245385090). Bits of each block are
+ * copied into a standalone single-block stream, which is decompressed by threads of
+ * {@link CompressionThreads} using BZip2CompressorInputStream. Results are returned in order.
+ *
+ * The magic can appear in compressed data by chance. An end of stream magic is accepted only
+ * if the next stream or the end of the file follows it. If a block fails to decompress, it is
+ * decompressed again on the reading thread together with the following blocks of the stream
+ * because the block boundary might be false.
+ */
+class ParallelBzip2InputStream
+        extends InputStream
+{
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final int STREAM_HEADER_SIZE = 4;  // "BZh" and the block size
+
+    // a compressed block is not larger than 900k bytes of the block and the huffman tables
+    private static final long MAX_BLOCK_BITS = 2L * 1024 * 1024 * 8;
+    private static final int MAX_MERGED_SEGMENTS = 16;
+
+    private static class Segment
+    {
+        private final int streamIndex;
+        private final int level;
+        private final byte[] data;
+        private final int bitOffset;
+        private final long bitLength;
+        private final long blockCrc;
+        private Future<byte[]> decoded;
+        private final boolean streamEnd;
+        private final long streamCrc;
+
+        // a block
+        Segment(int streamIndex, int level, byte[] data, int bitOffset, long bitLength, long blockCrc)
+        {
+            this.streamIndex = streamIndex;
+            this.level = level;
+            this.data = data;
+            this.bitOffset = bitOffset;
+            this.bitLength = bitLength;
+            this.blockCrc = blockCrc;
+            this.streamEnd = false;
+            this.streamCrc = 0;
+        }
+
+        // the end of a stream
+        Segment(int streamIndex, long streamCrc)
+        {
+            this.streamIndex = streamIndex;
+            this.level = 0;
+            this.data = null;
+            this.bitOffset = 0;
+            this.bitLength = 0;
+            this.blockCrc = 0;
+            this.decoded = null;
+            this.streamEnd = true;
+            this.streamCrc = streamCrc;
+        }
+    }
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final int maxSegmentsAhead;
+
+    // compressed bytes which are read from the input but not in a segment yet
+    private byte[] carry = new byte[1024 * 1024];
+    private int carryLength = 0;
+    private boolean eof = false;
+    private long bitPosition = 0;  // position in carry
+    private boolean inStream = false;
+    private int streamIndex = 0;
+    private int level = 0;
+    private boolean allStreamsRead = false;
+
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long combinedCrc = 0;
+
+    private byte[] decoded = new byte[0];
+    private int decodedPosition = 0;
+    private boolean closed = false;
+
+    ParallelBzip2InputStream(InputStream in, int threads)
+    {
+        this.in = in;
+        this.executor = CompressionThreads.getExecutor();
+        this.maxSegmentsAhead = threads + 1;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        int n;
+        do {
+            n = read(b, 0, 1);
+        } while (n == 0);
+        return n < 0 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (decodedPosition >= decoded.length) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, decoded.length - decodedPosition);
+        System.arraycopy(decoded, decodedPosition, b, off, n);
+        decodedPosition += n;
+        return n;
+    }
+
+    private boolean nextBlock() throws IOException
+    {
+        fillSegments();
+        Segment segment = segments.poll();
+        if (segment == null) {
+            return false;
+        }
+
+        if (segment.streamEnd) {
+            if (segment.streamCrc != combinedCrc) {
+                throw new IOException("BZip2 CRC error");
+            }
+            combinedCrc = 0;
+            decoded = new byte[0];
+            decodedPosition = 0;
+            return true;
+        }
+
+        byte[] result;
+        try {
+            result = getDecoded(segment.decoded);
+        }
+        catch (IOException ex) {
+            // the next block magic may be a part of this block
+            result = decodeMerged(segment, ex);
+        }
+        combinedCrc = (((combinedCrc << 1) | (combinedCrc >>> 31)) ^ segment.blockCrc) & 0xffffffffL;
+        decoded = result;
+        decodedPosition = 0;
+        return true;
+    }
+
+    private byte[] decodeMerged(Segment first, IOException cause) throws IOException
+    {
+        List<Segment> merged = new ArrayList<>();
+        merged.add(first);
+        while (merged.size() < MAX_MERGED_SEGMENTS) {
+            fillSegments();
+            Segment next = segments.peek();
+            if (next == null || next.streamEnd || next.streamIndex != first.streamIndex) {
+                break;
+            }
+            segments.remove();
+            next.decoded.cancel(false);
+            merged.add(next);
+            try {
+                return decode(merged);
+            }
+            catch (IOException ex) {
+                // try with the next segment
+            }
+        }
+        throw cause;
+    }
+
+    private byte[] getDecoded(Future<byte[]> future) throws IOException
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    // decompresses the segments as a stream which has one block
+    private static byte[] decode(List<Segment> blockSegments) throws IOException
+    {
+        Segment first = blockSegments.get(0);
+        long bitLength = 0;
+        for (Segment segment : blockSegments) {
+            bitLength += segment.bitLength;
+        }
+        BitWriter writer = new BitWriter((int) ((bitLength + 7) / 8) + STREAM_HEADER_SIZE + 11);
+        writer.writeBits('B', 8);
+        writer.writeBits('Z', 8);
+        writer.writeBits('h', 8);
+        writer.writeBits('0' + first.level, 8);
+        for (Segment segment : blockSegments) {
+            writer.copyBits(segment.data, segment.bitOffset, segment.bitLength);
+        }
+        writer.writeBits(END_MAGIC, 48);
+        writer.writeBits(first.blockCrc, 32);  // the combined CRC of a single block stream is the block CRC
+
+        writer.finish();
+
+        try (InputStream stream = new BZip2CompressorInputStream(new ByteArrayInputStream(writer.getBytes(), 0, writer.getLength()), false)) {
+            return ByteStreams.toByteArray(stream);
+        }
+        catch (RuntimeException ex) {
+            // BZip2CompressorInputStream may throw runtime exceptions for broken data
+            throw new IOException(ex);
+        }
+    }
+
+    private void fillSegments() throws IOException
+    {
+        while (segments.size() < maxSegmentsAhead && !allStreamsRead) {
+            if (!inStream) {
+                readStreamHeader();
+                continue;
+            }
+
+            if (!fillCarry(bytesUntil(bitPosition + 48))) {
+                throw new EOFException("Unexpected end of BZip2 stream");
+            }
+            long magic = readBits(bitPosition, 48);
+            if (magic == END_MAGIC) {
+                if (!fillCarry(bytesUntil(bitPosition + 80))) {
+                    throw new EOFException("Unexpected end of BZip2 stream");
+                }
+                segments.add(new Segment(streamIndex, readBits(bitPosition + 48, 32)));
+                bitPosition = bytesUntil(bitPosition + 80) * 8L;  // streams are byte-aligned
+                inStream = false;
+                discardCarry();
+            }
+            else if (magic == BLOCK_MAGIC) {
+                addBlock();
+            }
+            else {
+                throw new IOException("Invalid BZip2 block header");
+            }
+        }
+    }
+
+    private void readStreamHeader() throws IOException
+    {
+        int pos = bytePosition(bitPosition);
+        if (!fillCarry(pos + 1)) {
+            if (streamIndex == 0) {
+                throw new IOException("Stream is not in the BZip2 format");
+            }
+            allStreamsRead = true;
+            return;
+        }
+        if (!fillCarry(pos + STREAM_HEADER_SIZE) || !isStreamHeader(pos)) {
+            throw new IOException(streamIndex == 0 ? "Stream is not in the BZip2 format" : "Garbage after a valid BZip2 stream");
+        }
+        level = carry[pos + 3] - '0';
+        streamIndex++;
+        bitPosition += STREAM_HEADER_SIZE * 8;
+        inStream = true;
+    }
+
+    private boolean isStreamHeader(int pos)
+    {
+        return carry[pos] == 'B' && carry[pos + 1] == 'Z' && carry[pos + 2] == 'h' && carry[pos + 3] >= '1' && carry[pos + 3] <= '9';
+    }
+
+    private void addBlock() throws IOException
+    {
+        final long start = bitPosition;
+        final long end = findBlockEnd(start);
+        if (!fillCarry(bytesUntil(start + 80))) {
+            throw new EOFException("Unexpected end of BZip2 stream");
+        }
+        final long blockCrc = readBits(start + 48, 32);
+        final int startByte = bytePosition(start);
+        final int endByte = bytesUntil(end);
+        final Segment block = new Segment(streamIndex, level,
+                Arrays.copyOfRange(carry, startByte, endByte), (int) (start % 8), end - start, blockCrc);
+        block.decoded = executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException
+            {
+                List<Segment> blocks = new ArrayList<>();
+                blocks.add(block);
+                return decode(blocks);
+            }
+        });
+        segments.add(block);
+
+        bitPosition = end;
+        if (end == carryLength * 8L) {
+            // the file ends without the end of stream. decoding the block reports the error
+            allStreamsRead = true;
+        }
+        discardCarry();
+    }
+
+    // returns the position of the next block magic or the end of stream magic, or the end of the file
+    private long findBlockEnd(long start) throws IOException
+    {
+        int pos = bytePosition(start);
+        long register = 0;
+        while (true) {
+            if (!fillCarry(pos + 1)) {
+                return carryLength * 8L;
+            }
+            register = (register << 8) | (carry[pos] & 0xff);
+            pos++;
+            for (int shift = 7; shift >= 0; shift--) {
+                long magic = (register >>> shift) & MAGIC_MASK;
+                if (magic != BLOCK_MAGIC && magic != END_MAGIC) {
+                    continue;
+                }
+                long candidate = pos * 8L - shift - 48;
+                if (candidate <= start) {
+                    continue;
+                }
+                if (magic == BLOCK_MAGIC || isStreamEnd(candidate)) {
+                    return candidate;
+                }
+            }
+            if (pos * 8L - start > MAX_BLOCK_BITS) {
+                throw new IOException("Invalid BZip2 block: too large");
+            }
+        }
+    }
+
+    // an end of stream magic is followed by the CRC, padding, and the next stream or the end of the file
+    private boolean isStreamEnd(long position) throws IOException
+    {
+        int next = bytesUntil(position + 80);
+        if (!fillCarry(next)) {
+            return false;
+        }
+        if (!fillCarry(next + 1)) {
+            return true;
+        }
+        if (!fillCarry(next + STREAM_HEADER_SIZE + 6) || !isStreamHeader(next)) {
+            return false;
+        }
+        long magic = readBits((next + STREAM_HEADER_SIZE) * 8L, 48);
+        return magic == BLOCK_MAGIC || magic == END_MAGIC;
+    }
+
+    private static int bytePosition(long bit)
+    {
+        return (int) (bit / 8);
+    }
+
+    // returns the number of bytes which include bits before the position
+    private static int bytesUntil(long bit)
+    {
+        return (int) ((bit + 7) / 8);
+    }
+
+    // reads up to 56 bits at the bit position of carry
+    private long readBits(long bit, int count)
+    {
+        int pos = bytePosition(bit);
+        int skip = (int) (bit % 8);
+        int bytes = (skip + count + 7) / 8;
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | (carry[pos + i] & 0xff);
+        }
+        return (value >>> (bytes * 8 - skip - count)) & ((1L << count) - 1);
+    }
+
+    // discards bytes before the current position
+    private void discardCarry()
+    {
+        int pos = bytePosition(bitPosition);
+        carryLength -= pos;
+        System.arraycopy(carry, pos, carry, 0, carryLength);
+        bitPosition -= pos * 8L;
+    }
+
+    // reads compressed bytes until carry has the length. returns false if the input ends before it
+    private boolean fillCarry(int length) throws IOException
+    {
+        while (carryLength < length && !eof) {
+            if (carry.length < length) {
+                carry = Arrays.copyOf(carry, Math.max(carry.length * 2, length));
+            }
+            int n = in.read(carry, carryLength, carry.length - carryLength);
+            if (n < 0) {
+                eof = true;
+            }
+            else {
+                carryLength += n;
+            }
+        }
+        return carryLength >= length;
+    }
+
+    private static class BitWriter
+    {
+        private final byte[] bytes;
+        private int length = 0;
+        private long buffer = 0;
+        private int bufferedBits = 0;
+
+        BitWriter(int capacity)
+        {
+            this.bytes = new byte[capacity];
+        }
+
+        void writeBits(long value, int count)
+        {
+            // writes 8 bits at most at once so that the buffer doesn't overflow
+            while (count > 8) {
+                count -= 8;
+                writeBits(value >>> count, 8);
+            }
+            buffer = (buffer << count) | (value & ((1L << count) - 1));
+            bufferedBits += count;
+            while (bufferedBits >= 8) {
+                bufferedBits -= 8;
+                bytes[length++] = (byte) (buffer >>> bufferedBits);
+            }
+        }
+
+        void copyBits(byte[] src, int bitOffset, long bitLength)
+        {
+            int pos = 0;
+            if (bitOffset != 0) {
+                int head = (int) Math.min(8 - bitOffset, bitLength);
+                writeBits((src[0] & 0xff) >>> (8 - bitOffset - head), head);
+                bitLength -= head;
+                pos = 1;
+            }
+            while (bitLength >= 8) {
+                writeBits(src[pos++] & 0xff, 8);
+                bitLength -= 8;
+            }
+            if (bitLength > 0) {
+                writeBits((src[pos] & 0xff) >>> (8 - bitLength), (int) bitLength);
+            }
+        }
+
+        void finish()
+        {
+            if (bufferedBits > 0) {
+                writeBits(0, 8 - bufferedBits);  // padding
+            }
+        }
+
+        byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        int getLength()
+        {
+            return length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            if (segment.decoded != null) {
+                segment.decoded.cancel(false);
+            }
+        }
+        segments.clear();
+        in.close();
+    }
+}
@@ -0,0 +1,144 @@
+package org.embulk.standards;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * OutputStream which compresses blocks concurrently and writes them as concatenated bzip2
+ * streams in the same way as pbzip2.
+ *
+ * Input is split into chunks of the bzip2 block size and each chunk is compressed into a
+ * complete stream by threads of {@link CompressionThreads}. Decoders which support
+ * concatenated streams, including the bzip2 command, BZip2CompressorInputStream and the bzip2
+ * decoder plugin, read the output as one file.
+ */
+class ParallelBzip2OutputStream
+        extends OutputStream
+{
+    private final OutputStream out;
+    private final int level;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final ExecutorService executor;
+    private final Queue<Future<byte[]>> chunksInFlight = new ArrayDeque<>();
+    private byte[] chunk;
+    private int chunkLength = 0;
+    private boolean closed = false;
+
+    ParallelBzip2OutputStream(OutputStream out, int level, int threads)
+    {
+        this.out = out;
+        this.level = level;
+        this.chunkSize = level * 100000 - 100;  // a block has a few bytes of space for run-length encoding
+        this.maxChunksInFlight = threads;
+        this.executor = CompressionThreads.getExecutor();
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int n = Math.min(len, chunkSize - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, n);
+            chunkLength += n;
+            off += n;
+            len -= n;
+            if (chunkLength == chunkSize) {
+                submitChunk();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // an empty file is still a valid bzip2 file which has an empty stream
+            if (chunkLength > 0 || chunksInFlight.isEmpty()) {
+                submitChunk();
+            }
+            while (!chunksInFlight.isEmpty()) {
+                writeNextChunk();
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void submitChunk() throws IOException
+    {
+        final byte[] input = chunk;
+        final int inputLength = chunkLength;
+        final int level = this.level;
+        chunksInFlight.add(executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException
+            {
+                return compress(level, input, inputLength);
+            }
+        }));
+        chunk = new byte[chunkSize];
+        chunkLength = 0;
+
+        while (chunksInFlight.size() >= maxChunksInFlight) {
+            writeNextChunk();
+        }
+    }
+
+    private void writeNextChunk() throws IOException
+    {
+        Future<byte[]> future = chunksInFlight.remove();
+        byte[] compressed;
+        try {
+            compressed = future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        out.write(compressed);
+    }
+
+    static byte[] compress(int level, byte[] input, int inputLength) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(inputLength / 4 + 64);
+        try (BZip2CompressorOutputStream stream = new BZip2CompressorOutputStream(compressed, level)) {
+            stream.write(input, 0, inputLength);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,571 @@
+package org.embulk.standards;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * InputStream which inflates members of a gzip file in parallel.
+ *
+ * Compressed bytes are split into segments. A segment ends where the next member probably
+ * starts: at the exact block boundary given by the BSIZE field of BGZF headers, or at the next
+ * bytes which look like a gzip header. Segments which start with a member are inflated by
+ * threads of {@link CompressionThreads} as a sequence of complete members, and the results are
+ * returned in order.
+ *
+ * A segment is decoded on the reading thread, reusing one Inflater, if it doesn't start with a
+ * member, if its members don't end exactly at its end (for example, the candidate header was a
+ * part of compressed data, or a member is larger than a segment), or if its output is too large.
+ * Thus a single-member file is inflated serially as GZIPInputStream does.
+ *
+ * If threads is 1, compressed bytes are not split at member boundaries and every member is
+ * inflated on the reading thread. An Inflater given by the caller can be reused for many files
+ * in this way; it's not ended when the stream is closed.
+ */
+class ParallelGzipInputStream
+        extends InputStream
+{
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FHCRC = 2;
+
+    private static final int HEADER_SIZE = 10;
+    private static final int BGZF_HEADER_SIZE = 18;
+
+    private static class Segment
+    {
+        private final byte[] data;
+        private final int length;
+        private final Future<Decoded> decoded;  // null if the segment doesn't start with a member
+
+        Segment(byte[] data, int length, Future<Decoded> decoded)
+        {
+            this.data = data;
+            this.length = length;
+            this.decoded = decoded;
+        }
+    }
+
+    private static class Decoded
+    {
+        private final byte[] data;
+        private final int length;
+
+        Decoded(byte[] data, int length)
+        {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final int segmentSize;
+    private final int maxSegmentSize;
+    private final int maxDecodedSize;
+    private final int maxSegmentsAhead;
+    private final boolean serial;
+
+    // compressed bytes which are read from the input but not in a segment yet
+    private byte[] carry;
+    private int carryLength = 0;
+    private byte[] spare = null;  // array of a consumed segment reused by the serial mode
+    private boolean carryStartsMember = true;
+    private boolean eof = false;
+
+    // segments.peek() is the segment being read
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private int segmentOffset = 0;
+
+    // output of a segment decoded in parallel
+    private Decoded decoded = null;
+    private int decodedPosition = 0;
+
+    // state of the member being inflated on this thread
+    private final Inflater inflater;
+    private final boolean ownsInflater;
+    private final CRC32 crc = new CRC32();
+    private boolean inMember = false;
+    private long memberLength = 0;
+
+    private boolean firstMember = true;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    ParallelGzipInputStream(InputStream in, int threads, int segmentSize)
+    {
+        this(in, threads, segmentSize, null);
+    }
+
+    ParallelGzipInputStream(InputStream in, int threads, int segmentSize, Inflater inflater)
+    {
+        this.in = in;
+        this.serial = threads <= 1;
+        this.executor = serial ? null : CompressionThreads.getExecutor();
+        this.segmentSize = segmentSize;
+        this.maxSegmentSize = segmentSize * 4;
+        this.maxDecodedSize = segmentSize * 32;
+        this.maxSegmentsAhead = serial ? 1 : threads + 1;
+        this.carry = new byte[maxSegmentSize + HEADER_SIZE];
+        if (inflater != null) {
+            inflater.reset();
+            this.inflater = inflater;
+            this.ownsInflater = false;
+        }
+        else {
+            this.inflater = new Inflater(true);
+            this.ownsInflater = true;
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        int n;
+        do {
+            n = read(b, 0, 1);
+        } while (n == 0);
+        return n < 0 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (decoded != null && decodedPosition < decoded.length) {
+                int n = Math.min(len, decoded.length - decodedPosition);
+                System.arraycopy(decoded.data, decodedPosition, b, off, n);
+                decodedPosition += n;
+                return n;
+            }
+            decoded = null;
+
+            if (inMember) {
+                int n = inflateMember(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+                continue;  // end of the member
+            }
+
+            if (finished || !nextMember()) {
+                finished = true;
+                return -1;
+            }
+        }
+    }
+
+    // moves to the next member at a member boundary. returns false at the end of the file
+    private boolean nextMember() throws IOException
+    {
+        Segment segment = currentSegment();
+        if (segment == null) {
+            return false;
+        }
+
+        if (segmentOffset == 0 && segment.decoded != null) {
+            Decoded result = getDecoded(segment.decoded);
+            if (result != null) {
+                decoded = result;
+                decodedPosition = 0;
+                firstMember = false;
+                segments.remove();
+                return true;
+            }
+        }
+
+        if (!readHeader()) {
+            return false;
+        }
+        inflater.reset();
+        crc.reset();
+        memberLength = 0;
+        inMember = true;
+        firstMember = false;
+        return true;
+    }
+
+    private int inflateMember(byte[] b, int off, int len) throws IOException
+    {
+        while (true) {
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            }
+            catch (DataFormatException ex) {
+                String message = ex.getMessage();
+                throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+            }
+            if (n > 0) {
+                crc.update(b, off, n);
+                memberLength += n;
+                return n;
+            }
+
+            if (inflater.finished()) {
+                // unused input is always a part of the current segment
+                segmentOffset -= inflater.getRemaining();
+                readTrailer();
+                inMember = false;
+                return 0;
+            }
+            if (inflater.needsDictionary()) {
+                throw new ZipException("Invalid ZLIB data format");
+            }
+            if (inflater.needsInput()) {
+                Segment segment = currentSegment();
+                if (segment == null) {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+                inflater.setInput(segment.data, segmentOffset, segment.length - segmentOffset);
+                segmentOffset = segment.length;
+            }
+        }
+    }
+
+    private boolean readHeader() throws IOException
+    {
+        int b0 = readCompressedByte();
+        if (b0 < 0) {
+            if (firstMember) {
+                throw new EOFException();
+            }
+            return false;
+        }
+        int b1 = readCompressedByte();
+        if (b0 != 0x1f || b1 != 0x8b) {
+            if (firstMember) {
+                throw new ZipException("Not in GZIP format");
+            }
+            return false;  // GZIPInputStream ignores trailing garbage as well
+        }
+        if (readRequiredByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readRequiredByte();
+        for (int i = 0; i < 6; i++) {
+            readRequiredByte();  // MTIME, XFL and OS
+        }
+        if ((flags & FEXTRA) != 0) {
+            int length = readRequiredByte() | (readRequiredByte() << 8);
+            for (int i = 0; i < length; i++) {
+                readRequiredByte();
+            }
+        }
+        if ((flags & FNAME) != 0) {
+            while (readRequiredByte() != 0) { }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readRequiredByte() != 0) { }
+        }
+        if ((flags & FHCRC) != 0) {
+            readRequiredByte();
+            readRequiredByte();
+        }
+        return true;
+    }
+
+    private void readTrailer() throws IOException
+    {
+        long expectedCrc = 0;
+        for (int i = 0; i < 4; i++) {
+            expectedCrc |= ((long) readRequiredByte()) << (i * 8);
+        }
+        long expectedLength = 0;
+        for (int i = 0; i < 4; i++) {
+            expectedLength |= ((long) readRequiredByte()) << (i * 8);
+        }
+        if (expectedCrc != crc.getValue() || expectedLength != (memberLength & 0xffffffffL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+    }
+
+    private int readRequiredByte() throws IOException
+    {
+        int b = readCompressedByte();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of GZIP stream");
+        }
+        return b;
+    }
+
+    private int readCompressedByte() throws IOException
+    {
+        Segment segment = currentSegment();
+        if (segment == null) {
+            return -1;
+        }
+        return segment.data[segmentOffset++] & 0xff;
+    }
+
+    // returns the segment which has remaining bytes, or null at the end of the file
+    private Segment currentSegment() throws IOException
+    {
+        while (true) {
+            fillSegments();
+            Segment segment = segments.peek();
+            if (segment == null || segmentOffset < segment.length) {
+                return segment;
+            }
+            segments.remove();
+            if (segment.decoded != null) {
+                segment.decoded.cancel(false);
+            }
+            if (serial) {
+                // the Inflater has consumed all bytes of the segment
+                spare = segment.data;
+            }
+            segmentOffset = 0;
+        }
+    }
+
+    private Decoded getDecoded(Future<Decoded> future) throws IOException
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private void fillSegments() throws IOException
+    {
+        if (serial) {
+            // the whole carry becomes a segment without copying
+            if (segments.isEmpty() && fillCarry(1)) {
+                segments.add(new Segment(carry, carryLength, null));
+                carry = spare != null ? spare : new byte[carry.length];
+                spare = null;
+                carryLength = 0;
+            }
+            return;
+        }
+        while (segments.size() < maxSegmentsAhead && fillCarry(1)) {
+            final boolean startsMember = carryStartsMember;
+            final int length = findSegmentEnd();
+            final byte[] data = Arrays.copyOf(carry, length);
+            carryLength -= length;
+            System.arraycopy(carry, length, carry, 0, carryLength);
+
+            Future<Decoded> future = null;
+            if (startsMember) {
+                future = executor.submit(new Callable<Decoded>() {
+                    public Decoded call()
+                    {
+                        return decodeMembers(data, length, maxDecodedSize);
+                    }
+                });
+            }
+            segments.add(new Segment(data, length, future));
+        }
+    }
+
+    // returns the length of the next segment and sets carryStartsMember for the segment after it
+    private int findSegmentEnd() throws IOException
+    {
+        int pos = 0;
+        if (carryStartsMember) {
+            // BGZF blocks tell their sizes
+            while (pos < segmentSize && fillCarry(pos + BGZF_HEADER_SIZE)) {
+                int blockSize = getBgzfBlockSize(carry, pos);
+                if (blockSize < 0) {
+                    break;
+                }
+                pos += blockSize;
+            }
+            if (pos >= segmentSize && pos <= maxSegmentSize) {
+                if (!fillCarry(pos)) {
+                    return carryLength;  // truncated
+                }
+                carryStartsMember = true;
+                return pos;
+            }
+        }
+
+        for (int i = Math.max(pos, segmentSize); i < maxSegmentSize; i++) {
+            if (!fillCarry(i + HEADER_SIZE)) {
+                return carryLength;  // the last segment
+            }
+            if (isHeaderCandidate(carry, i)) {
+                carryStartsMember = true;
+                return i;
+            }
+        }
+        fillCarry(maxSegmentSize);
+        carryStartsMember = false;
+        return Math.min(maxSegmentSize, carryLength);
+    }
+
+    // reads compressed bytes until carry has the length. returns false if the input ends before it
+    private boolean fillCarry(int length) throws IOException
+    {
+        while (carryLength < length && !eof) {
+            if (carry.length < length) {
+                carry = Arrays.copyOf(carry, Math.max(carry.length * 2, length));
+            }
+            int n = in.read(carry, carryLength, carry.length - carryLength);
+            if (n < 0) {
+                eof = true;
+            }
+            else {
+                carryLength += n;
+            }
+        }
+        return carryLength >= length;
+    }
+
+    private static boolean isHeaderCandidate(byte[] b, int pos)
+    {
+        int os = b[pos + 9] & 0xff;
+        return b[pos] == (byte) 0x1f && b[pos + 1] == (byte) 0x8b && b[pos + 2] == 8
+            && (b[pos + 3] & 0xe0) == 0  // reserved flags
+            && (os <= 13 || os == 255);
+    }
+
+    // returns the size of the BGZF block at pos, or -1 if it's not a BGZF header
+    private static int getBgzfBlockSize(byte[] b, int pos)
+    {
+        if (!isHeaderCandidate(b, pos) || (b[pos + 3] & FEXTRA) == 0) {
+            return -1;
+        }
+        int extraLength = (b[pos + 10] & 0xff) | ((b[pos + 11] & 0xff) << 8);
+        if (extraLength < 6 || b[pos + 12] != 'B' || b[pos + 13] != 'C' || b[pos + 14] != 2 || b[pos + 15] != 0) {
+            return -1;
+        }
+        return ((b[pos + 16] & 0xff) | ((b[pos + 17] & 0xff) << 8)) + 1;
+    }
+
+    // returns the header size, or -1 if it's not a valid header
+    private static int getHeaderSize(byte[] b, int pos, int length)
+    {
+        if (length - pos < HEADER_SIZE || b[pos] != (byte) 0x1f || b[pos + 1] != (byte) 0x8b || b[pos + 2] != 8) {
+            return -1;
+        }
+        int flags = b[pos + 3] & 0xff;
+        int p = pos + HEADER_SIZE;
+        if ((flags & FEXTRA) != 0) {
+            if (length - p < 2) {
+                return -1;
+            }
+            p += 2 + ((b[p] & 0xff) | ((b[p + 1] & 0xff) << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            while (p < length && b[p] != 0) {
+                p++;
+            }
+            p++;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (p < length && b[p] != 0) {
+                p++;
+            }
+            p++;
+        }
+        if ((flags & FHCRC) != 0) {
+            p += 2;
+        }
+        return p <= length ? p - pos : -1;
+    }
+
+    private static int readIntLE(byte[] b, int pos)
+    {
+        return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8) | ((b[pos + 2] & 0xff) << 16) | ((b[pos + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Inflates the data as a sequence of complete members. Returns null if the data is not
+     * complete members or the output is larger than maxDecodedSize.
+     */
+    static Decoded decodeMembers(byte[] data, int length, int maxDecodedSize)
+    {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        byte[] out = new byte[Math.min(maxDecodedSize, Math.max(length * 4, 1024))];
+        int outLength = 0;
+        int pos = 0;
+        try {
+            while (pos < length) {
+                int headerSize = getHeaderSize(data, pos, length);
+                if (headerSize < 0) {
+                    return null;
+                }
+                inflater.reset();
+                inflater.setInput(data, pos + headerSize, length - pos - headerSize);
+                int memberStart = outLength;
+                while (!inflater.finished()) {
+                    if (outLength == out.length) {
+                        if (out.length >= maxDecodedSize) {
+                            return null;
+                        }
+                        out = Arrays.copyOf(out, (int) Math.min((long) out.length * 2, maxDecodedSize));
+                    }
+                    int n = inflater.inflate(out, outLength, out.length - outLength);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        return null;
+                    }
+                    outLength += n;
+                }
+
+                int trailer = length - inflater.getRemaining();
+                if (length - trailer < 8) {
+                    return null;
+                }
+                crc.reset();
+                crc.update(out, memberStart, outLength - memberStart);
+                if (readIntLE(data, trailer) != (int) crc.getValue() || readIntLE(data, trailer + 4) != outLength - memberStart) {
+                    return null;
+                }
+                pos = trailer + 8;
+            }
+            return new Decoded(out, outLength);
+        }
+        catch (DataFormatException ex) {
+            return null;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            if (segment.decoded != null) {
+                segment.decoded.cancel(false);
+            }
+        }
+        segments.clear();
+        if (ownsInflater) {
+            inflater.end();
+        }
+        in.close();
+    }
+}
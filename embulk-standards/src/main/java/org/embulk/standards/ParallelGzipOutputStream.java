@@ -0,0 +1,216 @@
+package org.embulk.standards;
+
+import com.google.common.base.Throwables;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * OutputStream which compresses blocks concurrently and writes them as a single gzip member
+ * in the same way as pigz.
+ *
+ * Each block is compressed by its own Deflater using the last 32KB of the previous block as
+ * the preset dictionary, and ends with a sync flush so that the compressed blocks can be
+ * concatenated into one deflate stream. The CRC-32 is computed on the writer thread.
+ *
+ * The number of blocks in flight is limited by the thread count so that a stream uses at most
+ * that many threads of {@link CompressionThreads}.
+ */
+class ParallelGzipOutputStream
+        extends OutputStream
+{
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] HEADER = new byte[] {
+        (byte) 0x1f, (byte) 0x8b,  // magic
+        Deflater.DEFLATED,  // method
+        0,  // flags
+        0, 0, 0, 0,  // mtime
+        0,  // extra flags
+        0,  // OS
+    };
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final int maxBlocksInFlight;
+    private final ExecutorService executor;
+    private final Queue<Future<byte[]>> blocksInFlight = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private long totalLength = 0;
+    private byte[] block;
+    private int blockLength = 0;
+    private byte[] previousBlock = null;
+    private int previousBlockLength = 0;
+    private boolean closed = false;
+
+    ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int threads)
+            throws IOException
+    {
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxBlocksInFlight = threads;
+        this.executor = CompressionThreads.getExecutor();
+        this.block = new byte[blockSize];
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        crc.update(b, off, len);
+        totalLength += len;
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        // blocks are written when they are compressed. flushing a partial block would hurt compression ratio.
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!blocksInFlight.isEmpty()) {
+                writeNextBlock();
+            }
+            writeTrailer();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void submitBlock(final boolean last) throws IOException
+    {
+        final byte[] input = block;
+        final int inputLength = blockLength;
+        final byte[] dictionary = previousBlock;
+        final int dictionaryLength = previousBlockLength;
+        final int level = this.level;
+
+        blocksInFlight.add(executor.submit(new Callable<byte[]>() {
+            public byte[] call()
+            {
+                return compress(level, input, inputLength, dictionary, dictionaryLength, last);
+            }
+        }));
+
+        if (!last) {
+            // the submitted array is read by the compressing threads as the input and the next dictionary
+            previousBlock = input;
+            previousBlockLength = inputLength;
+            block = new byte[blockSize];
+            blockLength = 0;
+
+            while (blocksInFlight.size() >= maxBlocksInFlight) {
+                writeNextBlock();
+            }
+        }
+    }
+
+    private void writeNextBlock() throws IOException
+    {
+        Future<byte[]> future = blocksInFlight.remove();
+        byte[] compressed;
+        try {
+            compressed = future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex) {
+            Throwables.propagateIfPossible(ex.getCause(), IOException.class);
+            throw new IOException(ex.getCause());
+        }
+        out.write(compressed);
+    }
+
+    private void writeTrailer() throws IOException
+    {
+        byte[] trailer = new byte[8];
+        writeIntLE(trailer, 0, (int) crc.getValue());
+        writeIntLE(trailer, 4, (int) totalLength);  // ISIZE is the length modulo 2^32
+        out.write(trailer);
+    }
+
+    private static void writeIntLE(byte[] b, int offset, int v)
+    {
+        b[offset] = (byte) v;
+        b[offset + 1] = (byte) (v >> 8);
+        b[offset + 2] = (byte) (v >> 16);
+        b[offset + 3] = (byte) (v >> 24);
+    }
+
+    static byte[] compress(int level, byte[] input, int inputLength,
+            byte[] dictionary, int dictionaryLength, boolean last)
+    {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int length = Math.min(dictionaryLength, DICTIONARY_SIZE);
+                deflater.setDictionary(dictionary, dictionaryLength - length, length);
+            }
+            deflater.setInput(input, 0, inputLength);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(inputLength / 2 + 64);
+            byte[] buffer = new byte[Math.max(inputLength / 2, 512)];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            }
+            else {
+                // SYNC_FLUSH aligns the output to a byte boundary without ending the deflate stream.
+                // deflate fills the whole buffer if there is remaining output.
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+}
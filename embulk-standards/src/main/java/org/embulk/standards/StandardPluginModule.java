@@ -29,10 +29,13 @@ public class StandardPluginModule
         // parser plugins
         registerPluginTo(binder, ParserPlugin.class, "csv", CsvParserPlugin.class);
         registerPluginTo(binder, ParserPlugin.class, "json", JsonParserPlugin.class);
+        registerPluginTo(binder, ParserPlugin.class, "page_dump", PageDumpParserPlugin.class);
 
         // file decoder plugins
         registerPluginTo(binder, DecoderPlugin.class, "gzip", GzipFileDecoderPlugin.class);
         registerPluginTo(binder, DecoderPlugin.class, "bzip2", Bzip2FileDecoderPlugin.class);
+        registerPluginTo(binder, DecoderPlugin.class, "lz4", Lz4FileDecoderPlugin.class);
+        registerPluginTo(binder, DecoderPlugin.class, "auto", AutoFileDecoderPlugin.class);
 
         // output plugins
         registerPluginTo(binder, OutputPlugin.class, "file", LocalFileOutputPlugin.class);
@@ -41,10 +44,13 @@ public class StandardPluginModule
 
         // formatter plugins
         registerPluginTo(binder, FormatterPlugin.class, "csv", CsvFormatterPlugin.class);
+        registerPluginTo(binder, FormatterPlugin.class, "jsonl", JsonlFormatterPlugin.class);
+        registerPluginTo(binder, FormatterPlugin.class, "page_dump", PageDumpFormatterPlugin.class);
 
         // file encoder plugins
         registerPluginTo(binder, EncoderPlugin.class, "gzip", GzipFileEncoderPlugin.class);
         registerPluginTo(binder, EncoderPlugin.class, "bzip2", Bzip2FileEncoderPlugin.class);
+        registerPluginTo(binder, EncoderPlugin.class, "lz4", Lz4FileEncoderPlugin.class);
 
         // filter plugins
         registerPluginTo(binder, FilterPlugin.class, "rename", RenameFilterPlugin.class);
@@ -53,6 +59,8 @@ public class StandardPluginModule
         // default guess plugins
         registerDefaultGuessPluginTo(binder, DefaultPluginType.create("gzip"));
         registerDefaultGuessPluginTo(binder, DefaultPluginType.create("bzip2"));
+        registerDefaultGuessPluginTo(binder, DefaultPluginType.create("lz4"));
+        registerDefaultGuessPluginTo(binder, DefaultPluginType.create("page_dump"));
         registerDefaultGuessPluginTo(binder, DefaultPluginType.create("json")); // should be registered before CsvGuessPlugin
         registerDefaultGuessPluginTo(binder, DefaultPluginType.create("csv"));
         // charset and newline guess plugins are loaded and invoked by CsvGuessPlugin
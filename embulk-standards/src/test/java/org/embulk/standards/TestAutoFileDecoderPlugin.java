@@ -0,0 +1,154 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.DecoderPlugin;
+import org.embulk.spi.FileInput;
+import org.embulk.spi.util.ListFileInput;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestAutoFileDecoderPlugin
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testDetect()
+    {
+        assertEquals(AutoFileDecoderPlugin.Compression.GZIP, detect(0x1f, 0x8b, 0x08, 0x00));
+        assertEquals(AutoFileDecoderPlugin.Compression.BZIP2, detect('B', 'Z', 'h', '9'));
+        assertEquals(AutoFileDecoderPlugin.Compression.LZ4, detect(0x04, 0x22, 0x4d, 0x18));
+        assertEquals(AutoFileDecoderPlugin.Compression.LZ4, detect(0x5f, 0x2a, 0x4d, 0x18));
+        assertEquals(AutoFileDecoderPlugin.Compression.NONE, detect('B', 'Z', 'h', 'a'));
+        assertEquals(AutoFileDecoderPlugin.Compression.NONE, detect('B', 'Z', 'h'));
+        assertEquals(AutoFileDecoderPlugin.Compression.NONE, detect(0x1f));
+        assertEquals(AutoFileDecoderPlugin.Compression.NONE, detect());
+    }
+
+    @Test
+    public void testDecodeMixedFiles() throws IOException
+    {
+        byte[] text = bytes("id,name\n1,foo\n2,bar\n");
+        List<byte[]> files = Arrays.asList(
+                text,
+                gzip(text),
+                new byte[0],
+                bzip2(text),
+                bytes("x"),
+                lz4(text),
+                bytes("BZh"),
+                gzip(bytes("3,baz\n")));  // the inflater is reused
+
+        for (int bufferSize : new int[] { 1, 3, 1000 }) {
+            List<byte[]> decoded = decode(files, bufferSize);
+            assertEquals(8, decoded.size());
+            assertArrayEquals(text, decoded.get(0));
+            assertArrayEquals(text, decoded.get(1));
+            assertArrayEquals(new byte[0], decoded.get(2));
+            assertArrayEquals(text, decoded.get(3));
+            assertArrayEquals(bytes("x"), decoded.get(4));
+            assertArrayEquals(text, decoded.get(5));
+            assertArrayEquals(bytes("BZh"), decoded.get(6));
+            assertArrayEquals(bytes("3,baz\n"), decoded.get(7));
+        }
+    }
+
+    private static AutoFileDecoderPlugin.Compression detect(int... values)
+    {
+        byte[] magic = new byte[4];
+        for (int i = 0; i < values.length; i++) {
+            magic[i] = (byte) values[i];
+        }
+        return AutoFileDecoderPlugin.detect(magic, values.length);
+    }
+
+    private List<byte[]> decode(List<byte[]> files, int bufferSize)
+    {
+        List<List<Buffer>> input = new ArrayList<>();
+        for (byte[] file : files) {
+            List<Buffer> buffers = new ArrayList<>();
+            for (int off = 0; off < file.length; off += bufferSize) {
+                buffers.add(Buffer.copyOf(file, off, Math.min(off + bufferSize, file.length)));
+            }
+            input.add(buffers);
+        }
+
+        final AutoFileDecoderPlugin plugin = new AutoFileDecoderPlugin();
+        final FileInput fileInput = new ListFileInput(input);
+        final List<byte[]> decoded = new ArrayList<>();
+        plugin.transaction(runtime.getExec().newConfigSource(), new DecoderPlugin.Control()
+        {
+            public void run(TaskSource taskSource)
+            {
+                try (FileInput in = plugin.open(taskSource, fileInput)) {
+                    while (in.nextFile()) {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        Buffer buffer;
+                        while ((buffer = in.poll()) != null) {
+                            bytes.write(buffer.array(), buffer.offset(), buffer.limit());
+                            buffer.release();
+                        }
+                        decoded.add(bytes.toByteArray());
+                    }
+                }
+            }
+        });
+        return decoded;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] bzip2(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new BZip2CompressorOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    // a frame of an uncompressed block
+    private static byte[] lz4(byte[] data)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(bytes, 0x04, 0x22, 0x4d, 0x18, 0x60, 0x40);
+        bytes.write((Lz4Codec.XxHash32.hash(new byte[] { 0x60, 0x40 }, 0, 2) >>> 8) & 0xff);
+        write(bytes, data.length, 0, 0, 0x80);
+        bytes.write(data, 0, data.length);
+        write(bytes, 0, 0, 0, 0);
+        return bytes.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, int... values)
+    {
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
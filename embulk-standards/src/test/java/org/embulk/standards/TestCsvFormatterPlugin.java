@@ -9,9 +9,13 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import static org.junit.Assert.assertEquals;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigSource;
+import org.embulk.spi.Buffer;
 import org.embulk.spi.Exec;
+import org.embulk.spi.MockFileOutput;
+import org.embulk.spi.util.LineEncoder;
 import org.embulk.spi.util.Newline;
 
 public class TestCsvFormatterPlugin
@@ -309,4 +313,53 @@ public class TestCsvFormatterPlugin
         assertEquals("", method.invoke(formatter, "", delimiter, CsvFormatterPlugin.QuotePolicy.NONE, quote, escape, newline, "N/A"));
         assertEquals("N/A", method.invoke(formatter, "N/A", delimiter, CsvFormatterPlugin.QuotePolicy.NONE, quote, escape, newline, "N/A"));
     }
+
+    @Test
+    public void testValueWriterMatchesEscapeAndQuoteValue()
+            throws Exception
+    {
+        Method method = CsvFormatterPlugin.class.getDeclaredMethod("setEscapeAndQuoteValue", String.class, char.class,
+                CsvFormatterPlugin.QuotePolicy.class, char.class, char.class, String.class, String.class);
+        method.setAccessible(true);
+        CsvFormatterPlugin formatter = new CsvFormatterPlugin();
+
+        String[] values = { "", "ABCD", "AB\"CD", "A,B", "A\rB", "A\nB", "A\r\nB", "\r\n\n", "\\N", "null", "\"" };
+        for (CsvFormatterPlugin.QuotePolicy policy : CsvFormatterPlugin.QuotePolicy.values()) {
+            for (String nullString : new String[] { "", "\\N", "0" }) {
+                StringBuilder expected = new StringBuilder();
+                for (String value : values) {
+                    expected.append(method.invoke(formatter, value, ',', policy, '"', '\\', "\r\n", nullString));
+                }
+                for (long value : new long[] { 0L, -1L, 123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+                    expected.append(method.invoke(formatter, Long.toString(value), ',', policy, '"', '\\', "\r\n", nullString));
+                }
+                for (double value : new double[] { 0.0, -0.0, 1.0, -12.0, 0.5, 1e7, 1e-4, Double.NaN, Double.NEGATIVE_INFINITY }) {
+                    expected.append(method.invoke(formatter, Double.toString(value), ',', policy, '"', '\\', "\r\n", nullString));
+                }
+
+                MockFileOutput output = new MockFileOutput();
+                ConfigSource config = Exec.newConfigSource().set("newline", "LF");
+                try (LineEncoder encoder = new LineEncoder(output, config.loadConfig(CsvFormatterPlugin.PluginTask.class))) {
+                    encoder.nextFile();
+                    CsvValueWriter writer = new CsvValueWriter(encoder, ',', policy, '"', '\\', "\r\n", nullString);
+                    for (String value : values) {
+                        writer.addString(value);
+                    }
+                    for (long value : new long[] { 0L, -1L, 123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+                        writer.addLong(value);
+                    }
+                    for (double value : new double[] { 0.0, -0.0, 1.0, -12.0, 0.5, 1e7, 1e-4, Double.NaN, Double.NEGATIVE_INFINITY }) {
+                        writer.addDouble(value);
+                    }
+                    encoder.finish();
+                }
+
+                StringBuilder actual = new StringBuilder();
+                for (Buffer buffer : output.getLastBuffers()) {
+                    actual.append(new String(buffer.array(), buffer.offset(), buffer.limit(), StandardCharsets.UTF_8));
+                }
+                assertEquals(policy + " " + nullString, expected.toString(), actual.toString());
+            }
+        }
+    }
 }
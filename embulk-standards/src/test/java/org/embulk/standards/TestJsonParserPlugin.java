@@ -1,6 +1,7 @@
 package org.embulk.standards;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharSource;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigSource;
@@ -11,6 +12,7 @@ import org.embulk.spi.FileInput;
 import org.embulk.spi.ParserPlugin;
 import org.embulk.spi.Schema;
 import org.embulk.spi.TestPageBuilderReader.MockPageOutput;
+import org.embulk.spi.time.Timestamp;
 import org.embulk.spi.util.InputStreamFileInput;
 import org.embulk.spi.util.Pages;
 import org.junit.Before;
@@ -19,6 +21,7 @@ import org.junit.Test;
 import org.msgpack.value.Value;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -314,6 +317,96 @@ public class TestJsonParserPlugin
 
     }
 
+    @Test
+    public void readColumns()
+            throws Exception
+    {
+        ConfigSource config = this.config.deepCopy().set("columns", ImmutableList.of(
+                ImmutableMap.of("name", "_c0", "type", "boolean"),
+                ImmutableMap.of("name", "_c1", "type", "long"),
+                ImmutableMap.of("name", "_c2", "type", "double"),
+                ImmutableMap.of("name", "_c3", "type", "string"),
+                ImmutableMap.of("name", "_c4", "type", "timestamp", "format", "%Y-%m-%d %H:%M:%S"),
+                ImmutableMap.of("name", "_c5", "type", "json"),
+                ImmutableMap.of("name", "k", "type", "string", "json_pointer", "/_x/k"),
+                ImmutableMap.of("name", "e1", "type", "string", "json_pointer", "/_c6/1")));
+        transaction(config, fileInput(
+                "{\"_c0\":true,\"_c1\":10,\"_c2\":0.5,\"_c3\":\"embulk\",\"_c4\":\"2017-01-02 03:04:05\",\"_c5\":{\"k\":\"v\"},\"_c6\":[\"e0\",\"e1\"],\"_x\":{\"y\":[1],\"k\":\"v\"}}",
+                "{\"_c1\":\"-10\",\"_c3\":{\"a\":[1]},\"_c4\":1483326245,\"_c5\":null}",
+                "{\"_c1\":\"not a number\"}", // this record should be skipped.
+                "[1, 2, 3]" // this record should be skipped.
+        ));
+
+        Schema schema = config.loadConfig(JsonParserPlugin.PluginTask.class).getSchemaConfig().get().toSchema();
+        List<Object[]> records = Pages.toObjects(schema, output.pages);
+        assertEquals(2, records.size());
+
+        Object[] record = records.get(0);
+        assertEquals(true, record[0]);
+        assertEquals(10L, record[1]);
+        assertEquals(0.5, record[2]);
+        assertEquals("embulk", record[3]);
+        assertEquals(Timestamp.ofEpochSecond(1483326245L), record[4]);
+        assertEquals(newMap(newString("k"), newString("v")), record[5]);
+        assertEquals("v", record[6]);
+        assertEquals("e1", record[7]);
+
+        record = records.get(1);
+        assertEquals(null, record[0]);
+        assertEquals(-10L, record[1]);
+        assertEquals(null, record[2]);
+        assertEquals("{\"a\":[1]}", record[3]);
+        assertEquals(Timestamp.ofEpochSecond(1483326245L), record[4]);
+        assertEquals(null, record[5]);
+        assertEquals(null, record[6]);
+        assertEquals(null, record[7]);
+    }
+
+    @Test
+    public void useStopOnInvalidRecordWithColumns()
+            throws Exception
+    {
+        ConfigSource config = this.config.deepCopy()
+                .set("stop_on_invalid_record", true)
+                .set("columns", ImmutableList.of(ImmutableMap.of("name", "_c0", "type", "long")));
+
+        try {
+            transaction(config, fileInput(
+                    "{\"_c0\":0.5}" // throw DataException
+            ));
+            fail();
+        }
+        catch (Throwable t) {
+            assertTrue(t instanceof DataException);
+        }
+    }
+
+    @Test
+    public void checkInvalidEscapeStringAcrossBufferBoundaries()
+            throws Exception
+    {
+        String json = "{\"\\a\\u12xY\\u0041\\\\b\\あ\":\"\\/\"}\\\n{\"c\\u00\":1}\\";
+        String skipped = "{\"12xY\\u0041\\\\b\":\"\\/\"}\n{\"c00\":1}";
+        String unescaped = "{\"au12xY\\u0041\\\\bあ\":\"\\/\"}\n{\"cu00\":1}";
+        for (int bufferSize = 1; bufferSize <= 16; bufferSize++) {
+            assertEquals(skipped, readInvalidEscapeStringInputStream(json, SKIP, bufferSize));
+            assertEquals(unescaped, readInvalidEscapeStringInputStream(json, UNESCAPE, bufferSize));
+        }
+    }
+
+    private static String readInvalidEscapeStringInputStream(String json, JsonParserPlugin.InvalidEscapeStringPolicy policy, int bufferSize)
+            throws IOException
+    {
+        InputStream in = new InvalidEscapeStringInputStream(new ByteArrayInputStream(json.getBytes("UTF-8")), policy, bufferSize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[bufferSize];
+        int n;
+        while ((n = in.read(b, 0, b.length)) >= 0) {
+            out.write(b, 0, n);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
     private ConfigSource config()
     {
         return runtime.getExec().newConfigSource();
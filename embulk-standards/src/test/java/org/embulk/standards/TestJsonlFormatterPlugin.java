@@ -0,0 +1,123 @@
+package org.embulk.standards;
+
+import static org.embulk.spi.type.Types.BOOLEAN;
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertEquals;
+import static org.msgpack.value.ValueFactory.newArray;
+import static org.msgpack.value.ValueFactory.newFloat;
+import static org.msgpack.value.ValueFactory.newInteger;
+import static org.msgpack.value.ValueFactory.newMap;
+import static org.msgpack.value.ValueFactory.newNil;
+import static org.msgpack.value.ValueFactory.newString;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FormatterPlugin;
+import org.embulk.spi.MockFileOutput;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.Timestamp;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.msgpack.value.Value;
+
+public class TestJsonlFormatterPlugin
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private JsonlFormatterPlugin plugin;
+    private Schema schema;
+
+    @Before
+    public void createResources()
+    {
+        plugin = new JsonlFormatterPlugin();
+        schema = Schema.builder()
+                .add("_c0", BOOLEAN)
+                .add("_c1", LONG)
+                .add("_c2", DOUBLE)
+                .add("_c3", STRING)
+                .add("_c4", TIMESTAMP)
+                .add("_c5", JSON)
+                .build();
+    }
+
+    @Test
+    public void checkDefaultValues()
+    {
+        JsonlFormatterPlugin.PluginTask task = runtime.getExec().newConfigSource().loadConfig(JsonlFormatterPlugin.PluginTask.class);
+        assertEquals("\n", task.getNewline().getString());
+        assertEquals("%Y-%m-%d %H:%M:%S.%6N %z", task.getDefaultTimestampFormat());
+    }
+
+    @Test
+    public void writeRecords()
+    {
+        Value json = newMap(
+                newString("k"), newArray(newInteger(1), newFloat(1.5), newNil()),
+                newInteger(2), newString("v\"\n"));
+        String output = format(runtime.getExec().newConfigSource(),
+                true, 1L, 0.5, "a\"b", Timestamp.ofEpochSecond(1416365189, 123000000), json,
+                null, null, null, null, null, null,
+                false, -1L, Double.NaN, "日本語", Timestamp.ofEpochSecond(0), newString("s"));
+
+        assertEquals(
+                "{\"_c0\":true,\"_c1\":1,\"_c2\":0.5,\"_c3\":\"a\\\"b\",\"_c4\":\"2014-11-19 02:46:29.123000 +0000\"," +
+                "\"_c5\":{\"k\":[1,1.5,null],\"2\":\"v\\\"\\n\"}}\n" +
+                "{\"_c0\":null,\"_c1\":null,\"_c2\":null,\"_c3\":null,\"_c4\":null,\"_c5\":null}\n" +
+                "{\"_c0\":false,\"_c1\":-1,\"_c2\":null,\"_c3\":\"日本語\",\"_c4\":\"1970-01-01 00:00:00.000000 +0000\",\"_c5\":\"s\"}\n",
+                output);
+        assertEquals(json.toJson(), output.substring(output.indexOf("\"_c5\":") + 6, output.indexOf("}\n")));
+    }
+
+    @Test
+    public void useColumnOptions()
+    {
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("newline", "CRLF")
+                .set("column_options", ImmutableMap.of("_c4", ImmutableMap.of("format", "%Y-%m-%dT%H:%M:%S.%3NZ")));
+        String output = format(config,
+                true, 1L, 0.5, "a", Timestamp.ofEpochSecond(1416365189, 123000000), newNil());
+
+        assertEquals(
+                "{\"_c0\":true,\"_c1\":1,\"_c2\":0.5,\"_c3\":\"a\",\"_c4\":\"2014-11-19T02:46:29.123Z\",\"_c5\":null}\r\n",
+                output);
+    }
+
+    private String format(ConfigSource config, final Object... values)
+    {
+        final MockFileOutput fileOutput = new MockFileOutput();
+        plugin.transaction(config, schema, new FormatterPlugin.Control()
+        {
+            @Override
+            public void run(TaskSource taskSource)
+            {
+                PageOutput output = plugin.open(taskSource, schema, fileOutput);
+                for (Page page : PageTestUtils.buildPage(runtime.getBufferAllocator(), schema, values)) {
+                    output.add(page);
+                }
+                output.finish();
+                output.close();
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Buffer buffer : fileOutput.getLastBuffers()) {
+            bytes.write(buffer.array(), buffer.offset(), buffer.limit());
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,354 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.FileInputPlugin;
+import org.embulk.spi.TransactionalFileInput;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestLocalFileInputPlugin
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void checkDefaultValues()
+    {
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", "in_");
+        LocalFileInputPlugin.PluginTask task = config.loadConfig(LocalFileInputPlugin.PluginTask.class);
+        assertEquals(false, task.getMmap());
+        assertEquals(1, task.getListingThreads());
+        assertEquals(false, task.getListingIndex().isPresent());
+    }
+
+    @Test
+    public void readChangedFiles() throws IOException
+    {
+        assertChangedFiles(false);
+    }
+
+    @Test
+    public void readChangedMappedFiles() throws IOException
+    {
+        assertChangedFiles(true);
+    }
+
+    private void assertChangedFiles(boolean mmap) throws IOException
+    {
+        File dir = tmp.newFolder();
+        Path log = new File(dir, "in_log.txt").toPath();
+        Files.write(log, "a\nb\n".getBytes("UTF-8"));
+
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", new File(dir, "in_").getPath())
+                .set("detect_changes", true)
+                .set("mmap", mmap);
+        List<byte[]> files = new ArrayList<>();
+        config.merge(read(config, files));
+        assertEquals(1, files.size());
+        assertArrayEquals("a\nb\n".getBytes("UTF-8"), files.get(0));
+
+        // unchanged files are skipped
+        files.clear();
+        config.merge(read(config, files));
+        assertEquals(0, files.size());
+
+        // appended bytes are read
+        Files.write(log, "c\n".getBytes("UTF-8"), StandardOpenOption.APPEND);
+        Files.write(new File(dir, "in_new.txt").toPath(), "d\n".getBytes("UTF-8"));
+        files.clear();
+        config.merge(read(config, files));
+        assertEquals(2, files.size());
+        assertEquals("c\nd\n", new String(files.get(0), "UTF-8") + new String(files.get(1), "UTF-8"));
+
+        // replaced files are read from the beginning
+        Files.write(log, "x\ny\nz\nw\n".getBytes("UTF-8"));
+        files.clear();
+        config.merge(read(config, files));
+        assertEquals(1, files.size());
+        assertArrayEquals("x\ny\nz\nw\n".getBytes("UTF-8"), files.get(0));
+
+        // entries of removed files are overwritten by padding entries when the diff is merged
+        Files.delete(log);
+        files.clear();
+        config.merge(read(config, files));
+        List<?> lastFiles = config.get(List.class, "last_files");
+        assertEquals(2, lastFiles.size());
+        assertEquals(null, ((Map<?, ?>) lastFiles.get(1)).get("path"));
+        Files.write(new File(dir, "in_new.txt").toPath(), "e\n".getBytes("UTF-8"), StandardOpenOption.APPEND);
+        files.clear();
+        ConfigDiff diff = read(config, files);
+        assertEquals(1, files.size());
+        assertArrayEquals("e\n".getBytes("UTF-8"), files.get(0));
+        // padding entries are not emitted again
+        assertEquals(1, diff.get(List.class, "last_files").size());
+        config.merge(diff);
+
+        // a file created again with the same name is read from the beginning
+        Files.write(log, "x\ny\nz\nw\nv\n".getBytes("UTF-8"));
+        files.clear();
+        config.merge(read(config, files));
+        assertEquals(1, files.size());
+        assertArrayEquals("x\ny\nz\nw\nv\n".getBytes("UTF-8"), files.get(0));
+    }
+
+    @Test
+    public void readCompleteLines() throws IOException
+    {
+        File dir = tmp.newFolder();
+        Path log = new File(dir, "in_log.txt").toPath();
+        Files.write(log, "a\nb".getBytes("UTF-8"));
+
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", new File(dir, "in_").getPath())
+                .set("detect_changes", true);
+        List<byte[]> files = new ArrayList<>();
+        config.merge(read(config, files));
+        assertEquals(1, files.size());
+        assertArrayEquals("a\n".getBytes("UTF-8"), files.get(0));
+
+        // the partial line is read after it's completed
+        Files.write(log, "c".getBytes("UTF-8"), StandardOpenOption.APPEND);
+        files.clear();
+        config.merge(read(config, files));
+        assertEquals(0, files.size());
+        Files.write(log, "\nd".getBytes("UTF-8"), StandardOpenOption.APPEND);
+        files.clear();
+        config.merge(read(config, files));
+        assertEquals(1, files.size());
+        assertArrayEquals("bc\n".getBytes("UTF-8"), files.get(0));
+
+        // newline of the parser
+        Files.write(log, "\re\r".getBytes("UTF-8"), StandardOpenOption.APPEND);
+        files.clear();
+        config.merge(read(config.deepCopy().set("parser", ImmutableMap.of("type", "csv", "newline", "CR")), files));
+        assertEquals(1, files.size());
+        assertArrayEquals("d\re\r".getBytes("UTF-8"), files.get(0));
+    }
+
+    @Test
+    public void rejectDetectChangesWithDecodersOrHeaderLines()
+    {
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", new File(tmp.getRoot(), "in_").getPath())
+                .set("detect_changes", true);
+        try {
+            read(config.deepCopy().set("decoders", ImmutableList.of(ImmutableMap.of("type", "gzip"))), new ArrayList<byte[]>());
+            fail();
+        }
+        catch (ConfigException ex) {
+            // expected
+        }
+        try {
+            read(config.deepCopy().set("parser", ImmutableMap.of("type", "csv", "skip_header_lines", 1)), new ArrayList<byte[]>());
+            fail();
+        }
+        catch (ConfigException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void readChangedFilesInBatches() throws IOException
+    {
+        File dir = tmp.newFolder();
+        Files.write(new File(dir, "in_0.txt").toPath(), "a\n".getBytes("UTF-8"));
+        Files.write(new File(dir, "in_1.txt").toPath(), "b\n".getBytes("UTF-8"));
+
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", new File(dir, "in_").getPath())
+                .set("detect_changes", true)
+                .set("max_batch_size", "1B");
+        List<byte[]> files = new ArrayList<>();
+        config.merge(read(config, files));
+        assertEquals(1, files.size());
+        config.merge(read(config, files));
+        assertEquals(2, files.size());
+        config.merge(read(config, files));
+        assertEquals(2, files.size());
+        assertEquals("a\nb\n", new String(files.get(0), "UTF-8") + new String(files.get(1), "UTF-8"));
+    }
+
+    @Test
+    public void watchNewFiles() throws Exception
+    {
+        final File dir = tmp.newFolder();
+        final ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", new File(dir, "in_").getPath())
+                .set("detect_changes", true)
+                .set("watch", true);
+        final List<byte[]> files = new ArrayList<>();
+        Thread thread = new Thread() {
+            public void run()
+            {
+                read(config, files);
+            }
+        };
+        thread.start();
+
+        // waits until a file is created
+        Thread.sleep(500);
+        assertTrue(thread.isAlive());
+        Files.write(new File(dir, "in_0.txt").toPath(), "a\n".getBytes("UTF-8"));
+        thread.join(60000);
+        assertFalse(thread.isAlive());
+        assertEquals(1, files.size());
+        assertArrayEquals("a\n".getBytes("UTF-8"), files.get(0));
+    }
+
+    @Test
+    public void listFilesInParallel() throws IOException
+    {
+        for (String dir : new String[] { "in_a", "in_a/x", "in_a/x/y", "in_b", "other" }) {
+            tmp.newFolder(dir.split("/"));
+        }
+        for (String file : new String[] { "in_0.csv", "in_a/1.csv", "in_a/x/2.csv", "in_a/x/y/3.csv", "in_b/4.csv", "other/5.csv", "out.csv" }) {
+            Files.write(new File(tmp.getRoot(), file).toPath(), new byte[0]);
+        }
+
+        String prefix = new File(tmp.getRoot(), "in_").getPath();
+        List<String> expected = listFiles(prefix, 1, null);
+        List<String> sorted = new ArrayList<>(expected);
+        Collections.sort(sorted);
+        assertEquals(Arrays.asList(prefix + "0.csv", prefix + "a/1.csv", prefix + "a/x/2.csv", prefix + "a/x/y/3.csv", prefix + "b/4.csv"), sorted);
+
+        // same order with the sequential listing
+        assertEquals(expected, listFiles(prefix, 4, null));
+    }
+
+    @Test
+    public void listFilesWithIndex() throws IOException
+    {
+        File dir = tmp.newFolder("data");
+        File sub = tmp.newFolder("data", "sub");
+        Files.write(new File(dir, "1.csv").toPath(), new byte[0]);
+        Files.write(new File(sub, "2.csv").toPath(), new byte[0]);
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.setLastModifiedTime(dir.toPath(), past);
+        Files.setLastModifiedTime(sub.toPath(), past);
+
+        String index = new File(tmp.getRoot(), "index").getPath();
+        String prefix = dir.getPath() + File.separator;
+        assertEquals(2, listFiles(prefix, 2, index).size());
+        assertTrue(new File(index).exists());
+
+        // entries of unmodified directories are read from the index
+        Files.write(new File(sub, "3.csv").toPath(), new byte[0]);
+        Files.setLastModifiedTime(sub.toPath(), past);
+        assertEquals(2, listFiles(prefix, 2, index).size());
+
+        // modified directories are read again
+        Files.setLastModifiedTime(sub.toPath(), FileTime.fromMillis(past.toMillis() + 1000));
+        assertEquals(3, listFiles(prefix, 2, index).size());
+    }
+
+    private List<String> listFiles(String pathPrefix, int threads, String index)
+    {
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", pathPrefix)
+                .set("listing_threads", threads)
+                .set("listing_index", index);
+        return new LocalFileInputPlugin().listFiles(config.loadConfig(LocalFileInputPlugin.PluginTask.class));
+    }
+
+    @Test
+    public void readFiles() throws IOException
+    {
+        assertFiles(false);
+    }
+
+    @Test
+    public void readMappedFiles() throws IOException
+    {
+        assertFiles(true);
+    }
+
+    private void assertFiles(boolean mmap) throws IOException
+    {
+        byte[] large = new byte[200 * 1024 + 17];
+        new Random(1).nextBytes(large);
+        byte[] small = "a,b,c\n".getBytes("UTF-8");
+        byte[] empty = new byte[0];
+        Files.write(new File(tmp.getRoot(), "in_0.csv").toPath(), large);
+        Files.write(new File(tmp.getRoot(), "in_1.csv").toPath(), small);
+        Files.write(new File(tmp.getRoot(), "in_2.csv").toPath(), empty);
+
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", new File(tmp.getRoot(), "in_").getPath())
+                .set("mmap", mmap);
+        List<byte[]> files = new ArrayList<>();
+        read(config, files);
+        Collections.sort(files, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b)
+            {
+                return b.length - a.length;  // the order of listed files is not defined
+            }
+        });
+
+        assertEquals(3, files.size());
+        assertArrayEquals(large, files.get(0));
+        assertArrayEquals(small, files.get(1));
+        assertArrayEquals(empty, files.get(2));
+    }
+
+    private ConfigDiff read(ConfigSource config, final List<byte[]> files)
+    {
+        final LocalFileInputPlugin plugin = new LocalFileInputPlugin();
+        return plugin.transaction(config, new FileInputPlugin.Control()
+        {
+            @Override
+            public List<TaskReport> run(TaskSource taskSource, int taskCount)
+            {
+                for (int i = 0; i < taskCount; i++) {
+                    try (TransactionalFileInput input = plugin.open(taskSource, i)) {
+                        while (input.nextFile()) {
+                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            Buffer buffer;
+                            while ((buffer = input.poll()) != null) {
+                                bytes.write(buffer.array(), buffer.offset(), buffer.limit());
+                                buffer.release();
+                            }
+                            files.add(bytes.toByteArray());
+                        }
+                        assertFalse(input.nextFile());
+                        input.commit();
+                    }
+                }
+                return Collections.emptyList();
+            }
+        });
+    }
+}
@@ -0,0 +1,125 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.TransactionalFileOutput;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestLocalFileOutputPlugin
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void checkDefaultValues()
+    {
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("path_prefix", "out_")
+                .set("file_ext", "csv");
+        LocalFileOutputPlugin.PluginTask task = config.loadConfig(LocalFileOutputPlugin.PluginTask.class);
+        assertEquals(false, task.getWriteBehind());
+        assertEquals(LocalFileOutputPlugin.FsyncPolicy.NONE, task.getFsyncPolicy());
+    }
+
+    @Test
+    public void writeFiles() throws IOException
+    {
+        assertFiles(config());
+    }
+
+    @Test
+    public void writeFilesBehind() throws IOException
+    {
+        assertFiles(config().set("write_behind", true).set("fsync", "PER_FILE"));
+    }
+
+    @Test
+    public void syncFilesOnCommit() throws IOException
+    {
+        assertFiles(config().set("write_behind", true).set("fsync", "ON_COMMIT"));
+    }
+
+    @Test
+    public void closeWithoutFinish() throws IOException
+    {
+        LocalFileOutputPlugin plugin = new LocalFileOutputPlugin();
+        LocalFileOutputPlugin.PluginTask task = config().set("write_behind", true).loadConfig(LocalFileOutputPlugin.PluginTask.class);
+        TransactionalFileOutput output = plugin.open(task.dump(), 1);
+        StringBuilder lines = new StringBuilder();
+        try {
+            output.nextFile();
+            for (int i = 0; i < 100; i++) {
+                output.add(buffer("line" + i + "\n"));
+                lines.append("line").append(i).append("\n");
+            }
+            output.abort();
+        }
+        finally {
+            output.close();
+        }
+
+        // pending buffers are dropped
+        assertTrue(lines.toString().startsWith(read("out_001.00.txt")));
+    }
+
+    private ConfigSource config()
+    {
+        return runtime.getExec().newConfigSource()
+                .set("path_prefix", new File(tmp.getRoot(), "out_").getPath())
+                .set("file_ext", "txt");
+    }
+
+    private void assertFiles(ConfigSource config) throws IOException
+    {
+        LocalFileOutputPlugin plugin = new LocalFileOutputPlugin();
+        LocalFileOutputPlugin.PluginTask task = config.loadConfig(LocalFileOutputPlugin.PluginTask.class);
+        TransactionalFileOutput output = plugin.open(task.dump(), 1);
+        try {
+            output.nextFile();
+            for (int i = 0; i < 100; i++) {
+                output.add(buffer("line" + i + "\n"));
+            }
+            output.nextFile();
+            output.add(buffer("second"));
+            output.finish();
+            output.commit();
+        }
+        finally {
+            output.close();
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append("line").append(i).append("\n");
+        }
+        assertEquals(expected.toString(), read("out_001.00.txt"));
+        assertEquals("second", read("out_001.01.txt"));
+    }
+
+    private Buffer buffer(String text)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Buffer buffer = runtime.getBufferAllocator().allocate(bytes.length);
+        buffer.setBytes(0, bytes, 0, bytes.length);
+        buffer.limit(bytes.length);
+        return buffer;
+    }
+
+    private String read(String name) throws IOException
+    {
+        return new String(Files.readAllBytes(new File(tmp.getRoot(), name).toPath()), StandardCharsets.UTF_8);
+    }
+}
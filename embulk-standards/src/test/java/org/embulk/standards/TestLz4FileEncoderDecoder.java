@@ -0,0 +1,208 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.DataException;
+import org.embulk.spi.DecoderPlugin;
+import org.embulk.spi.EncoderPlugin;
+import org.embulk.spi.FileInput;
+import org.embulk.spi.FileOutput;
+import org.embulk.spi.MockFileOutput;
+import org.embulk.spi.util.ListFileInput;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestLz4FileEncoderDecoder
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testXxHash32()
+    {
+        assertEquals(0x02CC5D05, Lz4Codec.XxHash32.hash(new byte[0], 0, 0));
+        assertEquals(0x32D153FF, Lz4Codec.XxHash32.hash(bytes("abc"), 0, 3));
+        byte[] data = newData(1000, 1);
+        Lz4Codec.XxHash32 streaming = new Lz4Codec.XxHash32();
+        for (int off = 0; off < data.length; off += 7) {
+            streaming.update(data, off, Math.min(7, data.length - off));
+        }
+        assertEquals(Lz4Codec.XxHash32.hash(data, 0, data.length), streaming.getValue());
+    }
+
+    @Test
+    public void testBlockRoundTrip()
+    {
+        Lz4Codec codec = new Lz4Codec();
+        for (int length : new int[] { 0, 1, 12, 13, 20, 100, 65536 }) {
+            assertBlockRoundTrip(codec, newData(length, 4));
+            assertBlockRoundTrip(codec, newData(length, 256));
+            byte[] zeros = new byte[length];
+            assertBlockRoundTrip(codec, zeros);
+        }
+    }
+
+    @Test
+    public void testFileRoundTrip()
+    {
+        byte[] first = newData(300000, 8);
+        byte[] second = newData(1000, 256);
+        List<byte[]> files = encode(first, new byte[0], second);
+        assertEquals(3, files.size());
+        assertEquals(0x04, files.get(0)[0]);
+
+        List<byte[]> decoded = decode(files, 1000);
+        assertArrayEquals(first, decoded.get(0));
+        assertArrayEquals(new byte[0], decoded.get(1));
+        assertArrayEquals(second, decoded.get(2));
+
+        // input buffers which contain whole blocks
+        decoded = decode(files, 1 << 20);
+        assertArrayEquals(first, decoded.get(0));
+    }
+
+    @Test
+    public void testDependentBlocksAndSkippableFrame()
+    {
+        byte[] text = bytes("0123456789abcdefghij");
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        // skippable frame
+        write(frame, 0x50, 0x2a, 0x4d, 0x18, 3, 0, 0, 0, 9, 9, 9);
+        // frame with dependent blocks without content checksum
+        write(frame, 0x04, 0x22, 0x4d, 0x18, 0x40, 0x40);
+        frame.write((Lz4Codec.XxHash32.hash(new byte[] { 0x40, 0x40 }, 0, 2) >>> 8) & 0xff);
+        // an uncompressed block
+        write(frame, text.length, 0, 0, 0x80);
+        frame.write(text, 0, text.length);
+        // a compressed block which copies 20 bytes of the previous block and has 5 literals
+        write(frame, 10, 0, 0, 0, 0x0f, 20, 0, 1, 0x50, 'v', 'w', 'x', 'y', 'z');
+        write(frame, 0, 0, 0, 0);
+
+        List<byte[]> decoded = decode(Arrays.asList(frame.toByteArray()), 3);
+        assertEquals("0123456789abcdefghij0123456789abcdefghijvwxyz", new String(decoded.get(0), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBrokenFile()
+    {
+        byte[] compressed = encode(newData(100000, 8)).get(0);
+        compressed[compressed.length / 2] ^= 0x55;
+        try {
+            decode(Arrays.asList(compressed), 1000);
+            fail();
+        }
+        catch (DataException ex) {
+            // expected. checksum mismatch or malformed block
+        }
+    }
+
+    private static void assertBlockRoundTrip(Lz4Codec codec, byte[] data)
+    {
+        byte[] compressed = new byte[Lz4Codec.maxCompressedLength(data.length)];
+        int compressedLength = codec.compress(data, 0, data.length, compressed, 0);
+        byte[] decompressed = new byte[data.length + 10];
+        int length = Lz4Codec.decompress(compressed, 0, compressedLength, decompressed, 5, data.length, 5);
+        assertEquals(data.length, length);
+        assertArrayEquals(data, Arrays.copyOfRange(decompressed, 5, 5 + length));
+    }
+
+    private List<byte[]> encode(final byte[]... files)
+    {
+        final Lz4FileEncoderPlugin plugin = new Lz4FileEncoderPlugin();
+        final MockFileOutput output = new MockFileOutput();
+        ConfigSource config = runtime.getExec().newConfigSource();
+        plugin.transaction(config, new EncoderPlugin.Control()
+        {
+            public void run(TaskSource taskSource)
+            {
+                FileOutput out = plugin.open(taskSource, output);
+                for (byte[] file : files) {
+                    out.nextFile();
+                    for (int off = 0; off < file.length; off += 10000) {
+                        out.add(Buffer.copyOf(file, off, Math.min(off + 10000, file.length)));
+                    }
+                }
+                out.finish();
+                out.close();
+            }
+        });
+
+        List<byte[]> encoded = new ArrayList<>();
+        for (List<Buffer> buffers : output.getFiles()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (Buffer buffer : buffers) {
+                bytes.write(buffer.array(), buffer.offset(), buffer.limit());
+            }
+            encoded.add(bytes.toByteArray());
+        }
+        return encoded;
+    }
+
+    private List<byte[]> decode(List<byte[]> files, int bufferSize)
+    {
+        List<List<Buffer>> input = new ArrayList<>();
+        for (byte[] file : files) {
+            List<Buffer> buffers = new ArrayList<>();
+            for (int off = 0; off < file.length; off += bufferSize) {
+                buffers.add(Buffer.copyOf(file, off, Math.min(off + bufferSize, file.length)));
+            }
+            input.add(buffers);
+        }
+
+        final Lz4FileDecoderPlugin plugin = new Lz4FileDecoderPlugin();
+        final FileInput fileInput = new ListFileInput(input);
+        final List<byte[]> decoded = new ArrayList<>();
+        plugin.transaction(runtime.getExec().newConfigSource(), new DecoderPlugin.Control()
+        {
+            public void run(TaskSource taskSource)
+            {
+                try (FileInput in = plugin.open(taskSource, fileInput)) {
+                    while (in.nextFile()) {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        Buffer buffer;
+                        while ((buffer = in.poll()) != null) {
+                            bytes.write(buffer.array(), buffer.offset(), buffer.limit());
+                            buffer.release();
+                        }
+                        decoded.add(bytes.toByteArray());
+                    }
+                }
+            }
+        });
+        return decoded;
+    }
+
+    private static byte[] newData(int length, int symbols)
+    {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) random.nextInt(symbols);
+        }
+        return data;
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void write(ByteArrayOutputStream out, int... bytes)
+    {
+        for (int b : bytes) {
+            out.write(b);
+        }
+    }
+}
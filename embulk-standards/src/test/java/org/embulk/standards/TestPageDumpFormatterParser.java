@@ -0,0 +1,221 @@
+package org.embulk.standards;
+
+import static org.embulk.spi.type.Types.BOOLEAN;
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.msgpack.value.ValueFactory.newArray;
+import static org.msgpack.value.ValueFactory.newFloat;
+import static org.msgpack.value.ValueFactory.newInteger;
+import static org.msgpack.value.ValueFactory.newMap;
+import static org.msgpack.value.ValueFactory.newNil;
+import static org.msgpack.value.ValueFactory.newString;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.FormatterPlugin;
+import org.embulk.spi.MockFileOutput;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageTestUtils;
+import org.embulk.spi.ParserPlugin;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TestPageBuilderReader.MockPageOutput;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.util.ListFileInput;
+import org.embulk.spi.util.Pages;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestPageDumpFormatterParser
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private Schema schema;
+
+    @Before
+    public void createResources()
+    {
+        schema = Schema.builder()
+                .add("_c0", BOOLEAN)
+                .add("_c1", LONG)
+                .add("_c2", DOUBLE)
+                .add("_c3", STRING)
+                .add("_c4", TIMESTAMP)
+                .add("_c5", JSON)
+                .build();
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        Object[] values = new Object[] {
+            true, 1L, 0.5, "a\"b,c\n", Timestamp.ofEpochSecond(1416365189, 123456789),
+                newMap(newString("k"), newArray(newInteger(1), newFloat(1.5), newNil())),
+            null, null, null, null, null, null,
+            false, Long.MIN_VALUE, Double.NaN, "日本語", Timestamp.ofEpochSecond(-1, 1), newString("s"),
+            null, 0L, null, "", null, newNil(),
+        };
+        List<Object[]> records = parse(schema, Arrays.asList(format(values)), 7);
+
+        assertEquals(4, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(Arrays.copyOfRange(values, i * 6, i * 6 + 6), records.get(i));
+        }
+    }
+
+    @Test
+    public void testMultipleFiles()
+    {
+        byte[] first = format(true, 1L, 1.0, "x", Timestamp.ofEpochSecond(1), newInteger(1));
+        byte[] second = format(false, 2L, 2.0, "y", Timestamp.ofEpochSecond(2), newInteger(2));
+        List<Object[]> records = parse(schema, Arrays.asList(first, second), 1024);
+
+        assertEquals(2, records.size());
+        assertEquals(1L, records.get(0)[1]);
+        assertEquals(2L, records.get(1)[1]);
+    }
+
+    @Test
+    public void testSchemaMismatch()
+    {
+        byte[] file = format(true, 1L, 1.0, "x", Timestamp.ofEpochSecond(1), newInteger(1));
+        Schema renamed = Schema.builder()
+                .add("_c0", BOOLEAN)
+                .add("_c1", LONG)
+                .add("_c2", DOUBLE)
+                .add("renamed", STRING)
+                .add("_c4", TIMESTAMP)
+                .add("_c5", JSON)
+                .build();
+        try {
+            parse(renamed, Arrays.asList(file), 1024);
+            fail();
+        }
+        catch (DataException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBrokenFile()
+    {
+        byte[] file = format(true, 1L, 1.0, "x", Timestamp.ofEpochSecond(1), newInteger(1));
+
+        byte[] truncated = Arrays.copyOf(file, file.length - 1);
+        byte[] notPageDump = "a,b,c\n".getBytes();
+
+        for (byte[] b : new byte[][] { truncated, notPageDump }) {
+            try {
+                parse(schema, Arrays.asList(b), 1024);
+                fail();
+            }
+            catch (DataException ex) {
+                // expected
+            }
+        }
+
+        // a broken sync marker
+        int syncMarkerPosition = firstBlockPosition(file);
+        byte[] broken = file.clone();
+        broken[syncMarkerPosition] ^= 1;
+        try {
+            parse(schema, Arrays.asList(broken), 1024);
+            fail();
+        }
+        catch (DataException ex) {
+            // expected
+        }
+    }
+
+    // skips the magic, columns and sync marker of the file header
+    private static int firstBlockPosition(byte[] file)
+    {
+        int pos = 4;
+        int columns = readInt(file, pos);
+        pos += 4;
+        for (int i = 0; i < columns * 2; i++) {
+            pos += 4 + readInt(file, pos);
+        }
+        return pos + 16;
+    }
+
+    private static int readInt(byte[] b, int pos)
+    {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+
+    private byte[] format(final Object... values)
+    {
+        final PageDumpFormatterPlugin plugin = new PageDumpFormatterPlugin();
+        final MockFileOutput fileOutput = new MockFileOutput();
+        plugin.transaction(runtime.getExec().newConfigSource(), schema, new FormatterPlugin.Control()
+        {
+            @Override
+            public void run(TaskSource taskSource)
+            {
+                PageOutput output = plugin.open(taskSource, schema, fileOutput);
+                for (Page page : PageTestUtils.buildPage(runtime.getBufferAllocator(), schema, values)) {
+                    output.add(page);
+                }
+                output.finish();
+                output.close();
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Buffer buffer : fileOutput.getLastBuffers()) {
+            bytes.write(buffer.array(), buffer.offset(), buffer.limit());
+        }
+        return bytes.toByteArray();
+    }
+
+    private List<Object[]> parse(final Schema schema, List<byte[]> files, int bufferSize)
+    {
+        List<List<Buffer>> input = new ArrayList<>();
+        for (byte[] file : files) {
+            List<Buffer> buffers = new ArrayList<>();
+            for (int off = 0; off < file.length; off += bufferSize) {
+                buffers.add(Buffer.copyOf(file, off, Math.min(off + bufferSize, file.length)));
+            }
+            input.add(buffers);
+        }
+        final ListFileInput fileInput = new ListFileInput(input);
+
+        ImmutableList.Builder<Object> columns = ImmutableList.builder();
+        for (Column column : schema.getColumns()) {
+            columns.add(ImmutableMap.of("name", column.getName(), "type", column.getType().getName()));
+        }
+        ConfigSource config = runtime.getExec().newConfigSource()
+                .set("columns", columns.build());
+
+        final PageDumpParserPlugin plugin = new PageDumpParserPlugin();
+        final MockPageOutput output = new MockPageOutput();
+        plugin.transaction(config, new ParserPlugin.Control()
+        {
+            @Override
+            public void run(TaskSource taskSource, Schema schema)
+            {
+                plugin.run(taskSource, schema, fileInput, output);
+            }
+        });
+        return Pages.toObjects(schema, output.pages);
+    }
+}
@@ -0,0 +1,140 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Test;
+
+public class TestParallelBzip2Streams
+{
+    @Test
+    public void testDecodeMultipleBlocks() throws IOException
+    {
+        byte[] data = newData(350000);
+        assertDecode(data, bzip2(data, 1));
+        assertDecode(data, bzip2(data, 9));
+    }
+
+    @Test
+    public void testDecodeRepeatedBytes() throws IOException
+    {
+        // run-length encoding makes blocks small
+        byte[] data = new byte[3000000];
+        Arrays.fill(data, 1000000, 2000000, (byte) 'x');
+        assertDecode(data, bzip2(data, 1));
+    }
+
+    @Test
+    public void testDecodeEmptyStream() throws IOException
+    {
+        assertDecode(new byte[0], bzip2(new byte[0], 9));
+    }
+
+    @Test
+    public void testDecodeConcatenatedStreams() throws IOException
+    {
+        byte[] data = newData(250000);
+        ByteArrayOutputStream streams = new ByteArrayOutputStream();
+        streams.write(bzip2(Arrays.copyOfRange(data, 0, 120000), 1));
+        streams.write(bzip2(new byte[0], 1));
+        streams.write(bzip2(Arrays.copyOfRange(data, 120000, data.length), 2));
+        assertDecode(data, streams.toByteArray());
+    }
+
+    @Test
+    public void testDecodeCorruptBlock() throws IOException
+    {
+        byte[] compressed = bzip2(newData(350000), 1);
+        compressed[compressed.length / 2] ^= 0x10;
+        assertDecodeFails(compressed);
+    }
+
+    @Test
+    public void testDecodeTruncated() throws IOException
+    {
+        byte[] compressed = bzip2(newData(350000), 1);
+        assertDecodeFails(Arrays.copyOf(compressed, compressed.length - 20));
+    }
+
+    @Test
+    public void testEncode() throws IOException
+    {
+        byte[] data = newData(350000);
+        for (int level : new int[] { 1, 9 }) {
+            byte[] compressed = parallelBzip2(data, level);
+            try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed), true)) {
+                assertArrayEquals(data, ByteStreams.toByteArray(in));
+            }
+            assertDecode(data, compressed);
+        }
+        assertDecode(new byte[0], parallelBzip2(new byte[0], 1));
+    }
+
+    private static void assertDecode(byte[] expected, byte[] compressed) throws IOException
+    {
+        try (InputStream in = new ParallelBzip2InputStream(shortReads(compressed), 4)) {
+            assertArrayEquals(expected, ByteStreams.toByteArray(in));
+        }
+    }
+
+    private static void assertDecodeFails(byte[] compressed)
+    {
+        try (InputStream in = new ParallelBzip2InputStream(shortReads(compressed), 4)) {
+            ByteStreams.toByteArray(in);
+            fail();
+        }
+        catch (IOException ex) {
+            // expected
+        }
+    }
+
+    // returns short reads as FileInputInputStream does at buffer boundaries
+    private static InputStream shortReads(byte[] bytes)
+    {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                return super.read(b, off, Math.min(len, 7777));
+            }
+        };
+    }
+
+    private static byte[] newData(int length)
+    {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(16));
+        }
+        return data;
+    }
+
+    private static byte[] bzip2(byte[] data, int level) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(bytes, level)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] parallelBzip2(byte[] data, int level) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelBzip2OutputStream out = new ParallelBzip2OutputStream(bytes, level, 3)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,177 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import org.junit.Test;
+
+public class TestParallelGzipInputStream
+{
+    @Test
+    public void testSingleMember() throws IOException
+    {
+        byte[] data = newData(200000);
+        assertDecode(data, gzip(data), 1024);
+        assertDecode(new byte[0], gzip(new byte[0]), 1024);
+    }
+
+    @Test
+    public void testConcatenatedMembers() throws IOException
+    {
+        byte[] data = newData(300000);
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        int[] sizes = new int[] { 0, 1, 5000, 30000, 100, 0, 70000 };
+        int off = 0;
+        for (int i = 0; off < data.length; i++) {
+            int len = Math.min(sizes[i % sizes.length], data.length - off);
+            members.write(gzip(Arrays.copyOfRange(data, off, off + len)));
+            off += len;
+        }
+        assertDecode(data, members.toByteArray(), 1024);
+        assertDecode(data, members.toByteArray(), 64 * 1024);
+    }
+
+    @Test
+    public void testBgzfBlocks() throws IOException
+    {
+        byte[] data = newData(500000);
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        for (int off = 0; off < data.length; off += 60000) {
+            blocks.write(bgzf(Arrays.copyOfRange(data, off, Math.min(off + 60000, data.length))));
+        }
+        blocks.write(bgzf(new byte[0]));  // EOF marker block
+        assertDecode(data, blocks.toByteArray(), 1024);
+        assertDecode(data, blocks.toByteArray(), 100000);
+    }
+
+    @Test
+    public void testTrailingGarbage() throws IOException
+    {
+        byte[] data = newData(10000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(gzip(data));
+        bytes.write(new byte[] { 0, 0, 0, 0 });
+        assertDecode(data, bytes.toByteArray(), 1024);
+    }
+
+    @Test
+    public void testCorruptTrailer() throws IOException
+    {
+        byte[] compressed = gzip(newData(10000));
+        compressed[compressed.length - 5] ^= 1;  // ISIZE
+        for (int threads : new int[] { 1, 4 }) {
+            try (InputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(compressed), threads, 1024)) {
+                ByteStreams.toByteArray(in);
+                fail();
+            }
+            catch (ZipException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testNotGzip() throws IOException
+    {
+        try (InputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(newData(100)), 4, 1024)) {
+            ByteStreams.toByteArray(in);
+            fail();
+        }
+        catch (ZipException ex) {
+            // expected
+        }
+    }
+
+    private static void assertDecode(byte[] expected, byte[] compressed, int segmentSize) throws IOException
+    {
+        // the input returns short reads as FileInputInputStream does at buffer boundaries
+        InputStream source = new FilterInputStream(new ByteArrayInputStream(compressed)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                return super.read(b, off, Math.min(len, 3000));
+            }
+        };
+        try (InputStream in = new ParallelGzipInputStream(source, 4, segmentSize)) {
+            assertArrayEquals(expected, ByteStreams.toByteArray(in));
+        }
+
+        // serially with an Inflater reused for two files
+        Inflater inflater = new Inflater(true);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try (InputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(compressed), 1, segmentSize, inflater)) {
+                    assertArrayEquals(expected, ByteStreams.toByteArray(in));
+                }
+            }
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] newData(int length)
+    {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] bgzf(byte[] data) throws IOException
+    {
+        Deflater deflater = new Deflater(6, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] body = new byte[data.length + 1024];
+        int bodyLength = 0;
+        while (!deflater.finished()) {
+            bodyLength += deflater.deflate(body, bodyLength, body.length - bodyLength);
+        }
+        deflater.end();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        int blockSize = 18 + bodyLength + 8;
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.write(new byte[] {
+            0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff,
+            6, 0, 'B', 'C', 2, 0, (byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8) });
+        block.write(body, 0, bodyLength);
+        writeIntLE(block, (int) crc.getValue());
+        writeIntLE(block, data.length);
+        return block.toByteArray();
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int v)
+    {
+        out.write(v);
+        out.write(v >> 8);
+        out.write(v >> 16);
+        out.write(v >> 24);
+    }
+}
@@ -0,0 +1,79 @@
+package org.embulk.standards;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class TestParallelGzipOutputStream
+{
+    @Test
+    public void testEmpty() throws IOException
+    {
+        assertRoundTrip(new byte[0], 6, 1024, 4);
+    }
+
+    @Test
+    public void testMultipleBlocks() throws IOException
+    {
+        byte[] data = newData(100000);
+        assertRoundTrip(data, 6, 1024, 4);
+        assertRoundTrip(data, 1, 4096, 2);
+        assertRoundTrip(data, 0, 1024, 3);
+        assertRoundTrip(data, 9, 100000, 2);  // exactly one block
+    }
+
+    @Test
+    public void testDictionaryKeepsCompressionRatio() throws IOException
+    {
+        // blocks are compressed almost as well as a single stream because each block refers the previous block
+        byte[] data = newData(256 * 1024);
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(single)) {
+            out.write(data);
+        }
+        byte[] compressed = compress(data, 6, 8 * 1024, 4);
+        assertTrue(compressed.length < single.size() * 1.05);
+    }
+
+    private static byte[] newData(int length)
+    {
+        Random random = new Random(1);
+        String[] words = new String[] { "embulk", "gzip", "parallel", "block", "deflate", "\n", "," };
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append(words[random.nextInt(words.length)]).append(random.nextInt(100));
+        }
+        return sb.substring(0, length).getBytes();
+    }
+
+    private static byte[] compress(byte[] data, int level, int blockSize, int threads) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(bytes, level, blockSize, threads)) {
+            // writes in pieces which are not aligned to the block size
+            int off = 0;
+            while (off < data.length) {
+                int len = Math.min(777, data.length - off);
+                out.write(data, off, len);
+                off += len;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void assertRoundTrip(byte[] data, int level, int blockSize, int threads) throws IOException
+    {
+        byte[] compressed = compress(data, level, blockSize, threads);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(data, ByteStreams.toByteArray(in));
+        }
+    }
+}
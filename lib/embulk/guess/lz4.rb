@@ -0,0 +1,19 @@
+module Embulk
+  module Guess
+
+    class Lz4GuessPlugin < GuessPlugin
+      Plugin.register_guess('lz4', self)
+
+      # magic number of the LZ4 frame format: 0x184D2204 (little endian)
+      LZ4_FRAME_HEADER = [0x04, 0x22, 0x4d, 0x18].pack('C*').freeze
+
+      def guess(config, sample_buffer)
+        if sample_buffer[0,4] == LZ4_FRAME_HEADER
+          return {"decoders" => [{"type" => "lz4"}]}
+        end
+        return {}
+      end
+    end
+
+  end
+end
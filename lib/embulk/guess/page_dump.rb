@@ -0,0 +1,47 @@
+module Embulk
+  module Guess
+
+    class PageDumpGuessPlugin < GuessPlugin
+      Plugin.register_guess('page_dump', self)
+
+      # magic number written by the page_dump formatter plugin
+      PAGE_DUMP_HEADER = "EPD\x01".force_encoding('ASCII-8BIT').freeze
+
+      def guess(config, sample_buffer)
+        return {} unless config.fetch("parser", {}).fetch("type", "page_dump") == "page_dump"
+        return {} unless sample_buffer[0,4] == PAGE_DUMP_HEADER
+
+        # columns are embedded in the file header
+        column_count = read_int(sample_buffer, 4)
+        return {} unless column_count
+        pos = 8
+        columns = []
+        column_count.times do
+          name, pos = read_string(sample_buffer, pos)
+          type, pos = read_string(sample_buffer, pos) if name
+          return {} unless name && type
+          columns << {"name" => name, "type" => type}
+        end
+
+        return {"parser" => {"type" => "page_dump", "columns" => columns}}
+      end
+
+      private
+
+      def read_int(buffer, pos)
+        bytes = buffer[pos, 4]
+        return nil unless bytes && bytes.bytesize == 4
+        bytes.unpack('N')[0]
+      end
+
+      def read_string(buffer, pos)
+        length = read_int(buffer, pos)
+        return nil unless length
+        string = buffer[pos + 4, length]
+        return nil unless string && string.bytesize == length
+        return string.force_encoding('UTF-8'), pos + 4 + length
+      end
+    end
+
+  end
+end